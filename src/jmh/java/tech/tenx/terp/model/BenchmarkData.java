@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates price updates for benchmarks: every exchange lists the same
+ * currencies and quotes each of them against the first two. Exchange prices
+ * deviate by less than the trading fee, so the generated graphs are free of
+ * arbitrage like a real feed mostly is.
+ */
+public final class BenchmarkData {
+
+    private static final double FEE = 0.002;
+
+    private static final MathContext FEED_PRECISION = new MathContext(8);
+
+    private BenchmarkData() {
+    }
+
+    public static ExchangeCurrency currency(int exchange, int currency) {
+        return new ExchangeCurrency("exchange" + exchange, "currency" + currency);
+    }
+
+    /**
+     * Returns forward and backward rates of every price update, in pairs.
+     */
+    public static ExchangeRate[] priceUpdates(int exchanges, int currencies, long seed) {
+        Random random = new Random(seed);
+        double[] prices = new double[currencies];
+        for (int c = 0; c < currencies; c++) {
+            prices[c] = Math.exp(random.nextGaussian() * 3);
+        }
+        OffsetDateTime timestamp = OffsetDateTime.parse("2018-05-26T09:42:23+00:00");
+        List<ExchangeRate> rates = new ArrayList<>();
+        for (int e = 0; e < exchanges; e++) {
+            double[] exchangePrices = new double[currencies];
+            for (int c = 0; c < currencies; c++) {
+                exchangePrices[c] = prices[c] * (1 + random.nextDouble() * FEE / 4);
+            }
+            for (int c = 1; c < currencies; c++) {
+                for (int quote = 0; quote < Math.min(c, 2); quote++) {
+                    timestamp = timestamp.plusSeconds(1);
+                    ExchangeCurrency src = currency(e, c);
+                    ExchangeCurrency dest = currency(e, quote);
+                    rates.add(rate(timestamp, src, dest, exchangePrices[c] / exchangePrices[quote]));
+                    rates.add(rate(timestamp, dest, src, exchangePrices[quote] / exchangePrices[c]));
+                }
+            }
+        }
+        return rates.toArray(new ExchangeRate[0]);
+    }
+
+    /**
+     * Returns a copy of a generated rate, lowered by a small random amount so
+     * that no arbitrage appears, and stamped sequence nanoseconds later.
+     */
+    public static ExchangeRate tick(ExchangeRate rate, long sequence, Random random) {
+        double factor = 1 - random.nextDouble() * FEE / 4;
+        BigDecimal tickRate = new BigDecimal(rate.getRate().doubleValue() * factor, FEED_PRECISION);
+        return new ExchangeRate(rate.getTimestamp().plusNanos(sequence + 1),
+                rate.getSrcCurrency(), rate.getDestCurrency(), tickRate);
+    }
+
+    private static ExchangeRate rate(OffsetDateTime timestamp, ExchangeCurrency src, ExchangeCurrency dest, double midRate) {
+        BigDecimal rate = new BigDecimal(midRate * (1 - FEE), FEED_PRECISION);
+        return new ExchangeRate(timestamp, src, dest, rate);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares transfers through one hub per currency with a same currency rate
+ * between every two exchanges. Floyd-Warshall takes cubic time either way, hubs
+ * adding one currency each, but searches that follow rates get cheaper as
+ * exchanges are added. The number of rates searched is printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CurrencyHubBenchmark {
+
+    @Param({"true", "false"})
+    public boolean currencyHubs;
+
+    @Param({"10", "40"})
+    public int exchanges;
+
+    @Param({"3", "10"})
+    public int currencies;
+
+    private ExchangeRateGraph fullRecomputeGraph;
+    private ExchangeRateGraph singleSourceGraph;
+    private ExchangeRate[] rates;
+    private Random random = new Random(7);
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rates = BenchmarkData.priceUpdates(exchanges, currencies, 42);
+        fullRecomputeGraph = new ExchangeRateGraph();
+        fullRecomputeGraph.setCurrencyHubs(currencyHubs);
+        fullRecomputeGraph.setIncrementalUpdates(false);
+        fullRecomputeGraph.addOrUpdateExchangeRate(rates);
+        singleSourceGraph = new ExchangeRateGraph();
+        singleSourceGraph.setCurrencyHubs(currencyHubs);
+        singleSourceGraph.setSearchStrategy(SearchStrategy.SINGLE_SOURCE);
+        singleSourceGraph.addOrUpdateExchangeRate(rates);
+        System.out.println("Searching " + fullRecomputeGraph.searchRateCount() + " rates");
+    }
+
+    @Benchmark
+    public BestRateResponse fullRecompute() {
+        return updateThenQuery(fullRecomputeGraph);
+    }
+
+    @Benchmark
+    public BestRateResponse singleSourceSearch() {
+        return updateThenQuery(singleSourceGraph);
+    }
+
+    private BestRateResponse updateThenQuery(ExchangeRateGraph graph) {
+        ExchangeRate rate = rates[random.nextInt(rates.length)];
+        graph.addOrUpdateExchangeRate(BenchmarkData.tick(rate, sequence++, random));
+        ExchangeCurrency src = BenchmarkData.currency(0, 0);
+        ExchangeCurrency dest = BenchmarkData.currency(random.nextInt(exchanges), random.nextInt(currencies));
+        return graph.getBestRate(new BestRateRequest(src, dest));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares searching best rates with multiplied doubles against additive
+ * -log(rate) weights. Both recompute the rate of a response exactly from
+ * the BigDecimal rates along its path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RateSpaceBenchmark {
+
+    @Param({"product", "log"})
+    public String space;
+
+    @Param({"4", "10"})
+    public int exchanges;
+
+    @Param({"10", "30"})
+    public int currencies;
+
+    private ExchangeRateGraph graph;
+    private ExchangeRate[] rates;
+    private BestRateRequest[] requests;
+    private Random random = new Random(7);
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        graph = new ExchangeRateGraph();
+        if (space.equals("log")) {
+            graph.useLogSpaceSearch(0);
+        }
+        rates = BenchmarkData.priceUpdates(exchanges, currencies, 42);
+        graph.addOrUpdateExchangeRate(rates);
+        requests = new BestRateRequest[64];
+        for (int r = 0; r < requests.length; r++) {
+            requests[r] = new BestRateRequest(
+                    BenchmarkData.currency(random.nextInt(exchanges), random.nextInt(currencies)),
+                    BenchmarkData.currency(random.nextInt(exchanges), random.nextInt(currencies)));
+        }
+    }
+
+    @Benchmark
+    public void recompute() {
+        ExchangeRate rate = rates[(int) (sequence % rates.length)];
+        graph.addOrUpdateExchangeRate(BenchmarkData.tick(rate, sequence++, random));
+    }
+
+    @Benchmark
+    public BestRateResponse query() {
+        return graph.getBestRate(requests[(int) (sequence++ % requests.length)]);
+    }
+}
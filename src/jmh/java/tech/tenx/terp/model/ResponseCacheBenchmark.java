@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.openjdk.jmh.annotations.*;
+import tech.tenx.terp.util.OutputFormatter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers the same few requests over and over, formatting each answer anew
+ * against taking it from a ResponseCache, either with no update in between
+ * or with an update to a random rate before every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+    @Param({"false", "true"})
+    public boolean updates;
+
+    private ExchangeRateGraph graph;
+    private ResponseCache cache;
+    private ExchangeRate[] rates;
+    private BestRateRequest[] requests;
+    private Random random = new Random(7);
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int exchanges = 5;
+        int currencies = 20;
+        graph = new ExchangeRateGraph();
+        rates = BenchmarkData.priceUpdates(exchanges, currencies, 42);
+        graph.addOrUpdateExchangeRate(rates);
+        cache = new ResponseCache(graph, 1 << 10, OutputFormatter::format);
+        requests = new BestRateRequest[256];
+        for (int r = 0; r < requests.length; r++) {
+            requests[r] = new BestRateRequest(
+                    BenchmarkData.currency(random.nextInt(exchanges), random.nextInt(currencies)),
+                    BenchmarkData.currency(random.nextInt(exchanges), random.nextInt(currencies)));
+        }
+    }
+
+    @Benchmark
+    public String uncached() {
+        update();
+        return OutputFormatter.format(graph.getBestRate(requests[(int) (sequence++ % requests.length)]));
+    }
+
+    @Benchmark
+    public String cached() {
+        update();
+        return cache.getFormatted(requests[(int) (sequence++ % requests.length)]);
+    }
+
+    private void update() {
+        if (updates) {
+            ExchangeRate rate = rates[random.nextInt(rates.length)];
+            graph.addOrUpdateExchangeRate(BenchmarkData.tick(rate, sequence, random));
+        }
+    }
+}
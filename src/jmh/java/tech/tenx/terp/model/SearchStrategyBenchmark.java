@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays rounds of price updates followed by one query from a few treasury
+ * sources. All pairs search wins when queries are frequent or come from many
+ * sources, single source search when updates far outnumber queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchStrategyBenchmark {
+
+    private static final int SOURCES = 4;
+
+    @Param({"ALL_PAIRS", "SINGLE_SOURCE"})
+    public SearchStrategy strategy;
+
+    @Param({"1", "10", "100"})
+    public int updatesPerQuery;
+
+    @Param({"10"})
+    public int exchanges;
+
+    @Param({"10", "30"})
+    public int currencies;
+
+    private ExchangeRateGraph graph;
+    private ExchangeRate[] rates;
+    private Random random = new Random(7);
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        graph = new ExchangeRateGraph();
+        graph.setSearchStrategy(strategy);
+        rates = BenchmarkData.priceUpdates(exchanges, currencies, 42);
+        graph.addOrUpdateExchangeRate(rates);
+    }
+
+    @Benchmark
+    public BestRateResponse updatesThenQuery() {
+        for (int u = 0; u < updatesPerQuery; u++) {
+            ExchangeRate rate = rates[random.nextInt(rates.length)];
+            graph.addOrUpdateExchangeRate(BenchmarkData.tick(rate, sequence++, random));
+        }
+        ExchangeCurrency src = BenchmarkData.currency((int) (sequence % SOURCES), 0);
+        ExchangeCurrency dest = BenchmarkData.currency(random.nextInt(exchanges), random.nextInt(currencies));
+        return graph.getBestRate(new BestRateRequest(src, dest));
+    }
+}
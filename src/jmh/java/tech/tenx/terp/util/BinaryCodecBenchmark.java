@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import org.openjdk.jmh.annotations.*;
+import tech.tenx.terp.model.ExchangeRate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the input of {@link InputParserBenchmark} from text with
+ * {@link InputScanner} and from binary records with {@link BinaryDecoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BinaryCodecBenchmark {
+
+    private static final String[] LINES = {
+            "2018-05-26T09:42:23+00:00 BITFINEX BTC ETH 9.9 0.0998",
+            "2018-05-26T09:42:24+00:00 KRAKEN BTC USD 7512.3 0.000133",
+            "2018-05-26T09:42:25+00:00 GDAX ETH USD 612.45 0.0016",
+            "EXCHANGE_RATE_REQUEST BITFINEX BTC KRAKEN USD",
+    };
+
+    private InputScanner scanner = new InputScanner();
+    private BinaryDecoder decoder = new BinaryDecoder();
+    private ExchangeRate[] exchangeRates = new ExchangeRate[2];
+    private ByteBuffer records;
+    private int firstRecord;
+    private int next;
+
+    @Setup
+    public void encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryEncoder encoder = new BinaryEncoder(bytes);
+        /* the first copy defines the currencies, the second is read over and over */
+        for (int copy = 0; copy < 2; copy++) {
+            for (String line : LINES) {
+                encode(encoder, line);
+            }
+            if (copy == 0) {
+                encoder.flush();
+                firstRecord = bytes.size();
+            }
+        }
+        encoder.flush();
+        records = ByteBuffer.wrap(bytes.toByteArray());
+        /* reads the first copy, and with it the currency definitions */
+        while (records.position() < firstRecord) {
+            decoder.next(records);
+        }
+    }
+
+    private void encode(BinaryEncoder encoder, String line) throws IOException {
+        switch (scanner.scan(line)) {
+            case EXCHANGE_RATE_REQUEST:
+                encoder.encodeExchangeRateRequest(scanner.parseExchangeRateRequest());
+                break;
+            default:
+                scanner.parsePriceUpdate(exchangeRates);
+                encoder.encodePriceUpdate(exchangeRates[0], exchangeRates[1]);
+        }
+    }
+
+    @Benchmark
+    public Object textParse() {
+        next = (next + 1) % LINES.length;
+        switch (scanner.scan(LINES[next])) {
+            case EXCHANGE_RATE_REQUEST:
+                return scanner.parseExchangeRateRequest();
+            case PRICE_UPDATE:
+                return scanner.parsePriceUpdate(exchangeRates);
+            default:
+                return null;
+        }
+    }
+
+    @Benchmark
+    public Object binaryParse() {
+        if (!records.hasRemaining()) {
+            records.position(firstRecord);
+        }
+        switch (decoder.next(records)) {
+            case EXCHANGE_RATE_REQUEST:
+                return decoder.parseExchangeRateRequest();
+            case PRICE_UPDATE:
+                return decoder.parsePriceUpdate(exchangeRates);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import org.openjdk.jmh.annotations.*;
+import tech.tenx.terp.model.ExchangeRate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the regular expression {@link InputParser} with the single pass
+ * {@link InputScanner} on a mix of price updates and requests, both with and
+ * without creating the parsed objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InputParserBenchmark {
+
+    private static final String[] LINES = {
+            "2018-05-26T09:42:23+00:00 BITFINEX BTC ETH 9.9 0.0998",
+            "2018-05-26T09:42:24+00:00 KRAKEN BTC USD 7512.3 0.000133",
+            "2018-05-26T09:42:25+00:00 GDAX ETH USD 612.45 0.0016",
+            "EXCHANGE_RATE_REQUEST BITFINEX BTC KRAKEN USD",
+    };
+
+    private InputScanner scanner = new InputScanner();
+    private ExchangeRate[] exchangeRates = new ExchangeRate[2];
+    private int next;
+
+    @Benchmark
+    public ExchangeRate[] parsePriceUpdate() {
+        return InputParser.parsePriceUpdate(LINES[0]);
+    }
+
+    @Benchmark
+    public boolean regexDecide() {
+        String line = nextLine();
+        return InputParser.isExchangeRateRequest(line)
+                || InputParser.isPriceUpdate(line) && InputParser.isPriceUpdateValid(line);
+    }
+
+    @Benchmark
+    public InputScanner.InputType scannerDecide() {
+        return scanner.scan(nextLine());
+    }
+
+    @Benchmark
+    public Object regexParse() {
+        String line = nextLine();
+        if (InputParser.isExchangeRateRequest(line)) {
+            return InputParser.parseExchangeRateRequest(line);
+        }
+        if (InputParser.isPriceUpdate(line) && InputParser.isPriceUpdateValid(line)) {
+            return InputParser.parsePriceUpdate(line);
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Object scannerParse() {
+        switch (scanner.scan(nextLine())) {
+            case EXCHANGE_RATE_REQUEST:
+                return scanner.parseExchangeRateRequest();
+            case PRICE_UPDATE:
+                return scanner.parsePriceUpdate(exchangeRates);
+            default:
+                return null;
+        }
+    }
+
+    private String nextLine() {
+        next = (next + 1) % LINES.length;
+        return LINES[next];
+    }
+}
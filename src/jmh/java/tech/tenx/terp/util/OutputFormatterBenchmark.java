@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import org.openjdk.jmh.annotations.*;
+import tech.tenx.terp.model.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures formatting responses whose best paths transfer between several
+ * exchanges, as printed for every exchange rate request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputFormatterBenchmark {
+
+    private BestRateResponse[] responses;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int exchanges = 5;
+        int currencies = 20;
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(BenchmarkData.priceUpdates(exchanges, currencies, 42));
+        responses = new BestRateResponse[exchanges * currencies];
+        for (int e = 0; e < exchanges; e++) {
+            for (int c = 0; c < currencies; c++) {
+                BestRateRequest request = new BestRateRequest(BenchmarkData.currency(0, 0), BenchmarkData.currency(e, c));
+                responses[e * currencies + c] = graph.getBestRate(request);
+            }
+        }
+    }
+
+    @Benchmark
+    public String format() {
+        next = (next + 1) % responses.length;
+        return OutputFormatter.format(responses[next]);
+    }
+}
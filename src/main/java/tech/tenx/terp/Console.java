@@ -17,13 +17,27 @@
 
 package tech.tenx.terp;
 
-import tech.tenx.terp.model.*;
-import tech.tenx.terp.util.InputParser;
-import tech.tenx.terp.util.OutputFormatter;
+import tech.tenx.terp.model.ConcurrentExchangeRateGraph;
+import tech.tenx.terp.model.ExchangeRateGraph;
+import tech.tenx.terp.model.WriteAheadLog;
+import tech.tenx.terp.util.WaitStrategy;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Console {
 
@@ -61,38 +75,271 @@ public class Console {
             "<destination_exchange> <destination_currency>\n" +
             "BEST_RATES_END\n" +
             "\n" +
+            "To price many pairs at once from the same rates, list them after EXCHANGE_RATES_REQUEST:\n" +
+            "EXCHANGE_RATES_REQUEST <source_exchange> <source_currency> <destination_exchange> <destination_currency> ...\n" +
+            "which is answered with a BEST_RATES block per pair, in the order of the pairs\n" +
+            "\n" +
+            "Type ARBITRAGE_REQUEST to list the cycles of trades and transfers that end up with more than\n" +
+            "they started with:\n" +
+            "ARBITRAGE_BEGIN <number_of_cycles>\n" +
+            "CYCLE <gain>\n" +
+            "<exchange> <currency>\n" +
+            "<exchange1> <currency1> <conversion_rate from currency on exchange to currency1 on exchange1>\n" +
+            "...\n" +
+            "<exchange> <currency> <conversion_rate from the previous currency back to currency on exchange>\n" +
+            "ARBITRAGE_END\n" +
+            "\n" +
+            "Start with -d to also get the best rates each price update changed, once they are recomputed:\n" +
+            "BEST_RATES_CHANGED <version> <number_of_pairs>\n" +
+            "<source_exchange> <source_currency> <destination_exchange> <destination_currency> <previous_rate> <rate> " +
+            "<previous_next_exchange> <previous_next_currency> <next_exchange> <next_currency>\n" +
+            "...\n" +
+            "BEST_RATES_CHANGED_END\n" +
+            "where - stands for a rate or next step of a pair without a path\n" +
+            "\n" +
             "Type \"x\" or \"X\" to exit the program\n";
 
+    private final static int PIPELINE_SIZE = 1 << 12;
+
+    private final static long SNAPSHOT_PERIOD_SECONDS = 60;
+
+    private final static long LOG_SEGMENT_SIZE = 1 << 26;
+
+    private final static long EXPIRY_PERIOD_SECONDS = 1;
+
     public static void main(String[] args) throws IOException {
-        if (args.length == 0 || !args[0].equals("-nb")) {
+        List<String> arguments = Arrays.asList(args);
+        int snapshot = arguments.indexOf("-s");
+        if (snapshot == args.length - 1) {
+            System.err.println("Usage: -s <file> restores the graph from file and snapshots it there");
+            return;
+        }
+        Path snapshotFile = snapshot >= 0 ? Paths.get(args[snapshot + 1]) : null;
+        int log = arguments.indexOf("-l");
+        if (log == args.length - 1) {
+            System.err.println("Usage: -l <directory> logs every accepted price update to directory and replays it on start");
+            return;
+        }
+        Path logDirectory = log >= 0 ? Paths.get(args[log + 1]) : null;
+        int timesToLive = arguments.indexOf("-t");
+        if (timesToLive == args.length - 1) {
+            System.err.println("Usage: -t <seconds>[,<exchange>=<seconds>...] removes price rates older than that");
+            return;
+        }
+        String timesToLiveSpec = timesToLive >= 0 ? args[timesToLive + 1] : null;
+        int port = arguments.indexOf("-p");
+        if (port >= 0) {
+            if (port == args.length - 1) {
+                System.err.println("Usage: -p <port> serves the console protocol to TCP clients on port");
+                return;
+            }
+            serve(Integer.parseInt(args[port + 1]), snapshotFile, logDirectory, timesToLiveSpec);
+            return;
+        }
+        int convert = arguments.indexOf("-c");
+        if (convert >= 0) {
+            if (convert >= args.length - 2) {
+                System.err.println("Usage: -c <text file> <binary file> converts console input to the binary format");
+                return;
+            }
+            convert(Paths.get(args[convert + 1]), Paths.get(args[convert + 2]));
+            return;
+        }
+        boolean changeSets = arguments.contains("-d");
+        int feedFile = arguments.indexOf("-f");
+        if (feedFile >= 0) {
+            if (feedFile == args.length - 1) {
+                System.err.println("Usage: -f <file> replays the console input recorded in file, or piped in with -f -");
+                return;
+            }
+            String feed = args[feedFile + 1];
+            replay(feed.equals("-") ? Channels.newChannel(System.in) : FileChannel.open(Paths.get(feed)),
+                    snapshotFile, logDirectory, timesToLiveSpec, changeSets);
+            return;
+        }
+
+        int waitStrategy = arguments.indexOf("-w");
+        if (waitStrategy == args.length - 1) {
+            System.err.println("Usage: -w <busy-spin|yielding|sleeping|blocking> sets how the pipeline threads wait");
+            return;
+        }
+
+        if (!arguments.contains("-nb")) {
             System.out.println(BANNER);
         }
         System.out.println("Please send your instructions below:\n\n");
 
-        ExchangeRateGraph graph = new ExchangeRateGraph();
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        WriteAheadLog writeAheadLog = restore(graph, snapshotFile, logDirectory);
+        ScheduledExecutorService snapshots = scheduleSnapshots(graph, snapshotFile, writeAheadLog);
+        ScheduledExecutorService expiry = scheduleExpiry(graph, timesToLiveSpec);
+        Pipeline pipeline = new Pipeline(graph, System.out, PIPELINE_SIZE,
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 3),
+                WaitStrategy.named(waitStrategy >= 0 ? args[waitStrategy + 1] : "blocking"));
+        if (changeSets) {
+            pipeline.printChangeSets();
+        }
         BufferedReader reader = new BufferedReader( new InputStreamReader( System.in ) );
         String input;
-        while ((input = reader.readLine()) != null) {
-            if(input.toUpperCase().equals("X")) {
-                System.out.println("Bye!");
-                break;
+        try {
+            while ((input = reader.readLine()) != null) {
+                if (!pipeline.accept(input)) {
+                    break;
+                }
+            }
+            pipeline.close();
+        } finally {
+            if (snapshots != null) {
+                snapshots.shutdownNow();
             }
-            if(InputParser.isExchangeRateRequest(input)){
-                BestRateRequest request = InputParser.parseExchangeRateRequest(input);
-                BestRateResponse response = graph.getBestRate(request);
-                System.out.println(OutputFormatter.format(response));
-            } else if(InputParser.isPriceUpdate(input)) {
-                if (InputParser.isPriceUpdateValid(input)) {
-                    ExchangeRate[] exchangeRates = InputParser.parsePriceUpdate(input);
-                    graph.addOrUpdateExchangeRate(exchangeRates);
-                    System.out.println("Ack! Price update received\n");
-                } else {
-                    System.out.println("Product of forward_factor and backward_factor is greater than one, input discarded\n");
+            if (expiry != null) {
+                expiry.shutdownNow();
+            }
+        }
+        persist(graph, snapshotFile, writeAheadLog);
+    }
+
+    private static void serve(int port, Path snapshotFile, Path logDirectory, String timesToLive)
+            throws IOException {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        WriteAheadLog writeAheadLog = restore(graph, snapshotFile, logDirectory);
+        ScheduledExecutorService snapshots = scheduleSnapshots(graph, snapshotFile, writeAheadLog);
+        ScheduledExecutorService expiry = scheduleExpiry(graph, timesToLive);
+        RateServer server = new RateServer(graph, new InetSocketAddress(port),
+                Runtime.getRuntime().availableProcessors());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (snapshots != null) {
+                    snapshots.shutdownNow();
+                }
+                if (expiry != null) {
+                    expiry.shutdownNow();
                 }
+                persist(graph, snapshotFile, writeAheadLog);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Serving the console protocol on port " + server.getPort());
+    }
+
+    private static void convert(Path textFile, Path binaryFile) throws IOException {
+        FeedConverter converter = new FeedConverter();
+        try (BufferedReader reader = Files.newBufferedReader(textFile);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(binaryFile))) {
+            converter.convert(reader, out);
+        }
+        if (converter.getLinesLeftOut() > 0) {
+            System.err.println(converter.getLinesLeftOut() + " lines neither updates nor requests were left out");
+        }
+    }
+
+    /* feeds from a file or a pipe, in text or binary, are replayed in batches, without banner or prompt */
+    private static void replay(ReadableByteChannel channel, Path snapshotFile, Path logDirectory, String timesToLive,
+                               boolean changeSets) throws IOException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        WriteAheadLog writeAheadLog = restore(graph, snapshotFile, logDirectory);
+        if (timesToLive != null) {
+            setTimesToLive(graph, timesToLive);
+        }
+        FeedReplay feedReplay = new FeedReplay(graph, out);
+        if (changeSets) {
+            feedReplay.printChangeSets();
+        }
+        try {
+            feedReplay.replay(channel);
+        } finally {
+            channel.close();
+            out.flush();
+        }
+        persist(graph, snapshotFile, writeAheadLog);
+    }
+
+    /* restores the snapshot if it exists, then replays and keeps logging to the write-ahead log */
+    private static WriteAheadLog restore(ExchangeRateGraph graph, Path snapshotFile, Path logDirectory)
+            throws IOException {
+        if (snapshotFile != null && Files.exists(snapshotFile) && !graph.restoreSnapshot(snapshotFile)) {
+            System.err.println("Snapshot " + snapshotFile + " could not be restored, starting empty");
+        }
+        if (logDirectory == null) {
+            return null;
+        }
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, LOG_SEGMENT_SIZE);
+        graph.setWriteAheadLog(writeAheadLog);
+        return writeAheadLog;
+    }
+
+    /* snapshots the graph whenever it changed, compacting the log that the snapshot now covers */
+    private static ScheduledExecutorService scheduleSnapshots(ExchangeRateGraph graph, Path snapshotFile,
+                                                              WriteAheadLog writeAheadLog) {
+        if (snapshotFile == null && writeAheadLog == null) {
+            return null;
+        }
+        ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicLong writtenVersion = new AtomicLong(graph.getVersion());
+        snapshots.scheduleWithFixedDelay(() -> {
+            long version = graph.getVersion();
+            if (version != writtenVersion.get()) {
+                try {
+                    if (snapshotFile != null) {
+                        graph.writeSnapshot(snapshotFile);
+                    }
+                    if (writeAheadLog != null) {
+                        writeAheadLog.compact();
+                    }
+                    writtenVersion.set(version);
+                } catch (IOException e) {
+                    System.err.println("Graph could not be persisted: " + e.getMessage());
+                }
+            }
+        }, SNAPSHOT_PERIOD_SECONDS, SNAPSHOT_PERIOD_SECONDS, TimeUnit.SECONDS);
+        return snapshots;
+    }
+
+    /* rates of a live feed expire by the clock, checked every second */
+    private static ScheduledExecutorService scheduleExpiry(ExchangeRateGraph graph, String timesToLive) {
+        if (timesToLive == null) {
+            return null;
+        }
+        setTimesToLive(graph, timesToLive);
+        ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiry.scheduleWithFixedDelay(() -> graph.expireRates(OffsetDateTime.now()),
+                EXPIRY_PERIOD_SECONDS, EXPIRY_PERIOD_SECONDS, TimeUnit.SECONDS);
+        return expiry;
+    }
+
+    /* such as 300 for all exchanges, or 300,kraken=60 to keep the rates of kraken a minute only */
+    private static void setTimesToLive(ExchangeRateGraph graph, String timesToLive) {
+        for (String timeToLive : timesToLive.split(",")) {
+            int equals = timeToLive.indexOf('=');
+            if (equals < 0) {
+                graph.setRateTimeToLive(Duration.ofSeconds(Long.parseLong(timeToLive.trim())));
             } else {
-                System.out.println("Input is not a price update or an exchange rate request, please try again\n");
+                graph.setRateTimeToLive(timeToLive.substring(0, equals).trim(),
+                        Duration.ofSeconds(Long.parseLong(timeToLive.substring(equals + 1).trim())));
             }
         }
     }
 
+    private static void persist(ExchangeRateGraph graph, Path snapshotFile, WriteAheadLog writeAheadLog)
+            throws IOException {
+        if (snapshotFile != null) {
+            graph.writeSnapshot(snapshotFile);
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
 }
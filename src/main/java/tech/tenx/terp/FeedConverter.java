@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.util.BinaryEncoder;
+import tech.tenx.terp.util.InputScanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts console input from text to the binary format of
+ * {@link BinaryEncoder}. Invalid price updates are converted too, so that
+ * replays of either answer the same, but lines that are neither updates nor
+ * requests have no binary form and are left out.
+ */
+class FeedConverter {
+
+    private final InputScanner scanner = new InputScanner();
+    private final ExchangeRate[] exchangeRates = new ExchangeRate[2];
+    private int linesLeftOut;
+
+    /**
+     * Converts lines until the end of the input or a line asking to exit.
+     */
+    void convert(BufferedReader reader, OutputStream out) throws IOException {
+        BinaryEncoder encoder = new BinaryEncoder(out);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            switch (scanner.scan(line)) {
+                case PRICE_UPDATE:
+                case INVALID_PRICE_UPDATE:
+                    scanner.parsePriceUpdate(exchangeRates);
+                    encoder.encodePriceUpdate(exchangeRates[0], exchangeRates[1]);
+                    break;
+                case EXCHANGE_RATE_REQUEST:
+                    encoder.encodeExchangeRateRequest(scanner.parseExchangeRateRequest());
+                    break;
+                case EXCHANGE_RATES_REQUEST:
+                    /* answered just like its pairs one by one */
+                    for (BestRateRequest request : scanner.parseExchangeRatesRequest()) {
+                        encoder.encodeExchangeRateRequest(request);
+                    }
+                    break;
+                case ARBITRAGE_REQUEST:
+                    encoder.encodeArbitrageRequest();
+                    break;
+                case EXIT:
+                    encoder.encodeExit();
+                    encoder.flush();
+                    return;
+                default:
+                    linesLeftOut++;
+            }
+        }
+        encoder.flush();
+    }
+
+    int getLinesLeftOut() {
+        return linesLeftOut;
+    }
+}
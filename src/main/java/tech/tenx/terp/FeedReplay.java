@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.model.ExchangeRateGraph;
+import tech.tenx.terp.model.ResponseCache;
+import tech.tenx.terp.util.BinaryDecoder;
+import tech.tenx.terp.util.BinaryEncoder;
+import tech.tenx.terp.util.InputScanner;
+import tech.tenx.terp.util.InputScanner.InputType;
+import tech.tenx.terp.util.OutputFormatter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a recorded feed of console input, writing the same output as the
+ * interactive console. Consecutive price updates are applied as one batch
+ * just before the next request or at the end of the feed, so a batch costs
+ * one recompute at most however many updates it has. The feed is read in
+ * large blocks and its lines are scanned straight from the bytes read.
+ * Feeds in the binary format of {@link BinaryDecoder} are replayed the same
+ * way, and answered in that format too. Rates expire by the time of the feed,
+ * the newest timestamp replayed so far, rather than by the clock.
+ */
+class FeedReplay {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ExchangeRateGraph graph;
+    private final PrintStream out;
+    private final ResponseCache responseCache;
+    private final InputScanner scanner = new InputScanner();
+    private final ExchangeRate[] exchangeRates = new ExchangeRate[2];
+    private final List<ExchangeRate> batch = new ArrayList<>();
+    private final ByteLine line = new ByteLine();
+    private boolean printChangeSets;
+    private OffsetDateTime feedTime;
+
+    FeedReplay(ExchangeRateGraph graph, PrintStream out) {
+        this.graph = graph;
+        this.out = out;
+        this.responseCache = new ResponseCache(graph, LineProtocol.RESPONSE_CACHE_SIZE, OutputFormatter::format);
+    }
+
+    /**
+     * Prints the changes of the best rates after each batch of a text feed,
+     * before the response of the request that applied the batch.
+     */
+    void printChangeSets() {
+        printChangeSets = true;
+    }
+
+    /**
+     * Replays the feed until its end, or until it asks to exit, in which case
+     * false is returned. Lines end like those of BufferedReader.readLine().
+     */
+    boolean replay(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean skipLineFeed = false;
+        boolean endOfFeed = false;
+        boolean firstRead = true;
+        while (!endOfFeed) {
+            endOfFeed = channel.read(buffer) == -1;
+            if (firstRead && BinaryDecoder.isBinary((ByteBuffer) buffer.duplicate().flip())) {
+                return replayBinary(channel, buffer, endOfFeed);
+            }
+            if (firstRead && printChangeSets) {
+                graph.addChangeSetListener(changes -> out.println(OutputFormatter.format(changes)));
+            }
+            firstRead = false;
+            byte[] bytes = buffer.array();
+            int end = buffer.position();
+            int start = 0;
+            for (int i = 0; i < end; i++) {
+                byte b = bytes[i];
+                if (b != '\n' && b != '\r') {
+                    skipLineFeed = false;
+                } else if (b == '\n' && skipLineFeed) {
+                    skipLineFeed = false;
+                    start = i + 1;
+                } else {
+                    skipLineFeed = b == '\r';
+                    if (!handle(bytes, start, i)) {
+                        return false;
+                    }
+                    start = i + 1;
+                }
+            }
+            if (endOfFeed) {
+                if (start < end && !handle(bytes, start, end)) {
+                    return false;
+                }
+            } else if (start == 0 && end == buffer.capacity()) {
+                /* a line longer than the buffer */
+                ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            } else {
+                System.arraycopy(bytes, start, bytes, 0, end - start);
+                buffer.position(end - start);
+            }
+        }
+        applyBatch();
+        out.flush();
+        return true;
+    }
+
+    private boolean handle(byte[] bytes, int from, int to) {
+        CharSequence input = line.wrap(bytes, from, to);
+        if (LineProtocol.isExit(input)) {
+            applyBatch();
+            out.println(LineProtocol.BYE);
+            out.flush();
+            return false;
+        }
+        switch (scanner.scan(input)) {
+            case EXCHANGE_RATE_REQUEST:
+                applyBatch();
+                out.println(responseCache.getFormatted(scanner.parseExchangeRateRequest()));
+                break;
+            case EXCHANGE_RATES_REQUEST:
+                applyBatch();
+                out.println(OutputFormatter.formatBestRates(
+                        LineProtocol.bestRates(graph, scanner.parseExchangeRatesRequest())));
+                break;
+            case ARBITRAGE_REQUEST:
+                applyBatch();
+                out.println(OutputFormatter.format(graph.findArbitrageCycles()));
+                break;
+            case PRICE_UPDATE:
+                scanner.parsePriceUpdate(exchangeRates);
+                batch.add(exchangeRates[0]);
+                batch.add(exchangeRates[1]);
+                out.println(LineProtocol.PRICE_UPDATE_RECEIVED);
+                break;
+            case INVALID_PRICE_UPDATE:
+                out.println(LineProtocol.PRICE_UPDATE_DISCARDED);
+                break;
+            default:
+                out.println(LineProtocol.INPUT_NOT_RECOGNIZED);
+        }
+        return true;
+    }
+
+    private boolean replayBinary(ReadableByteChannel channel, ByteBuffer buffer, boolean endOfFeed) throws IOException {
+        BinaryDecoder decoder = new BinaryDecoder();
+        BinaryEncoder encoder = new BinaryEncoder(out);
+        buffer.flip();
+        while (true) {
+            InputType inputType;
+            while ((inputType = decoder.next(buffer)) != null) {
+                if (!handle(inputType, decoder, encoder)) {
+                    encoder.flush();
+                    return false;
+                }
+            }
+            if (endOfFeed) {
+                break;
+            }
+            /* records are far smaller than the buffer, so there is always room for the rest of one */
+            buffer.compact();
+            endOfFeed = channel.read(buffer) == -1;
+            buffer.flip();
+        }
+        applyBatch();
+        encoder.flush();
+        if (buffer.hasRemaining()) {
+            throw new EOFException("Feed ends in the middle of a record");
+        }
+        return true;
+    }
+
+    private boolean handle(InputType inputType, BinaryDecoder decoder, BinaryEncoder encoder) throws IOException {
+        switch (inputType) {
+            case EXCHANGE_RATE_REQUEST:
+                applyBatch();
+                encoder.encode(graph.getBestRate(decoder.parseExchangeRateRequest()));
+                break;
+            case ARBITRAGE_REQUEST:
+                applyBatch();
+                encoder.encode(graph.findArbitrageCycles());
+                break;
+            case PRICE_UPDATE:
+                decoder.parsePriceUpdate(exchangeRates);
+                batch.add(exchangeRates[0]);
+                batch.add(exchangeRates[1]);
+                encoder.encodeReply(inputType);
+                break;
+            case EXIT:
+                applyBatch();
+                encoder.encodeReply(inputType);
+                return false;
+            default:
+                encoder.encodeReply(inputType);
+        }
+        return true;
+    }
+
+    private void applyBatch() {
+        if (!batch.isEmpty()) {
+            for (ExchangeRate exchangeRate : batch) {
+                if (feedTime == null || feedTime.isBefore(exchangeRate.getTimestamp())) {
+                    feedTime = exchangeRate.getTimestamp();
+                }
+            }
+            graph.addOrUpdateExchangeRate(batch.toArray(new ExchangeRate[0]));
+            graph.expireRates(feedTime);
+            batch.clear();
+        }
+    }
+
+    /* a line of bytes read as ASCII characters, decoded as UTF-8 only if it has others */
+    private static final class ByteLine implements CharSequence {
+
+        private byte[] bytes;
+        private int from;
+        private int length;
+
+        CharSequence wrap(byte[] bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes[i] < 0) {
+                    return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+                }
+            }
+            this.bytes = bytes;
+            this.from = from;
+            this.length = to - from;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes[from + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, from + start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, length, StandardCharsets.US_ASCII);
+        }
+    }
+}
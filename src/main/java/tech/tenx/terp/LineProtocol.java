@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.BestRateResponse;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.model.ExchangeRateGraph;
+import tech.tenx.terp.model.ResponseCache;
+import tech.tenx.terp.util.InputScanner;
+import tech.tenx.terp.util.OutputFormatter;
+
+import java.util.List;
+
+/**
+ * Answers console input one line at a time, with the text the console
+ * prints for it. Not thread safe, each reader of lines has its own.
+ */
+class LineProtocol {
+
+    static final String BYE = OutputFormatter.BYE;
+
+    static final String PRICE_UPDATE_RECEIVED = OutputFormatter.PRICE_UPDATE_RECEIVED;
+
+    static final String PRICE_UPDATE_DISCARDED = OutputFormatter.PRICE_UPDATE_DISCARDED;
+
+    static final String INPUT_NOT_RECOGNIZED = OutputFormatter.INPUT_NOT_RECOGNIZED;
+
+    static final int RESPONSE_CACHE_SIZE = 1 << 10;
+
+    /* exchange rates requests of at least as many pairs are answered on all cores */
+    static final int PARALLEL_PAIRS = 64;
+
+    private final ExchangeRateGraph graph;
+    private final ResponseCache responseCache;
+    private final InputScanner scanner = new InputScanner();
+    private final ExchangeRate[] exchangeRates = new ExchangeRate[2];
+
+    LineProtocol(ExchangeRateGraph graph) {
+        this(graph, new ResponseCache(graph, RESPONSE_CACHE_SIZE, OutputFormatter::format));
+    }
+
+    /* the cache may be shared with other readers of lines of the same graph */
+    LineProtocol(ExchangeRateGraph graph, ResponseCache responseCache) {
+        this.graph = graph;
+        this.responseCache = responseCache;
+    }
+
+    static List<BestRateResponse> bestRates(ExchangeRateGraph graph, List<BestRateRequest> requests) {
+        return graph.getBestRates(requests, requests.size() >= PARALLEL_PAIRS);
+    }
+
+    static boolean isExit(CharSequence input) {
+        return input.length() == 1 && (input.charAt(0) == 'x' || input.charAt(0) == 'X');
+    }
+
+    String respond(CharSequence input) {
+        switch (scanner.scan(input)) {
+            case EXCHANGE_RATE_REQUEST:
+                return responseCache.getFormatted(scanner.parseExchangeRateRequest());
+            case EXCHANGE_RATES_REQUEST:
+                return OutputFormatter.formatBestRates(bestRates(graph, scanner.parseExchangeRatesRequest()));
+            case ARBITRAGE_REQUEST:
+                return OutputFormatter.format(graph.findArbitrageCycles());
+            case PRICE_UPDATE:
+                graph.addOrUpdateExchangeRate(scanner.parsePriceUpdate(exchangeRates));
+                return PRICE_UPDATE_RECEIVED;
+            case INVALID_PRICE_UPDATE:
+                return PRICE_UPDATE_DISCARDED;
+            default:
+                return INPUT_NOT_RECOGNIZED;
+        }
+    }
+}
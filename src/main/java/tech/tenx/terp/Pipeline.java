@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import tech.tenx.terp.model.ArbitrageCycle;
+import tech.tenx.terp.model.BestRateChangeSet;
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.BestRateResponse;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.model.ConcurrentExchangeRateGraph;
+import tech.tenx.terp.model.ResponseCache;
+import tech.tenx.terp.util.InputScanner;
+import tech.tenx.terp.util.InputScanner.InputType;
+import tech.tenx.terp.util.OutputFormatter;
+import tech.tenx.terp.util.RingBuffer;
+import tech.tenx.terp.util.WaitStrategy;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Answers console input through a ring of preallocated events passed
+ * between threads. The thread calling {@link #accept(CharSequence)} scans
+ * each line into the next event. A single graph writer applies consecutive
+ * price updates as one batch and answers each request from the rates as
+ * they were when it came in. Formatter threads turn the answers into text,
+ * each taking every n-th event, and a printer writes them in input order,
+ * so the output is the same as that of the interactive console. Answers
+ * come from the snapshots of a {@link ConcurrentExchangeRateGraph}, which
+ * later updates leave alone while the answers are formatted. Requests
+ * whose cached answer still holds skip the formatters' work. Changes of
+ * the best rates, if printed, go with the last price update of the batch
+ * that caused them, so that they never interleave with the answers. If a
+ * stage fails, the others stop, no more lines are taken and
+ * {@link #close()} throws the failure.
+ */
+class Pipeline implements AutoCloseable {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    enum Stage {
+        WRITER, FORMATTER, PRINTER
+    }
+
+    private final ConcurrentExchangeRateGraph graph;
+    private final PrintStream out;
+    private final Function<BestRateResponse, String> formatter;
+    private final ResponseCache responseCache;
+    private final RingBuffer<Event> ring;
+    private final InputScanner scanner = new InputScanner();
+
+    private final AtomicLong writerSequence = new AtomicLong(-1);
+    private final AtomicLong[] formatterSequences;
+    private final AtomicLong printerSequence = new AtomicLong(-1);
+    private final List<Thread> threads = new ArrayList<>();
+    /* the first failure of a stage */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    /* change sets of the graph, taken by the graph writer */
+    private final Queue<BestRateChangeSet> changeSets = new ConcurrentLinkedQueue<>();
+
+    /* the sequence of the event ending the input, written by the graph writer */
+    private volatile long endSequence = Long.MAX_VALUE;
+    private boolean ended;
+    /* the last price update of the batch the graph writer has not applied yet */
+    private Event lastUpdate;
+
+    Pipeline(ConcurrentExchangeRateGraph graph, PrintStream out, int size, int formatters, WaitStrategy waitStrategy) {
+        this(graph, out, size, formatters, waitStrategy, OutputFormatter::format);
+    }
+
+    Pipeline(ConcurrentExchangeRateGraph graph, PrintStream out, int size, int formatters, WaitStrategy waitStrategy,
+             Function<BestRateResponse, String> formatter) {
+        if (formatters < 1) {
+            throw new IllegalArgumentException("At least one formatter is needed");
+        }
+        this.graph = graph;
+        this.out = out;
+        this.formatter = formatter;
+        this.responseCache = new ResponseCache(graph, LineProtocol.RESPONSE_CACHE_SIZE, formatter);
+        this.ring = new RingBuffer<>(size, Event::new, waitStrategy);
+        this.formatterSequences = new AtomicLong[formatters];
+        for (int i = 0; i < formatters; i++) {
+            /* formatter i takes events i, i + n, ... and has done all before the next one it takes */
+            formatterSequences[i] = new AtomicLong(i - 1);
+        }
+        ring.setGatingSequence(printerSequence);
+
+        threads.add(new Thread(() -> run(this::write), "graph-writer"));
+        for (int i = 0; i < formatters; i++) {
+            int stage = i;
+            threads.add(new Thread(() -> run(() -> format(stage)), "formatter-" + i));
+        }
+        threads.add(new Thread(() -> run(this::print), "printer"));
+        for (Thread thread : threads) {
+            /* close() waits for them, only a failed reader of input leaves them behind */
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Prints the changes of the best rates after the last price update of
+     * the batch that caused them. Changes caused outside the pipeline, such
+     * as by expiring rates, are printed after the next line answered.
+     */
+    void printChangeSets() {
+        graph.addChangeSetListener(changeSets::add);
+    }
+
+    /**
+     * Passes a line of input down the pipeline, and returns false once the
+     * line asks to exit, or a stage failed, after which no more lines are taken.
+     */
+    boolean accept(CharSequence input) {
+        if (ended) {
+            throw new IllegalStateException("Input has ended");
+        }
+        long sequence;
+        try {
+            sequence = ring.next();
+        } catch (IllegalStateException e) {
+            /* alerted by a failed stage */
+            ended = true;
+            return false;
+        }
+        Event event = ring.get(sequence);
+        event.clear();
+        if (LineProtocol.isExit(input)) {
+            event.end = true;
+            event.output = LineProtocol.BYE;
+            ended = true;
+        } else {
+            event.type = scanner.scan(input);
+            if (event.type == InputType.PRICE_UPDATE) {
+                scanner.parsePriceUpdate(event.exchangeRates);
+            } else if (event.type == InputType.EXCHANGE_RATE_REQUEST) {
+                event.request = scanner.parseExchangeRateRequest();
+            } else if (event.type == InputType.EXCHANGE_RATES_REQUEST) {
+                event.requests = scanner.parseExchangeRatesRequest();
+            }
+        }
+        ring.publish(sequence);
+        return !ended;
+    }
+
+    /**
+     * Events taken by a stage and not yet passed on by it.
+     */
+    long getQueueDepth(Stage stage) {
+        long formatted = Long.MAX_VALUE;
+        for (AtomicLong sequence : formatterSequences) {
+            formatted = Math.min(formatted, sequence.get());
+        }
+        long written = Math.min(writerSequence.get(), ring.getCursor().get());
+        formatted = Math.min(formatted, written);
+        switch (stage) {
+            case WRITER:
+                return ring.getCursor().get() - written;
+            case FORMATTER:
+                return written - formatted;
+            default:
+                return formatted - printerSequence.get();
+        }
+    }
+
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Ends the input if no line asked to exit, and waits for every line
+     * taken to be answered. If interrupted, stops waiting and keeps the
+     * thread's interrupt status set.
+     *
+     * @throws RuntimeException the first failure of a stage, if one failed
+     */
+    @Override
+    public void close() {
+        if (!ended) {
+            ended = true;
+            try {
+                long sequence = ring.next();
+                Event event = ring.get(sequence);
+                event.clear();
+                event.end = true;
+                ring.publish(sequence);
+            } catch (IllegalStateException e) {
+                /* alerted by a failed stage, which ends the others */
+            }
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+        Throwable failed = failure.get();
+        if (failed instanceof Error) {
+            throw (Error) failed;
+        } else if (failed != null) {
+            throw (RuntimeException) failed;
+        }
+    }
+
+    /* runs a stage, and if it fails, alerts the others waiting on the ring */
+    private void run(Runnable stage) {
+        try {
+            stage.run();
+        } catch (RuntimeException | Error e) {
+            if (failure.compareAndSet(null, e)) {
+                ring.alert();
+            }
+        }
+    }
+
+    private void write() {
+        List<ExchangeRate> batch = new ArrayList<>();
+        long next = 0;
+        while (true) {
+            long available = ring.waitFor(next, ring.getCursor());
+            for (; next <= available; next++) {
+                Event event = ring.get(next);
+                if (event.end) {
+                    apply(batch);
+                    endSequence = next;
+                    /* releases the formatters waiting for events past the end */
+                    ring.advance(writerSequence, next + formatterSequences.length);
+                    return;
+                }
+                if (event.type == InputType.PRICE_UPDATE) {
+                    batch.add(event.exchangeRates[0]);
+                    batch.add(event.exchangeRates[1]);
+                    lastUpdate = event;
+                    continue;
+                }
+                if (event.type == InputType.EXCHANGE_RATE_REQUEST) {
+                    apply(batch);
+                    event.output = responseCache.lookup(event.request);
+                    if (event.output == null) {
+                        event.response = graph.getBestRate(event.request);
+                    }
+                } else if (event.type == InputType.EXCHANGE_RATES_REQUEST) {
+                    apply(batch);
+                    event.responses = LineProtocol.bestRates(graph, event.requests);
+                } else if (event.type == InputType.ARBITRAGE_REQUEST) {
+                    apply(batch);
+                    event.cycles = graph.findArbitrageCycles();
+                }
+                event.changeSets = takeChangeSets();
+            }
+            apply(batch);
+            ring.advance(writerSequence, available);
+        }
+    }
+
+    private void apply(List<ExchangeRate> batch) {
+        if (!batch.isEmpty()) {
+            graph.addOrUpdateExchangeRate(batch.toArray(new ExchangeRate[0]));
+            batch.clear();
+        }
+        if (lastUpdate != null) {
+            lastUpdate.changeSets = takeChangeSets();
+            lastUpdate = null;
+        }
+    }
+
+    private List<BestRateChangeSet> takeChangeSets() {
+        if (changeSets.isEmpty()) {
+            return null;
+        }
+        List<BestRateChangeSet> taken = new ArrayList<>();
+        BestRateChangeSet changes;
+        while ((changes = changeSets.poll()) != null) {
+            taken.add(changes);
+        }
+        return taken;
+    }
+
+    private void format(int formatter) {
+        int formatters = formatterSequences.length;
+        AtomicLong sequence = formatterSequences[formatter];
+        for (long next = formatter; ; next += formatters) {
+            ring.waitFor(next, writerSequence);
+            if (next > endSequence) {
+                return;
+            }
+            Event event = ring.get(next);
+            if (!event.end && event.output == null) {
+                event.output = output(event);
+            }
+            if (!event.end && event.changeSets != null) {
+                StringBuilder output = new StringBuilder(event.output);
+                for (BestRateChangeSet changes : event.changeSets) {
+                    output.append(NEW_LINE).append(OutputFormatter.format(changes));
+                }
+                event.output = output.toString();
+            }
+            ring.advance(sequence, next + formatters - 1);
+            if (event.end) {
+                return;
+            }
+        }
+    }
+
+    private String output(Event event) {
+        switch (event.type) {
+            case EXCHANGE_RATE_REQUEST:
+                String output = formatter.apply(event.response);
+                responseCache.put(event.response, output);
+                return output;
+            case EXCHANGE_RATES_REQUEST:
+                return OutputFormatter.formatBestRates(event.responses);
+            case ARBITRAGE_REQUEST:
+                return OutputFormatter.format(event.cycles);
+            case PRICE_UPDATE:
+                return LineProtocol.PRICE_UPDATE_RECEIVED;
+            case INVALID_PRICE_UPDATE:
+                return LineProtocol.PRICE_UPDATE_DISCARDED;
+            default:
+                return LineProtocol.INPUT_NOT_RECOGNIZED;
+        }
+    }
+
+    private void print() {
+        int formatters = formatterSequences.length;
+        for (long next = 0; ; next++) {
+            AtomicLong formatted = formatterSequences[(int) (next % formatters)];
+            if (formatted.get() < next) {
+                /* caught up, so what was printed is shown before waiting */
+                out.flush();
+                ring.waitFor(next, formatted);
+            }
+            Event event = ring.get(next);
+            if (event.output != null) {
+                out.println(event.output);
+            }
+            ring.advance(printerSequence, next);
+            if (event.end) {
+                out.flush();
+                return;
+            }
+        }
+    }
+
+    private static final class Event {
+
+        private final ExchangeRate[] exchangeRates = new ExchangeRate[2];
+        private InputType type;
+        private BestRateRequest request;
+        private BestRateResponse response;
+        private List<BestRateRequest> requests;
+        private List<BestRateResponse> responses;
+        private List<ArbitrageCycle> cycles;
+        private List<BestRateChangeSet> changeSets;
+        private String output;
+        private boolean end;
+
+        void clear() {
+            type = null;
+            request = null;
+            response = null;
+            requests = null;
+            responses = null;
+            cycles = null;
+            changeSets = null;
+            output = null;
+            end = false;
+        }
+    }
+}
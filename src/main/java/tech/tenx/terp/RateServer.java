@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.tenx.terp.model.ConcurrentExchangeRateGraph;
+import tech.tenx.terp.model.ResponseCache;
+import tech.tenx.terp.util.OutputFormatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the console protocol to many TCP clients on one port. A single
+ * selector thread accepts connections and reads and writes their bytes.
+ * Lines are answered on a pool of workers against one shared graph, so
+ * queries of different clients run concurrently with each other and with
+ * updates, which the graph serializes.
+ *
+ * The lines of a connection are answered one after the other in the order
+ * they were sent, so a client may send many lines before reading any
+ * response, and a request sees the updates the same client sent before it.
+ * A client sending much faster than it reads is paused once
+ * {@value #MAX_IN_FLIGHT} of its lines wait for an answer or to be written,
+ * and the lines it sent beyond those are only parsed once it is resumed.
+ * Lines longer than {@value #MAX_LINE_LENGTH} bytes are not recognized, and
+ * dropped rather than buffered.
+ */
+public class RateServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateServer.class);
+
+    static final int MAX_IN_FLIGHT = 1024;
+
+    static final int MAX_LINE_LENGTH = 1 << 16;
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] NEW_LINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrentExchangeRateGraph graph;
+    private final ResponseCache responseCache;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread selectorThread;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /* connections whose interest changed outside of the selector thread */
+    private final Queue<Connection> changedConnections = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    public RateServer(ConcurrentExchangeRateGraph graph, InetSocketAddress address, int workerThreads) throws IOException {
+        this.graph = graph;
+        this.responseCache = new ResponseCache(graph, LineProtocol.RESPONSE_CACHE_SIZE, OutputFormatter::format);
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.selectorThread = new Thread(this::run, "rate-server");
+    }
+
+    public void start() {
+        selectorThread.start();
+        logger.info("Serving on {}", serverChannel.socket().getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection changed;
+                while ((changed = changedConnections.poll()) != null) {
+                    changed.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        logger.info("Closing connection {}: {}", connection.channel, e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Server stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        logger.info("Accepted connection {}", channel);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Closing failed", e);
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final LineProtocol protocol = new LineProtocol(graph, responseCache);
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean lineTooLong;
+        private boolean skipLineFeed;
+        private boolean inputClosed;
+
+        /* bytes read after the line that reached the limit in flight, parsed once below it again */
+        private ByteBuffer unparsed;
+
+        /* answers of the lines read so far, in order; only the selector thread appends */
+        private CompletableFuture<Void> answers = CompletableFuture.completedFuture(null);
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean exited;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /* lines end like those of BufferedReader.readLine() */
+        void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                inputClosed = true;
+                if (line.size() > 0) {
+                    submitLine();
+                }
+                updateInterest();
+                return;
+            }
+            parse(readBuffer.array(), 0, read);
+            updateInterest();
+        }
+
+        /* submits the lines of the bytes until the limit in flight, keeping the rest unparsed */
+        private void parse(byte[] bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = bytes[i];
+                if (b != '\n' && b != '\r') {
+                    skipLineFeed = false;
+                    if (line.size() < MAX_LINE_LENGTH) {
+                        line.write(b);
+                    } else {
+                        lineTooLong = true;
+                    }
+                } else if (b == '\n' && skipLineFeed) {
+                    skipLineFeed = false;
+                } else {
+                    skipLineFeed = b == '\r';
+                    submitLine();
+                    if (i + 1 < to && inFlight.get() + responses.size() >= MAX_IN_FLIGHT) {
+                        unparsed = ByteBuffer.wrap(Arrays.copyOfRange(bytes, i + 1, to));
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void submitLine() {
+            /* null stands for a line too long to be recognized */
+            String input = lineTooLong ? null : new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            lineTooLong = false;
+            inFlight.incrementAndGet();
+            answers = answers.thenRunAsync(() -> answer(input), workers);
+        }
+
+        private void answer(String input) {
+            try {
+                if (exited) {
+                    return;
+                }
+                String response;
+                if (input == null) {
+                    response = LineProtocol.INPUT_NOT_RECOGNIZED;
+                } else if (LineProtocol.isExit(input)) {
+                    exited = true;
+                    response = LineProtocol.BYE;
+                } else {
+                    try {
+                        response = protocol.respond(input);
+                    } catch (RuntimeException e) {
+                        logger.warn("Failed to answer {}", input, e);
+                        response = LineProtocol.INPUT_NOT_RECOGNIZED;
+                    }
+                }
+                byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(bytes.length + NEW_LINE.length);
+                buffer.put(bytes).put(NEW_LINE).flip();
+                responses.add(buffer);
+            } finally {
+                inFlight.decrementAndGet();
+                changedConnections.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = responses.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                responses.poll();
+            }
+            updateInterest();
+        }
+
+        /* called on the selector thread only */
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            if (unparsed != null && !exited && inFlight.get() + responses.size() < MAX_IN_FLIGHT) {
+                ByteBuffer bytes = unparsed;
+                unparsed = null;
+                parse(bytes.array(), bytes.position(), bytes.limit());
+            }
+            boolean answered = inFlight.get() == 0;
+            if ((inputClosed || exited) && answered && responses.isEmpty()) {
+                close();
+                return;
+            }
+            int ops = 0;
+            if (!inputClosed && !exited && unparsed == null && inFlight.get() + responses.size() < MAX_IN_FLIGHT) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!responses.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * A cycle of trades and transfers whose rates multiply to more than one.
+ */
+public class ArbitrageCycle {
+
+    private List<ExchangeCurrency> steps;
+
+    private List<ExchangeRate> rates;
+
+    private BigDecimal gain;
+
+    ArbitrageCycle(List<ExchangeCurrency> steps, List<ExchangeRate> rates, BigDecimal gain) {
+        this.steps = steps;
+        this.rates = rates;
+        this.gain = gain;
+    }
+
+    /**
+     * The currencies along the cycle, starting and ending with the same one.
+     */
+    public List<ExchangeCurrency> getSteps() {
+        return steps;
+    }
+
+    /**
+     * The rate taken from each step to the next, one fewer than the steps.
+     */
+    public List<ExchangeRate> getRates() {
+        return rates;
+    }
+
+    /**
+     * The product of the rates along the cycle, always greater than one.
+     */
+    public BigDecimal getGain() {
+        return gain;
+    }
+
+    boolean takes(ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency) {
+        for (ExchangeRate rate : rates) {
+            if (rate.getSrcCurrency().equals(srcCurrency) && rate.getDestCurrency().equals(destCurrency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+
+import static tech.tenx.terp.model.BestRateMatrix.NO_CURRENCY;
+
+/**
+ * Finds arbitrage cycles with Bellman-Ford over -log(rate) weights, where a
+ * cycle whose rates multiply to more than one is a negative cycle. A full
+ * detection starts from every currency at once and costs O(n·E).
+ *
+ * Between detections it only hears about changed rates. A worse rate cannot
+ * create a cycle, so only the known cycles taking it are checked again. A
+ * better rate u -> v can only create cycles through it, found by searching
+ * the best path from v back to u.
+ */
+class ArbitrageDetector {
+
+    /* -log weights of rates multiplying to one must not count as a cycle */
+    private static final double EPSILON = 1e-12;
+
+    private static final RateSpace LOG_SPACE = RateSpace.logSpace(0);
+
+    private List<ArbitrageCycle> knownCycles;
+    private int knownSize;
+    private MathContext knownMathContext;
+    private List<ExchangeRate[]> changedRates = new ArrayList<>();
+
+    void rateChanged(ExchangeRate oldRate, ExchangeRate newRate) {
+        if (knownCycles != null) {
+            changedRates.add(new ExchangeRate[]{oldRate, newRate});
+        }
+    }
+
+    /* cycles are searched over searchRates, but reported with the rates a best path shows */
+    List<ArbitrageCycle> findCycles(CurrencyIndex currencies,
+                                    Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> searchRates,
+                                    Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates,
+                                    MathContext mathContext) {
+        if (knownCycles == null || knownSize != currencies.size() || !mathContext.equals(knownMathContext)) {
+            knownCycles = detectAll(currencies, searchRates, rates, mathContext);
+        } else if (!changedRates.isEmpty()) {
+            List<ArbitrageCycle> cycles = recheck(currencies, searchRates, rates, mathContext);
+            knownCycles = cycles == null ? detectAll(currencies, searchRates, rates, mathContext) : cycles;
+        }
+        knownSize = currencies.size();
+        knownMathContext = mathContext;
+        changedRates.clear();
+        return Collections.unmodifiableList(knownCycles);
+    }
+
+    private List<ArbitrageCycle> detectAll(CurrencyIndex currencies,
+                                           Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> searchRates,
+                                           Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates,
+                                           MathContext mathContext) {
+        EdgeList edges = EdgeList.build(currencies, searchRates, LOG_SPACE);
+        int size = edges.size;
+        double[] distances = new double[size];
+        int[] previousSteps = new int[size];
+        Arrays.fill(previousSteps, NO_CURRENCY);
+
+        /* a currency still improving after n rounds is behind a negative cycle */
+        BitSet improved = new BitSet(size);
+        for (int round = 0; round < size; round++) {
+            improved.clear();
+            relaxAll(edges, distances, previousSteps, improved);
+            if (improved.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+
+        List<ArbitrageCycle> cycles = new ArrayList<>();
+        Set<List<Integer>> seen = new HashSet<>();
+        for (int v = improved.nextSetBit(0); v >= 0; v = improved.nextSetBit(v + 1)) {
+            int x = v;
+            for (int i = 0; i < size && x != NO_CURRENCY; i++) {
+                x = previousSteps[x];
+            }
+            if (x == NO_CURRENCY) {
+                continue;
+            }
+            List<Integer> cycle = new ArrayList<>();
+            int step = x;
+            do {
+                cycle.add(step);
+                step = previousSteps[step];
+            } while (step != x && step != NO_CURRENCY && cycle.size() <= size);
+            if (step != x) {
+                continue;
+            }
+            Collections.reverse(cycle);
+            addCycle(canonical(cycle, currencies), currencies, rates, mathContext, seen, cycles);
+        }
+        return cycles;
+    }
+
+    /* returns null if a full detection is needed */
+    private List<ArbitrageCycle> recheck(CurrencyIndex currencies,
+                                         Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> searchRates,
+                                         Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates,
+                                         MathContext mathContext) {
+        List<ArbitrageCycle> cycles = new ArrayList<>();
+        Set<List<Integer>> seen = new HashSet<>();
+        for (ArbitrageCycle known : knownCycles) {
+            boolean changed = false;
+            for (ExchangeRate[] change : changedRates) {
+                changed |= known.takes(change[1].getSrcCurrency(), change[1].getDestCurrency());
+            }
+            List<Integer> cycle = new ArrayList<>();
+            for (int i = 1; i < known.getSteps().size(); i++) {
+                cycle.add(currencies.indexOf(known.getSteps().get(i)));
+            }
+            if (changed) {
+                /* another cycle may be left behind the one that closed */
+                if (!addCycle(canonical(cycle, currencies), currencies, rates, mathContext, seen, cycles)) {
+                    return null;
+                }
+            } else if (seen.add(canonical(cycle, currencies))) {
+                cycles.add(known);
+            }
+        }
+
+        EdgeList edges = null;
+        for (ExchangeRate[] change : changedRates) {
+            ExchangeRate oldRate = change[0];
+            ExchangeRate newRate = change[1];
+            if (oldRate != null && newRate.getRate().compareTo(oldRate.getRate()) <= 0) {
+                continue;
+            }
+            if (edges == null) {
+                edges = EdgeList.build(currencies, searchRates, LOG_SPACE);
+            }
+            int u = currencies.indexOf(newRate.getSrcCurrency());
+            int v = currencies.indexOf(newRate.getDestCurrency());
+            List<Integer> path = searchPath(edges, v, u);
+            if (path == null) {
+                return null;
+            }
+            if (!path.isEmpty()) {
+                addCycle(canonical(path, currencies), currencies, rates, mathContext, seen, cycles);
+            }
+        }
+        return cycles;
+    }
+
+    /*
+     * Best path from src to dest with at most n - 1 rates. Returns the currencies
+     * of the path without dest, an empty list if there is none, or null if the
+     * path found runs into another cycle.
+     */
+    private static List<Integer> searchPath(EdgeList edges, int src, int dest) {
+        int size = edges.size;
+        double[] distances = new double[size];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        distances[src] = 0;
+        int[] previousSteps = new int[size];
+        Arrays.fill(previousSteps, NO_CURRENCY);
+        BitSet improved = new BitSet(size);
+        for (int round = 0; round < size - 1; round++) {
+            improved.clear();
+            relaxAll(edges, distances, previousSteps, improved);
+            if (improved.isEmpty()) {
+                break;
+            }
+        }
+        List<Integer> path = new ArrayList<>();
+        if (src == dest) {
+            path.add(src);
+            return path;
+        }
+        if (previousSteps[dest] == NO_CURRENCY) {
+            return path;
+        }
+        BitSet visited = new BitSet(size);
+        for (int step = dest; step != src; step = previousSteps[step]) {
+            if (step == NO_CURRENCY || visited.get(step)) {
+                return null;
+            }
+            visited.set(step);
+            path.add(step);
+        }
+        path.add(src);
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static void relaxAll(EdgeList edges, double[] distances, int[] previousSteps, BitSet improved) {
+        for (int a = 0; a < edges.size; a++) {
+            double aDistance = distances[a];
+            if (aDistance == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            for (int edge = edges.offsets[a]; edge < edges.offsets[a + 1]; edge++) {
+                int b = edges.targets[edge];
+                double candidate = aDistance + edges.weights[edge];
+                if (candidate < distances[b] - EPSILON) {
+                    distances[b] = candidate;
+                    previousSteps[b] = a;
+                    improved.set(b);
+                }
+            }
+        }
+    }
+
+    /* drops currency hubs and rotates a cycle to start at its lowest index, so equal cycles compare equal */
+    private static List<Integer> canonical(List<Integer> path, CurrencyIndex currencies) {
+        List<Integer> cycle = new ArrayList<>();
+        for (int step : path) {
+            if (!currencies.get(step).isHub()) {
+                cycle.add(step);
+            }
+        }
+        int lowest = 0;
+        for (int i = 1; i < cycle.size(); i++) {
+            if (cycle.get(i) < cycle.get(lowest)) {
+                lowest = i;
+            }
+        }
+        List<Integer> rotated = new ArrayList<>(cycle.subList(lowest, cycle.size()));
+        rotated.addAll(cycle.subList(0, lowest));
+        return rotated;
+    }
+
+    /* adds the cycle if it is new and its exact gain is above one, returns whether it is profitable */
+    private static boolean addCycle(List<Integer> cycle, CurrencyIndex currencies,
+                                 Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates,
+                                 MathContext mathContext, Set<List<Integer>> seen, List<ArbitrageCycle> cycles) {
+        if (!seen.add(cycle)) {
+            return true;
+        }
+        List<ExchangeCurrency> steps = new ArrayList<>();
+        List<ExchangeRate> cycleRates = new ArrayList<>();
+        BigDecimal gain = BigDecimal.ONE;
+        for (int i = 0; i <= cycle.size(); i++) {
+            ExchangeCurrency step = currencies.get(cycle.get(i % cycle.size()));
+            if (i > 0) {
+                ExchangeCurrency previous = steps.get(i - 1);
+                ExchangeRate rate = rates.getOrDefault(previous, Collections.emptyMap()).get(step);
+                if (rate == null) {
+                    return false;
+                }
+                cycleRates.add(rate);
+                gain = gain.multiply(rate.getRate(), mathContext);
+            }
+            steps.add(step);
+        }
+        if (gain.compareTo(BigDecimal.ONE) <= 0) {
+            return false;
+        }
+        cycles.add(new ArbitrageCycle(steps, cycleRates, gain));
+        return true;
+    }
+}
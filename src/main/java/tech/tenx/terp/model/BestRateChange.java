@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+/**
+ * A change of the best rate or path of a subscribed pair. The previous rate
+ * is the one last delivered to the subscriber, or the one at subscribing.
+ */
+public class BestRateChange {
+
+    private BestRateRequest request;
+
+    private Number previousRate;
+
+    private Number rate;
+
+    private BestRatePath path;
+
+    private long version;
+
+    BestRateChange(BestRateRequest request, Number previousRate, Number rate, BestRatePath path, long version) {
+        this.request = request;
+        this.previousRate = previousRate;
+        this.rate = rate;
+        this.path = path;
+        this.version = version;
+    }
+
+    public BestRateRequest getRequest() {
+        return request;
+    }
+
+    public Number getPreviousRate() {
+        return previousRate;
+    }
+
+    public Number getRate() {
+        return rate;
+    }
+
+    public BestRatePath getPath() {
+        return path;
+    }
+
+    /**
+     * Version of the graph the change was found at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "BestRateChange{" +
+                "request=" + request.getSrcCurrency() + " " + request.getDestCurrency() +
+                ", previousRate=" + previousRate +
+                ", rate=" + rate +
+                ", path=" + path.getSteps() +
+                ", version=" + version +
+                '}';
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import static tech.tenx.terp.model.BestRateMatrix.NO_CURRENCY;
+import static tech.tenx.terp.model.CurrencyIndex.NOT_FOUND;
+
+/**
+ * The pairs whose best rate or next step a recompute of the best rates
+ * changed, with their values before and after, so a copy of the whole table
+ * is kept up to date by applying just these. Rates are those the best paths
+ * were searched with, {@link ExchangeRateGraph#getBestRate(BestRateRequest)}
+ * gives the exact rate along a path. A missing rate or next step means there
+ * is no path. Currency hubs never show, the next step is the one after them.
+ */
+public class BestRateChangeSet implements Iterable<BestRateChangeSet.Cell> {
+
+    private final long version;
+    private final List<Cell> cells;
+
+    private BestRateChangeSet(long version, List<Cell> cells) {
+        this.version = version;
+        this.cells = Collections.unmodifiableList(cells);
+    }
+
+    /*
+     * Compares every pair of both matrices in O(n²), which is no more than
+     * the recompute itself. Currencies added since the previous matrix have
+     * no rates in it, just as there is no previous matrix for the first one,
+     * and those removed since have none in the new one. Indices are looked up
+     * by currency only if the currencies were indexed anew in between.
+     */
+    static BestRateChangeSet between(BestRateMatrix previous, CurrencyIndex previousCurrencies,
+                                     BestRateMatrix matrix, CurrencyIndex currencies, long version) {
+        int previousSize = previous == null ? 0 : previous.size;
+        int[] previousIndices = new int[matrix.size];
+        boolean[] kept = new boolean[previousSize];
+        for (int i = 0; i < matrix.size; i++) {
+            int index = previousCurrencies == currencies ? i : previousCurrencies.indexOf(currencies.get(i));
+            previousIndices[i] = index >= previousSize ? NOT_FOUND : index;
+            if (previousIndices[i] != NOT_FOUND) {
+                kept[previousIndices[i]] = true;
+            }
+        }
+
+        List<Cell> cells = new ArrayList<>();
+        for (int i = 0; i < matrix.size; i++) {
+            if (currencies.get(i).isHub()) {
+                continue;
+            }
+            for (int j = 0; j < matrix.size; j++) {
+                if (currencies.get(j).isHub()) {
+                    continue;
+                }
+                Double previousRate = rate(previous, previousIndices[i], previousIndices[j]);
+                Double rate = rate(matrix, i, j);
+                ExchangeCurrency previousNext = nextStep(previous, previousCurrencies,
+                        previousIndices[i], previousIndices[j]);
+                ExchangeCurrency next = nextStep(matrix, currencies, i, j);
+                if (!Objects.equals(previousNext, next) || !Objects.equals(previousRate, rate)) {
+                    cells.add(new Cell(currencies.get(i), currencies.get(j), previousRate, rate, previousNext, next));
+                }
+            }
+        }
+        for (int i = 0; i < previousSize; i++) {
+            if (previousCurrencies.get(i).isHub()) {
+                continue;
+            }
+            for (int j = 0; j < previousSize; j++) {
+                if ((kept[i] && kept[j]) || previousCurrencies.get(j).isHub()) {
+                    continue;
+                }
+                Double previousRate = rate(previous, i, j);
+                ExchangeCurrency previousNext = nextStep(previous, previousCurrencies, i, j);
+                if (previousRate != null || previousNext != null) {
+                    cells.add(new Cell(previousCurrencies.get(i), previousCurrencies.get(j), previousRate, null,
+                            previousNext, null));
+                }
+            }
+        }
+        return new BestRateChangeSet(version, cells);
+    }
+
+    private static Double rate(BestRateMatrix matrix, int i, int j) {
+        if (matrix == null || i == NOT_FOUND || j == NOT_FOUND) {
+            return null;
+        }
+        double weight = matrix.getBestRate(i, j);
+        return weight == matrix.space.none ? null : matrix.space.toRate(weight);
+    }
+
+    /* the next step from i towards j past any hubs, bounded as paths may be circular */
+    private static ExchangeCurrency nextStep(BestRateMatrix matrix, CurrencyIndex currencies, int i, int j) {
+        if (matrix == null || i == NOT_FOUND || j == NOT_FOUND) {
+            return null;
+        }
+        int next = matrix.getNextCurrency(i, j);
+        for (int hops = 0; next != NO_CURRENCY && currencies.get(next).isHub() && hops < matrix.size; hops++) {
+            next = matrix.getNextCurrency(next, j);
+        }
+        return next == NO_CURRENCY ? null : currencies.get(next);
+    }
+
+    /**
+     * Version of the graph the best rates were recomputed at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return cells.size();
+    }
+
+    public boolean isEmpty() {
+        return cells.isEmpty();
+    }
+
+    @Override
+    public Iterator<Cell> iterator() {
+        return cells.iterator();
+    }
+
+    /**
+     * A pair of the best rate table whose rate or next step changed.
+     */
+    public static class Cell {
+
+        private ExchangeCurrency srcCurrency;
+
+        private ExchangeCurrency destCurrency;
+
+        private Double previousRate;
+
+        private Double rate;
+
+        private ExchangeCurrency previousNextCurrency;
+
+        private ExchangeCurrency nextCurrency;
+
+        Cell(ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency, Double previousRate, Double rate,
+             ExchangeCurrency previousNextCurrency, ExchangeCurrency nextCurrency) {
+            this.srcCurrency = srcCurrency;
+            this.destCurrency = destCurrency;
+            this.previousRate = previousRate;
+            this.rate = rate;
+            this.previousNextCurrency = previousNextCurrency;
+            this.nextCurrency = nextCurrency;
+        }
+
+        public ExchangeCurrency getSrcCurrency() {
+            return srcCurrency;
+        }
+
+        public ExchangeCurrency getDestCurrency() {
+            return destCurrency;
+        }
+
+        public Double getPreviousRate() {
+            return previousRate;
+        }
+
+        public Double getRate() {
+            return rate;
+        }
+
+        public ExchangeCurrency getPreviousNextCurrency() {
+            return previousNextCurrency;
+        }
+
+        public ExchangeCurrency getNextCurrency() {
+            return nextCurrency;
+        }
+
+        @Override
+        public String toString() {
+            return "Cell{" +
+                    "srcCurrency=" + srcCurrency +
+                    ", destCurrency=" + destCurrency +
+                    ", previousRate=" + previousRate +
+                    ", rate=" + rate +
+                    ", previousNextCurrency=" + previousNextCurrency +
+                    ", nextCurrency=" + nextCurrency +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Best rates and next hops between all pairs of currencies, stored row by row
+ * in flat arrays indexed by {@link CurrencyIndex}. Rates are kept as weights
+ * of the {@link RateSpace} the matrix was built in.
+ */
+class BestRateMatrix {
+
+    static final int NO_CURRENCY = -1;
+
+    final RateSpace space;
+    final int size;
+    final double[] bestRates;
+    final int[] nextCurrencies;
+
+    BestRateMatrix(RateSpace space, int size) {
+        this.space = space;
+        this.size = size;
+        this.bestRates = new double[size * size];
+        this.nextCurrencies = new int[size * size];
+        Arrays.fill(bestRates, space.none);
+        Arrays.fill(nextCurrencies, NO_CURRENCY);
+        for (int i = 0; i < size; i++) {
+            bestRates[i * size + i] = space.identity;
+        }
+    }
+
+    /* takes over the arrays, like those read from a snapshot file */
+    BestRateMatrix(RateSpace space, int size, double[] bestRates, int[] nextCurrencies) {
+        this.space = space;
+        this.size = size;
+        this.bestRates = bestRates;
+        this.nextCurrencies = nextCurrencies;
+    }
+
+    private BestRateMatrix(BestRateMatrix other) {
+        this.space = other.space;
+        this.size = other.size;
+        this.bestRates = other.bestRates.clone();
+        this.nextCurrencies = other.nextCurrencies.clone();
+    }
+
+    BestRateMatrix copy() {
+        return new BestRateMatrix(this);
+    }
+
+    double getBestRate(int srcIndex, int destIndex) {
+        return bestRates[srcIndex * size + destIndex];
+    }
+
+    int getNextCurrency(int srcIndex, int destIndex) {
+        return nextCurrencies[srcIndex * size + destIndex];
+    }
+
+    void set(int srcIndex, int destIndex, double bestRate, int nextIndex) {
+        bestRates[srcIndex * size + destIndex] = bestRate;
+        nextCurrencies[srcIndex * size + destIndex] = nextIndex;
+    }
+
+    boolean hasPath(int srcIndex, int destIndex) {
+        return nextCurrencies[srcIndex * size + destIndex] != NO_CURRENCY;
+    }
+
+    /* whether some currency reaches itself, through a self rate or a cycle */
+    boolean hasCycle() {
+        for (int i = 0; i < size; i++) {
+            if (nextCurrencies[i * size + i] != NO_CURRENCY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Relaxes every pair through the rate from u to v, which just got better,
+     * in O(n²). Returns false without touching the matrix if the new rate closes
+     * a cycle better than the empty path, as such pairs need a full recompute.
+     */
+    boolean improveRate(int u, int v, double weight) {
+        int vRow = v * size;
+        double vuRate = bestRates[vRow + u];
+        if (vuRate != space.none && space.isBetter(space.combine(weight, vuRate), space.identity)) {
+            return false;
+        }
+        /* without such a cycle neither column u nor row v can change below */
+        for (int i = 0; i < size; i++) {
+            int iRow = i * size;
+            double iuRate = bestRates[iRow + u];
+            if (iuRate == space.none) {
+                continue;
+            }
+            double iuvRate = space.combine(iuRate, weight);
+            int firstStep = i == u ? v : nextCurrencies[iRow + u];
+            for (int j = 0; j < size; j++) {
+                double vjRate = bestRates[vRow + j];
+                if (vjRate != space.none) {
+                    double candidate = space.combine(iuvRate, vjRate);
+                    if (space.isBetter(candidate, bestRates[iRow + j])) {
+                        bestRates[iRow + j] = candidate;
+                        nextCurrencies[iRow + j] = firstStep;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the source currencies whose best path to some currency takes the
+     * rate from u to v. For every destination j reached through that rate the
+     * next hops towards j form a tree, and the sources are the subtree of u.
+     * Assumes the matrix has no cycle.
+     */
+    BitSet sourcesUsing(int u, int v) {
+        final byte unknown = 0;
+        final byte using = 1;
+        final byte notUsing = 2;
+        BitSet sources = new BitSet(size);
+        byte[] states = new byte[size];
+        int[] stack = new int[size];
+        for (int j = 0; j < size; j++) {
+            if (nextCurrencies[u * size + j] != v) {
+                continue;
+            }
+            Arrays.fill(states, unknown);
+            states[u] = using;
+            for (int i = 0; i < size; i++) {
+                int depth = 0;
+                int x = i;
+                while (states[x] == unknown && depth < size) {
+                    stack[depth++] = x;
+                    int next = nextCurrencies[x * size + j];
+                    if (next == NO_CURRENCY) {
+                        break;
+                    }
+                    x = next;
+                }
+                byte state = states[x] == unknown ? notUsing : states[x];
+                while (depth > 0) {
+                    int step = stack[--depth];
+                    states[step] = state;
+                    if (state == using) {
+                        sources.set(step);
+                    }
+                }
+            }
+            sources.set(u);
+        }
+        return sources;
+    }
+
+    /*
+     * whether walking the next steps towards some currency runs in a circle,
+     * which updates can close over tied paths, like a transfer there and back,
+     * when one row takes a step on a path of another. Takes O(n²).
+     */
+    boolean hasStepLoop() {
+        final byte unvisited = 0;
+        final byte onWalk = 1;
+        final byte done = 2;
+        byte[] states = new byte[size];
+        for (int j = 0; j < size; j++) {
+            Arrays.fill(states, unvisited);
+            for (int i = 0; i < size; i++) {
+                int x = i;
+                while (x != NO_CURRENCY && states[x] == unvisited) {
+                    states[x] = onWalk;
+                    x = nextCurrencies[x * size + j];
+                }
+                if (x != NO_CURRENCY && states[x] == onWalk) {
+                    return true;
+                }
+                for (x = i; x != NO_CURRENCY && states[x] == onWalk; x = nextCurrencies[x * size + j]) {
+                    states[x] = done;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* replaces the row of srcIndex with the result of a single source search */
+    void setRow(int srcIndex, double[] rowRates, int[] firstSteps) {
+        int row = srcIndex * size;
+        for (int j = 0; j < size; j++) {
+            if (j == srcIndex) {
+                bestRates[row + j] = space.identity;
+                nextCurrencies[row + j] = NO_CURRENCY;
+            } else {
+                bestRates[row + j] = firstSteps[j] == NO_CURRENCY ? space.none : rowRates[j];
+                nextCurrencies[row + j] = firstSteps[j];
+            }
+        }
+    }
+
+    /* copy of this matrix with one more currency, which has no rates yet */
+    BestRateMatrix withCurrencyAdded() {
+        BestRateMatrix grown = new BestRateMatrix(space, size + 1);
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(bestRates, i * size, grown.bestRates, i * grown.size, size);
+            System.arraycopy(nextCurrencies, i * size, grown.nextCurrencies, i * grown.size, size);
+        }
+        return grown;
+    }
+
+    /**
+     * Fills in the best rates from and to the last currency, which has just
+     * been added with the given rates to and from the others, then relaxes every
+     * other pair through it, all in O(n²). Returns false if the new currency
+     * closes a cycle better than the empty path.
+     */
+    boolean insertLastCurrency(int[] outTargets, double[] outWeights, int[] inSources, double[] inWeights) {
+        int x = size - 1;
+        int xRow = x * size;
+
+        /* from x: take one of its rates, then the best path from there */
+        for (int edge = 0; edge < outTargets.length; edge++) {
+            int a = outTargets[edge];
+            int aRow = a * size;
+            for (int j = 0; j < x; j++) {
+                double ajRate = bestRates[aRow + j];
+                if (ajRate != space.none) {
+                    double candidate = space.combine(outWeights[edge], ajRate);
+                    if (space.isBetter(candidate, bestRates[xRow + j])) {
+                        bestRates[xRow + j] = candidate;
+                        nextCurrencies[xRow + j] = a;
+                    }
+                }
+            }
+        }
+
+        /* to x: the best path to one of the currencies rating x, then its rate */
+        for (int edge = 0; edge < inSources.length; edge++) {
+            int b = inSources[edge];
+            if (bestRates[xRow + b] != space.none
+                    && space.isBetter(space.combine(bestRates[xRow + b], inWeights[edge]), space.identity)) {
+                return false;
+            }
+            for (int i = 0; i < x; i++) {
+                int iRow = i * size;
+                double ibRate = bestRates[iRow + b];
+                if (ibRate != space.none) {
+                    double candidate = space.combine(ibRate, inWeights[edge]);
+                    if (space.isBetter(candidate, bestRates[iRow + x])) {
+                        bestRates[iRow + x] = candidate;
+                        nextCurrencies[iRow + x] = i == b ? x : nextCurrencies[iRow + b];
+                    }
+                }
+            }
+        }
+
+        /* every other pair through x */
+        for (int i = 0; i < x; i++) {
+            int iRow = i * size;
+            double ixRate = bestRates[iRow + x];
+            if (ixRate == space.none) {
+                continue;
+            }
+            int firstStep = nextCurrencies[iRow + x];
+            for (int j = 0; j < x; j++) {
+                double xjRate = bestRates[xRow + j];
+                if (xjRate != space.none) {
+                    double candidate = space.combine(ixRate, xjRate);
+                    if (space.isBetter(candidate, bestRates[iRow + j])) {
+                        bestRates[iRow + j] = candidate;
+                        nextCurrencies[iRow + j] = firstStep;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -17,6 +17,8 @@
 
 package tech.tenx.terp.model;
 
+import java.util.Objects;
+
 public class BestRateRequest {
 
     private ExchangeCurrency srcCurrency;
@@ -35,4 +37,18 @@ public class BestRateRequest {
     public ExchangeCurrency getDestCurrency() {
         return destCurrency;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BestRateRequest that = (BestRateRequest) o;
+        return Objects.equals(srcCurrency, that.srcCurrency) &&
+                Objects.equals(destCurrency, that.destCurrency);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(srcCurrency, destCurrency);
+    }
 }
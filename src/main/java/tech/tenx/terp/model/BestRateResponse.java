@@ -17,6 +17,7 @@
 
 package tech.tenx.terp.model;
 
+import java.math.MathContext;
 import java.util.Map;
 
 public class BestRateResponse {
@@ -29,12 +30,22 @@ public class BestRateResponse {
 
     private Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> originalRates;
 
+    private long version;
+
+    /* how the path was searched and its rate multiplied, for ResponseCache to tell whether it still holds */
+    final RateSpace space;
+    final MathContext mathContext;
+
     BestRateResponse(BestRateRequest request, Number rate, BestRatePath path,
-                     Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> originalRates) {
+                     Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> originalRates, long version,
+                     RateSpace space, MathContext mathContext) {
         this.request = request;
         this.rate = rate;
         this.path = path;
         this.originalRates = originalRates;
+        this.version = version;
+        this.space = space;
+        this.mathContext = mathContext;
     }
 
     public BestRateRequest getRequest() {
@@ -52,4 +63,12 @@ public class BestRateResponse {
     public Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> getOriginalRates() {
         return originalRates;
     }
+
+    /**
+     * Version of the graph this response was answered from, which increases
+     * with every price update that changed a rate.
+     */
+    public long getVersion() {
+        return version;
+    }
 }
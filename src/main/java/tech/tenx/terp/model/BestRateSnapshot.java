@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+
+import static tech.tenx.terp.model.BestRateMatrix.NO_CURRENCY;
+import static tech.tenx.terp.model.CurrencyIndex.NOT_FOUND;
+
+/**
+ * The all pairs best rates of a graph at one version, together with the
+ * currencies and rates they were computed from.
+ */
+class BestRateSnapshot {
+
+    final long version;
+    final CurrencyIndex currencies;
+    final BestRateMatrix matrix;
+    final Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates;
+    final MathContext mathContext;
+
+    /* no copies are made, see ExchangeRateGraph.publishSnapshot for one that updates cannot change */
+    BestRateSnapshot(long version, CurrencyIndex currencies, BestRateMatrix matrix,
+                     Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates, MathContext mathContext) {
+        this.version = version;
+        this.currencies = currencies;
+        this.matrix = matrix;
+        this.rates = rates;
+        this.mathContext = mathContext;
+    }
+
+    BestRateResponse getBestRate(BestRateRequest request) {
+        int srcIndex = currencies.indexOf(request.getSrcCurrency());
+        int destIndex = currencies.indexOf(request.getDestCurrency());
+        List<ExchangeCurrency> steps = new ArrayList<>();
+        Number rate = null;
+        if (matrix != null && srcIndex != NOT_FOUND && destIndex != NOT_FOUND) {
+            rate = srcIndex == destIndex ? BigDecimal.ONE : null;
+            if (matrix.hasPath(srcIndex, destIndex)) {
+                rate = walkBestRatePath(srcIndex, destIndex, steps);
+            }
+        }
+        return new BestRateResponse(request, rate, new BestRatePath(steps), rates, version,
+                matrix == null ? null : matrix.space, mathContext);
+    }
+
+    /*
+     * Whether this snapshot answers the request of the response with the same
+     * steps, over the very rates given, multiplied in the same precision. The
+     * path is walked as getBestRate does, without collecting the steps or
+     * multiplying, so this tells cheaply that a response still holds.
+     */
+    boolean answersAlike(BestRateResponse response, ExchangeRate[] pathRates) {
+        if (matrix == null || !response.mathContext.equals(mathContext)) {
+            return false;
+        }
+        List<ExchangeCurrency> steps = response.getPath().getSteps();
+        int srcIndex = currencies.indexOf(response.getRequest().getSrcCurrency());
+        int destIndex = currencies.indexOf(response.getRequest().getDestCurrency());
+        if (srcIndex == NOT_FOUND || destIndex == NOT_FOUND || !matrix.hasPath(srcIndex, destIndex)) {
+            Number rate = srcIndex != NOT_FOUND && srcIndex == destIndex ? BigDecimal.ONE : null;
+            return steps.isEmpty() && Objects.equals(rate, response.getRate());
+        }
+        if (!(response.getRate() instanceof BigDecimal) || steps.isEmpty()) {
+            return false; // no path before, or a circular one, which is not worth checking
+        }
+        int step = 1;
+        int next = srcIndex;
+        for (int hops = 0; (next = matrix.getNextCurrency(next, destIndex)) != NO_CURRENCY; hops++) {
+            ExchangeCurrency currency = currencies.get(next);
+            if (hops == matrix.size || step == steps.size() && !currency.isHub()) {
+                return false;
+            }
+            if (!currency.isHub()) {
+                if (!currency.equals(steps.get(step))
+                        || rates.get(steps.get(step - 1)).get(currency) != pathRates[step - 1]) {
+                    return false;
+                }
+                step++;
+            }
+        }
+        return step == steps.size();
+    }
+
+    /* the rates along the path of the response, taken while its original rates still hold them */
+    static ExchangeRate[] pathRates(BestRateResponse response) {
+        List<ExchangeCurrency> steps = response.getPath().getSteps();
+        ExchangeRate[] pathRates = new ExchangeRate[Math.max(0, steps.size() - 1)];
+        for (int i = 1; i < steps.size(); i++) {
+            pathRates[i - 1] = response.getOriginalRates().get(steps.get(i - 1)).get(steps.get(i));
+        }
+        return pathRates;
+    }
+
+    /*
+     * Answers the requests in their order, just as getBestRate does. Requests
+     * from the same source share a trie of the steps walked from it, so the
+     * rate of a prefix two paths have in common is multiplied only once. The
+     * products are taken in the same order as multiplyRates does, so rounding
+     * leaves them equal to those of single requests. Sources are answered in
+     * parallel if asked to, each by one thread.
+     */
+    List<BestRateResponse> getBestRates(List<BestRateRequest> requests, boolean parallel) {
+        BestRateResponse[] responses = new BestRateResponse[requests.size()];
+        Map<Integer, List<Integer>> requestsBySource = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            int srcIndex = currencies.indexOf(requests.get(i).getSrcCurrency());
+            if (matrix == null || srcIndex == NOT_FOUND) {
+                responses[i] = getBestRate(requests.get(i));
+            } else {
+                requestsBySource.computeIfAbsent(srcIndex, index -> new ArrayList<>()).add(i);
+            }
+        }
+        (parallel ? requestsBySource.entrySet().parallelStream() : requestsBySource.entrySet().stream())
+                .forEach(source -> answerFromSource(source.getKey(), source.getValue(), requests, responses));
+        return Arrays.asList(responses);
+    }
+
+    private void answerFromSource(int srcIndex, List<Integer> positions, List<BestRateRequest> requests,
+                                  BestRateResponse[] responses) {
+        PrefixNode root = new PrefixNode(null);
+        BitSet differentSteps = new BitSet(matrix.size);
+        for (int position : positions) {
+            BestRateRequest request = requests.get(position);
+            int destIndex = currencies.indexOf(request.getDestCurrency());
+            if (destIndex == NOT_FOUND || !matrix.hasPath(srcIndex, destIndex)) {
+                responses[position] = getBestRate(request);
+                continue;
+            }
+            List<ExchangeCurrency> steps = new ArrayList<>();
+            ExchangeCurrency previous = currencies.get(srcIndex);
+            steps.add(previous);
+            differentSteps.clear();
+            differentSteps.set(srcIndex);
+            PrefixNode node = root;
+            Number rate = null;
+            int next = srcIndex;
+            while ((next = matrix.getNextCurrency(next, destIndex)) != NO_CURRENCY) {
+                ExchangeCurrency step = currencies.get(next);
+                boolean circular = differentSteps.get(next);
+                if (!step.isHub()) {
+                    steps.add(step);
+                    if (!circular) {
+                        node = node.child(next, rates.get(previous).get(step).getRate(), mathContext);
+                        previous = step;
+                    }
+                }
+                if (circular) {
+                    rate = Double.POSITIVE_INFINITY;
+                    break;
+                }
+                differentSteps.set(next);
+            }
+            if (rate == null) {
+                rate = node.product;
+            }
+            responses[position] = new BestRateResponse(request, rate, new BestRatePath(steps), rates, version,
+                    matrix.space, mathContext);
+        }
+    }
+
+    /* a path from the source of the trie, by the index of its last step, with the product of its rates */
+    private static class PrefixNode {
+
+        final BigDecimal product;
+        private Map<Integer, PrefixNode> children;
+
+        PrefixNode(BigDecimal product) {
+            this.product = product;
+        }
+
+        PrefixNode child(int index, BigDecimal stepRate, MathContext mathContext) {
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+            PrefixNode child = children.get(index);
+            if (child == null) {
+                child = new PrefixNode(product == null ? stepRate : product.multiply(stepRate, mathContext));
+                children.put(index, child);
+            }
+            return child;
+        }
+    }
+
+    /*
+     * Collects the steps from srcIndex to destIndex and multiplies the original
+     * rates along them, so the returned rate is computed in mathContext rather
+     * than being the double the matrix was searched with.
+     */
+    private Number walkBestRatePath(int srcIndex, int destIndex, List<ExchangeCurrency> steps) {
+        BitSet differentSteps = new BitSet(matrix.size);
+        steps.add(currencies.get(srcIndex));
+        differentSteps.set(srcIndex);
+        int next = srcIndex;
+        while ((next = matrix.getNextCurrency(next, destIndex)) != NO_CURRENCY) {
+            if (!currencies.get(next).isHub()) {
+                steps.add(currencies.get(next));
+            }
+            if (differentSteps.get(next)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            differentSteps.set(next);
+        }
+        return multiplyRates(steps, rates, mathContext);
+    }
+
+    static BigDecimal multiplyRates(List<ExchangeCurrency> steps,
+                                    Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates,
+                                    MathContext mathContext) {
+        BigDecimal product = null;
+        for (int i = 1; i < steps.size(); i++) {
+            BigDecimal stepRate = rates.get(steps.get(i - 1)).get(steps.get(i)).getRate();
+            product = product == null ? stepRate : product.multiply(stepRate, mathContext);
+        }
+        return product;
+    }
+}
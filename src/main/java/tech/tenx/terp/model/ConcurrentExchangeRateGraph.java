@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.io.IOException;
+import java.math.MathContext;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A thread safe {@link ExchangeRateGraph}. Updates are serialized and each
+ * publishes an immutable snapshot of the best rates through an atomic
+ * reference. Queries never block and are answered from a single snapshot,
+ * whose version every {@link BestRateResponse} carries. A snapshot shares
+ * what an update leaves unchanged with the one before it.
+ *
+ * With lazy updates, updates are published by the next query, which waits
+ * for them like other queries of a lazy {@link ExchangeRateGraph} do. With
+ * the single source strategy, best rates are searched and answered under the
+ * lock of the updates. Arbitrage cycles are searched in between updates.
+ */
+public class ConcurrentExchangeRateGraph extends ExchangeRateGraph {
+
+    private final AtomicReference<BestRateSnapshot> currentSnapshot = new AtomicReference<>(publishSnapshot());
+    /* set while lazy updates wait for the next query to publish them */
+    private volatile boolean unpublished;
+    private volatile boolean singleSource;
+
+    /* committed outside the lock, so that writers share the log's disk syncs */
+    @Override
+    public void addOrUpdateExchangeRate(ExchangeRate... exchangeRates) {
+        long logSequence;
+        synchronized (this) {
+            logSequence = applyExchangeRates(exchangeRates);
+            publish();
+            notifySubscribers();
+        }
+        commitLog(logSequence);
+    }
+
+    /* under the lock, so no update falls between the current rate and the first diff */
+    @Override
+    public synchronized Subscription subscribe(BestRateRequest request, double minRelativeChange,
+                                               Consumer<BestRateChange> listener, Executor executor) {
+        return super.subscribe(request, minRelativeChange, listener, executor);
+    }
+
+    /* under the lock, so the first change set is found against the best rates there were at adding */
+    @Override
+    public synchronized void addChangeSetListener(Consumer<BestRateChangeSet> listener) {
+        super.addChangeSetListener(listener);
+    }
+
+    @Override
+    public synchronized void setWriteAheadLog(WriteAheadLog writeAheadLog) throws IOException {
+        super.setWriteAheadLog(writeAheadLog);
+        publish();
+    }
+
+    @Override
+    public synchronized int expireRates(OffsetDateTime now) {
+        int expired = removeExpiredRates(now);
+        if (expired > 0) {
+            publish();
+        }
+        notifySubscribers();
+        return expired;
+    }
+
+    @Override
+    public synchronized void setRateTimeToLive(Duration timeToLive) {
+        super.setRateTimeToLive(timeToLive);
+    }
+
+    @Override
+    public synchronized void setRateTimeToLive(String exchange, Duration timeToLive) {
+        super.setRateTimeToLive(exchange, timeToLive);
+    }
+
+    @Override
+    public synchronized void setCurrencyHubs(boolean currencyHubs) {
+        super.setCurrencyHubs(currencyHubs);
+    }
+
+    @Override
+    public synchronized void setIncrementalUpdates(boolean incrementalUpdates) {
+        super.setIncrementalUpdates(incrementalUpdates);
+    }
+
+    @Override
+    public synchronized void useProductSearch() {
+        super.useProductSearch();
+        publish();
+    }
+
+    @Override
+    public synchronized void useLogSpaceSearch(double tieEpsilon) {
+        super.useLogSpaceSearch(tieEpsilon);
+        publish();
+    }
+
+    @Override
+    public synchronized void setMathContext(MathContext mathContext) {
+        super.setMathContext(mathContext);
+        publish();
+    }
+
+    @Override
+    public synchronized void setParallelism(int parallelism, int tileSize) {
+        super.setParallelism(parallelism, tileSize);
+    }
+
+    @Override
+    public synchronized void setLazyUpdates(boolean lazyUpdates) {
+        super.setLazyUpdates(lazyUpdates);
+        publish();
+    }
+
+    @Override
+    public synchronized void setSearchStrategy(SearchStrategy searchStrategy) {
+        super.setSearchStrategy(searchStrategy);
+        singleSource = searchStrategy == SearchStrategy.SINGLE_SOURCE;
+        publish();
+    }
+
+    @Override
+    public synchronized boolean restoreSnapshot(Path file) throws IOException {
+        boolean restored = super.restoreSnapshot(file);
+        publish();
+        return restored;
+    }
+
+    /* written from the published snapshot, so updates carry on meanwhile */
+    @Override
+    public void writeSnapshot(Path file) throws IOException {
+        SnapshotFile.write(snapshot(), file);
+    }
+
+    @Override
+    public BestRateResponse getBestRate(BestRateRequest request) {
+        if (singleSource) {
+            synchronized (this) {
+                return super.getBestRate(request);
+            }
+        }
+        return currentSnapshot().getBestRate(request);
+    }
+
+    @Override
+    public List<BestRateResponse> getBestRates(Collection<BestRateRequest> requests, boolean parallel) {
+        if (singleSource) {
+            synchronized (this) {
+                return super.getBestRates(requests, parallel);
+            }
+        }
+        return currentSnapshot().getBestRates(new ArrayList<>(requests), parallel);
+    }
+
+    @Override
+    public long getVersion() {
+        return currentSnapshot().version;
+    }
+
+    @Override
+    public synchronized List<ArbitrageCycle> findArbitrageCycles() {
+        return super.findArbitrageCycles();
+    }
+
+    @Override
+    BestRateSnapshot querySnapshot() {
+        return singleSource ? null : currentSnapshot();
+    }
+
+    @Override
+    BestRateSnapshot snapshot() {
+        return currentSnapshot();
+    }
+
+    @Override
+    ExchangeRate getExchangeRate(ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency) {
+        return snapshot().rates.getOrDefault(srcCurrency, Collections.emptyMap()).get(destCurrency);
+    }
+
+    private void publish() {
+        if (hasPendingUpdates()) {
+            unpublished = true;
+        } else {
+            currentSnapshot.set(publishSnapshot());
+            unpublished = false;
+        }
+    }
+
+    /* the published snapshot, once the lazy updates it waits for are searched and published */
+    private BestRateSnapshot currentSnapshot() {
+        if (unpublished) {
+            synchronized (this) {
+                if (unpublished) {
+                    applyPendingUpdates();
+                    publish();
+                }
+            }
+        }
+        return currentSnapshot.get();
+    }
+}
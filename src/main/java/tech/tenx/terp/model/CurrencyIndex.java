@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static tech.tenx.terp.model.CurrencyRegistry.NO_ID;
+
+/**
+ * Assigns every {@link ExchangeCurrency} of a graph a dense int index,
+ * so that best rates can be kept in flat primitive matrices. Indices are
+ * looked up by the id of the currency in the {@link CurrencyRegistry}.
+ */
+class CurrencyIndex implements Iterable<ExchangeCurrency> {
+
+    static final int NOT_FOUND = -1;
+
+    private final CurrencyRegistry registry = CurrencyRegistry.global();
+
+    /* index by registry id */
+    private int[] indices = new int[0];
+    private List<ExchangeCurrency> currencies = new ArrayList<>();
+
+    int indexOf(ExchangeCurrency currency) {
+        int id = registry.idOf(currency);
+        return id == NO_ID || id >= indices.length ? NOT_FOUND : indices[id];
+    }
+
+    boolean contains(ExchangeCurrency currency) {
+        return indexOf(currency) != NOT_FOUND;
+    }
+
+    int add(ExchangeCurrency currency) {
+        ExchangeCurrency canonical = registry.intern(currency);
+        if (canonical.id >= indices.length) {
+            int length = indices.length;
+            indices = Arrays.copyOf(indices, Math.max(canonical.id + 1, length * 2));
+            Arrays.fill(indices, length, indices.length, NOT_FOUND);
+        }
+        if (indices[canonical.id] == NOT_FOUND) {
+            indices[canonical.id] = currencies.size();
+            currencies.add(canonical);
+        }
+        return indices[canonical.id];
+    }
+
+    ExchangeCurrency get(int index) {
+        return currencies.get(index);
+    }
+
+    int size() {
+        return currencies.size();
+    }
+
+    @Override
+    public Iterator<ExchangeCurrency> iterator() {
+        return currencies.iterator();
+    }
+
+    CurrencyIndex copy() {
+        CurrencyIndex copy = new CurrencyIndex();
+        copy.indices = indices.clone();
+        copy.currencies.addAll(currencies);
+        return copy;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns every {@link ExchangeCurrency} into one canonical instance with a
+ * dense int id. Currencies read from input are looked up straight from the
+ * characters of the line, so a currency seen before costs no allocation.
+ * One registry is shared by the whole process.
+ */
+public final class CurrencyRegistry {
+
+    static final int NO_ID = -1;
+
+    private static final CurrencyRegistry GLOBAL = new CurrencyRegistry();
+
+    /* lower casing ASCII letters in place only agrees with String.toLowerCase() outside of Turkish locales */
+    private static final boolean ASCII_LOWER_CASE = "I".toLowerCase().equals("i");
+
+    /*
+     * written under the lock, and read by find without it: the size is written
+     * after the entries it publishes, and the arrays are replaced only when full
+     */
+    private volatile ExchangeCurrency[] currencies = new ExchangeCurrency[64];
+    private volatile int size;
+
+    /* open addressing by hash code, holding id + 1 and 0 for an empty slot */
+    private volatile int[] table = new int[128];
+
+    /* the canonical instances once more, for lookups without the lock */
+    private final Map<ExchangeCurrency, ExchangeCurrency> canonicals = new ConcurrentHashMap<>();
+
+    private CurrencyRegistry() {
+    }
+
+    public static CurrencyRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns the canonical instance equal to the given currency, which
+     * becomes the canonical instance if it is the first one.
+     */
+    public synchronized ExchangeCurrency intern(ExchangeCurrency currency) {
+        if (currency.id != NO_ID) {
+            return currency;
+        }
+        int slot = slot(currency.hashCode());
+        for (; table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+            ExchangeCurrency candidate = currencies[table[slot] - 1];
+            if (candidate.equals(currency)) {
+                return candidate;
+            }
+        }
+        return add(slot, currency);
+    }
+
+    public ExchangeCurrency intern(CharSequence exchange, CharSequence currency) {
+        return intern(exchange, 0, exchange.length(), currency, 0, currency.length());
+    }
+
+    /**
+     * Returns the canonical instance of the currency whose names are the given
+     * ranges of characters, ignoring case.
+     */
+    public synchronized ExchangeCurrency intern(CharSequence exchange, int exchangeStart, int exchangeEnd,
+                                                CharSequence currency, int currencyStart, int currencyEnd) {
+        int slot = slot(exchange, exchangeStart, exchangeEnd, currency, currencyStart, currencyEnd);
+        if (slot == NO_ID) {
+            return intern(new ExchangeCurrency(exchange.subSequence(exchangeStart, exchangeEnd).toString(),
+                    currency.subSequence(currencyStart, currencyEnd).toString()));
+        }
+        if (table[slot] != 0) {
+            return currencies[table[slot] - 1];
+        }
+        return add(slot, new ExchangeCurrency(lowerCase(exchange, exchangeStart, exchangeEnd),
+                lowerCase(currency, currencyStart, currencyEnd)));
+    }
+
+    public ExchangeCurrency find(CharSequence exchange, CharSequence currency) {
+        return find(exchange, 0, exchange.length(), currency, 0, currency.length());
+    }
+
+    /**
+     * Returns the canonical instance of the currency whose names are the given
+     * ranges of characters, ignoring case, like intern does, but a new instance
+     * left out of the registry if there is none yet. Currencies that are only
+     * asked for, and never quoted, thus do not grow the registry. Takes no
+     * lock, as every request looks up its currencies.
+     */
+    public ExchangeCurrency find(CharSequence exchange, int exchangeStart, int exchangeEnd,
+                                 CharSequence currency, int currencyStart, int currencyEnd) {
+        int published = size;
+        ExchangeCurrency[] currencies = this.currencies;
+        int[] table = this.table;
+        int hash = hash(exchange, exchangeStart, exchangeEnd, currency, currencyStart, currencyEnd);
+        ExchangeCurrency found;
+        if (hash == NO_ID) {
+            found = new ExchangeCurrency(exchange.subSequence(exchangeStart, exchangeEnd).toString(),
+                    currency.subSequence(currencyStart, currencyEnd).toString());
+        } else {
+            for (int slot = slot(hash, table.length); table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+                int id = table[slot] - 1;
+                /* entries of ids not published yet are left to the canonicals below */
+                if (id < published) {
+                    ExchangeCurrency candidate = currencies[id];
+                    if (candidate.hashCode() == hash
+                            && candidate.matches(exchange, exchangeStart, exchangeEnd, currency, currencyStart, currencyEnd)) {
+                        return candidate;
+                    }
+                }
+            }
+            found = new ExchangeCurrency(lowerCase(exchange, exchangeStart, exchangeEnd),
+                    lowerCase(currency, currencyStart, currencyEnd));
+        }
+        return canonicals.getOrDefault(found, found);
+    }
+
+    /**
+     * Returns the id of the canonical instance equal to the given currency,
+     * without interning it. Takes no lock, as queries look up every currency.
+     */
+    public int idOf(ExchangeCurrency currency) {
+        int id = currency.id;
+        if (id != NO_ID) {
+            return id;
+        }
+        ExchangeCurrency canonical = canonicals.get(currency);
+        return canonical == null ? NO_ID : canonical.id;
+    }
+
+    public synchronized ExchangeCurrency get(int id) {
+        return currencies[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private ExchangeCurrency add(int slot, ExchangeCurrency currency) {
+        if (size == currencies.length) {
+            ExchangeCurrency[] grown = new ExchangeCurrency[size * 2];
+            System.arraycopy(currencies, 0, grown, 0, size);
+            currencies = grown;
+        }
+        int id = size;
+        currency.id = id;
+        currencies[id] = currency;
+        table[slot] = id + 1;
+        canonicals.put(currency, currency);
+        size = id + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return currency;
+    }
+
+    private void rehash() {
+        int[] rehashed = new int[table.length * 2];
+        for (int id = 0; id < size; id++) {
+            int slot = slot(currencies[id].hashCode(), rehashed.length);
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & (rehashed.length - 1);
+            }
+            rehashed[slot] = id + 1;
+        }
+        table = rehashed;
+    }
+
+    private int slot(int hash) {
+        return slot(hash, table.length);
+    }
+
+    private static int slot(int hash, int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+
+    /*
+     * the slot holding the currency of the given names, or the empty one it
+     * would be added at, and NO_ID if the names have other than ASCII characters
+     */
+    private int slot(CharSequence exchange, int exchangeStart, int exchangeEnd,
+                     CharSequence currency, int currencyStart, int currencyEnd) {
+        int hash = hash(exchange, exchangeStart, exchangeEnd, currency, currencyStart, currencyEnd);
+        if (hash == NO_ID) {
+            return NO_ID;
+        }
+        int slot = slot(hash);
+        for (; table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+            ExchangeCurrency candidate = currencies[table[slot] - 1];
+            if (candidate.hashCode() == hash
+                    && candidate.matches(exchange, exchangeStart, exchangeEnd, currency, currencyStart, currencyEnd)) {
+                return slot;
+            }
+        }
+        return slot;
+    }
+
+    /*
+     * the hash of Objects.hash(exchange, currency) of the lower cased names,
+     * like ExchangeCurrency.hashCode(), or NO_ID if they have other than ASCII characters
+     */
+    private static int hash(CharSequence exchange, int exchangeStart, int exchangeEnd,
+                            CharSequence currency, int currencyStart, int currencyEnd) {
+        int exchangeHash = asciiLowerCaseHash(exchange, exchangeStart, exchangeEnd);
+        int currencyHash = asciiLowerCaseHash(currency, currencyStart, currencyEnd);
+        if (exchangeHash == NO_ID || currencyHash == NO_ID) {
+            return NO_ID;
+        }
+        return 31 * (31 + exchangeHash) + currencyHash;
+    }
+
+    /* String.hashCode() of the lower cased range, or NO_ID if it has other than ASCII characters */
+    private static int asciiLowerCaseHash(CharSequence chars, int start, int end) {
+        if (!ASCII_LOWER_CASE) {
+            return NO_ID;
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c > 127) {
+                return NO_ID;
+            }
+            hash = 31 * hash + toLowerCase(c);
+        }
+        /* a real hash of NO_ID only takes the slower path */
+        return hash;
+    }
+
+    static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String lowerCase(CharSequence chars, int start, int end) {
+        char[] lowerCase = new char[end - start];
+        for (int i = start; i < end; i++) {
+            lowerCase[i - start] = toLowerCase(chars.charAt(i));
+        }
+        return new String(lowerCase);
+    }
+}
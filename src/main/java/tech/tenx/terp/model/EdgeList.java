@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.Map;
+
+/**
+ * The rates of a graph as adjacency arrays indexed by {@link CurrencyIndex},
+ * for searches that follow edges rather than sweeping the whole matrix.
+ * Rates are kept as weights of the given {@link RateSpace}.
+ */
+class EdgeList {
+
+    final RateSpace space;
+    final int size;
+
+    /* edges leaving currency i are at offsets[i] until offsets[i + 1] */
+    final int[] offsets;
+    final int[] targets;
+    final double[] weights;
+
+    private EdgeList(RateSpace space, int size, int[] offsets, int[] targets, double[] weights) {
+        this.space = space;
+        this.size = size;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    static EdgeList build(CurrencyIndex currencies, Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates,
+                          RateSpace space) {
+        int size = currencies.size();
+        int[] offsets = new int[size + 1];
+        for (ExchangeCurrency srcCurrency : rates.keySet()) {
+            offsets[currencies.indexOf(srcCurrency) + 1] = rates.get(srcCurrency).size();
+        }
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[offsets[size]];
+        double[] weights = new double[offsets[size]];
+        for (ExchangeCurrency srcCurrency : rates.keySet()) {
+            int edge = offsets[currencies.indexOf(srcCurrency)];
+            for (ExchangeRate rate : rates.get(srcCurrency).values()) {
+                targets[edge] = currencies.indexOf(rate.getDestCurrency());
+                weights[edge] = space.toWeight(rate.getRate());
+                edge++;
+            }
+        }
+        return new EdgeList(space, size, offsets, targets, weights);
+    }
+
+    int edgeCount() {
+        return targets.length;
+    }
+}
@@ -21,12 +21,29 @@ import java.util.Objects;
 
 public class ExchangeCurrency {
 
+    /* no input can name an exchange without characters */
+    private static final String HUB_EXCHANGE = "";
+
     private String exchange;
     private String currency;
+    private int hash;
+    private String name;
+
+    /* set by CurrencyRegistry on the canonical instance */
+    int id = CurrencyRegistry.NO_ID;
 
     public ExchangeCurrency(String exchange, String currency) {
         this.exchange = exchange.toLowerCase();
         this.currency = currency.toLowerCase();
+        this.hash = Objects.hash(this.exchange, this.currency);
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+
+    public String getCurrency() {
+        return currency;
     }
 
     @Override
@@ -34,22 +51,53 @@ public class ExchangeCurrency {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ExchangeCurrency that = (ExchangeCurrency) o;
-        return Objects.equals(exchange, that.exchange) &&
+        return hash == that.hash &&
+                Objects.equals(exchange, that.exchange) &&
                 Objects.equals(currency, that.currency);
     }
 
     @Override
     public int hashCode() {
-
-        return Objects.hash(exchange, currency);
+        return hash;
     }
 
     @Override
     public String toString() {
-        return exchange + " " + currency;
+        if (name == null) {
+            name = exchange + " " + currency;
+        }
+        return name;
     }
 
     boolean isSameCurrency(ExchangeCurrency other) {
         return currency.equals(other.currency);
     }
+
+    /* whether the names equal the given ranges of characters, lower cased as ASCII */
+    boolean matches(CharSequence exchange, int exchangeStart, int exchangeEnd,
+                    CharSequence currency, int currencyStart, int currencyEnd) {
+        return matches(this.exchange, exchange, exchangeStart, exchangeEnd)
+                && matches(this.currency, currency, currencyStart, currencyEnd);
+    }
+
+    private static boolean matches(String name, CharSequence chars, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != CurrencyRegistry.toLowerCase(chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* the vertex every exchange listing this currency transfers through */
+    static ExchangeCurrency hub(ExchangeCurrency exchangeCurrency) {
+        return new ExchangeCurrency(HUB_EXCHANGE, exchangeCurrency.currency);
+    }
+
+    boolean isHub() {
+        return exchange.isEmpty();
+    }
 }
@@ -20,34 +20,117 @@ package tech.tenx.terp.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static tech.tenx.terp.model.BestRateMatrix.NO_CURRENCY;
+import static tech.tenx.terp.model.CurrencyIndex.NOT_FOUND;
 
 /**
- * This class is not thread safe.
+ * This class is not thread safe, see {@link ConcurrentExchangeRateGraph} for
+ * one that is. With lazy updates, queries may run concurrently with each other
+ * but not with updates.
  */
 public class ExchangeRateGraph {
 
     private static final Logger logger = LoggerFactory.getLogger(ExchangeRateGraph.class);
 
-    private Set<ExchangeCurrency> existingCurrencies = new HashSet<>();
+    private static final long EXPIRY_TICK_MILLIS = 1000;
+
+    private CurrencyIndex existingCurrencies = new CurrencyIndex();
     private Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates = new HashMap<>();
-    private TempResult tempResult;
+    /* the rates searched for best rates, without same currency rates if they go through hubs */
+    private Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> searchRates = new HashMap<>();
+    private boolean currencyHubs = true;
+    private RateSpace rateSpace = RateSpace.PRODUCT;
+    private MathContext mathContext = MathContext.DECIMAL128;
+    private BestRateMatrix bestRateMatrix;
+    private long version;
+    private boolean incrementalUpdates = true;
+
+    private boolean lazyUpdates;
+    private volatile boolean dirty;
+    private List<RateUpdate> pendingUpdates = new ArrayList<>();
+    private final Object recomputeLock = new Object();
+    private AtomicLong avoidedRecomputes = new AtomicLong();
+
+    private ForkJoinPool floydWarshallPool;
+    private int floydWarshallTileSize;
+
+    private SearchStrategy searchStrategy = SearchStrategy.ALL_PAIRS;
+    private EdgeList edgeList;
+    private Map<Integer, SingleSourceResult> singleSourceResults = new HashMap<>();
+
+    private ArbitrageDetector arbitrageDetector = new ArbitrageDetector();
+
+    private Duration rateTimeToLive;
+    private final Map<String, Duration> exchangeTimesToLive = new HashMap<>();
+    private TimerWheel<ExchangeRate> rateExpiry;
+    /* by currency, the number of price rates from or to it, which expiry removes it at none of */
+    private final Map<ExchangeCurrency, Integer> priceRateCounts = new HashMap<>();
+
+    private WriteAheadLog writeAheadLog;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long notifiedVersion;
+    private ExecutorService notifier;
+
+    private final List<Consumer<BestRateChangeSet>> changeSetListeners = new CopyOnWriteArrayList<>();
+
+    /* what the last published snapshot shares with the graph, which copies it before changing it */
+    private BestRateSnapshot published;
+    private CurrencyIndex publishedCurrencies;
+    private Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> publishedRates;
 
     public void addOrUpdateExchangeRate(ExchangeRate... exchangeRates) {
+        long logSequence = applyExchangeRates(exchangeRates);
+        notifySubscribers();
+        commitLog(logSequence);
+    }
+
+    /* returns the log sequence number of the last rate accepted, or 0 if none was logged */
+    long applyExchangeRates(ExchangeRate... exchangeRates) {
+
+        List<RateUpdate> updates = new ArrayList<>();
+        long logSequence = 0;
 
         for(ExchangeRate exchangeRate: exchangeRates) {
 
             logger.info("Adding {}", exchangeRate);
 
             ExchangeCurrency srcCurrency = exchangeRate.getSrcCurrency();
-            rates.putIfAbsent(srcCurrency, new HashMap<>());
-
             ExchangeCurrency destCurrency = exchangeRate.getDestCurrency();
-            ExchangeRate currentRate = rates.get(srcCurrency).get(destCurrency);
+            ExchangeRate currentRate = rates.getOrDefault(srcCurrency, Collections.emptyMap()).get(destCurrency);
             if (currentRate == null || currentRate.isOlderThan(exchangeRate)) {
-                rates.get(srcCurrency).put(destCurrency, exchangeRate);
+                destRatesToChange(srcCurrency).put(destCurrency, exchangeRate);
+                if (searchRates != rates) {
+                    searchRates.putIfAbsent(srcCurrency, new HashMap<>());
+                    searchRates.get(srcCurrency).put(destCurrency, exchangeRate);
+                }
+                updates.add(new RateUpdate(currentRate, exchangeRate));
+                if (currentRate == null) {
+                    countPriceRate(exchangeRate, 1);
+                }
+                if (rateExpiry != null) {
+                    scheduleExpiry(exchangeRate);
+                }
+                if (writeAheadLog != null) {
+                    logSequence = writeAheadLog.append(exchangeRate);
+                }
+                arbitrageDetector.rateChanged(currentRate, exchangeRate);
                 if (currentRate == null) {
                     logger.info("Added {}", exchangeRate);
                 } else {
@@ -68,129 +151,887 @@ public class ExchangeRateGraph {
             }
         }
 
-        tempResult = computeBestRates();
+        if (!updates.isEmpty()) {
+            version++;
+        }
+
+        if (searchStrategy == SearchStrategy.SINGLE_SOURCE) {
+            if (!updates.isEmpty()) {
+                clearSingleSourceResults();
+            }
+        } else if (!lazyUpdates) {
+            updateBestRates(updates);
+        } else if (!updates.isEmpty()) {
+            synchronized (recomputeLock) {
+                if (dirty) {
+                    avoidedRecomputes.incrementAndGet();
+                }
+                pendingUpdates.addAll(updates);
+                dirty = true;
+            }
+        }
+        return logSequence;
+    }
+
+    void commitLog(long logSequence) {
+        if (writeAheadLog != null && logSequence > 0) {
+            try {
+                writeAheadLog.commit(logSequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Replays the rates of the log into the graph as a single update, so the
+     * best rates are computed once, and from then on logs every rate accepted.
+     * A rate is on disk by the time the update that accepted it returns. After
+     * {@link #restoreSnapshot(Path)}, only rates newer than the snapshot are
+     * accepted again.
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) throws IOException {
+        this.writeAheadLog = null;
+        List<ExchangeRate> loggedRates = writeAheadLog.readAll();
+        if (!loggedRates.isEmpty()) {
+            logger.info("Replaying {} rates from the write-ahead log", loggedRates.size());
+            applyExchangeRates(loggedRates.toArray(new ExchangeRate[0]));
+        }
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Whether transfers between exchanges go through one hub per currency,
+     * which is the default, rather than a rate between every two exchanges
+     * listing the currency. Hubs keep the number of rates searched linear in
+     * the number of exchanges, and never show in a best path. Must be chosen
+     * before the first rate is added.
+     */
+    public void setCurrencyHubs(boolean currencyHubs) {
+        if (!rates.isEmpty()) {
+            throw new IllegalStateException("Currency hubs must be chosen before the first rate is added");
+        }
+        this.currencyHubs = currencyHubs;
+        searchRates = currencyHubs ? new HashMap<>() : rates;
+    }
+
+    /**
+     * Whether a price update adjusts the best rates in place instead of
+     * recomputing all of them, which is the default.
+     */
+    public void setIncrementalUpdates(boolean incrementalUpdates) {
+        this.incrementalUpdates = incrementalUpdates;
+    }
+
+    /**
+     * Searches best rates by multiplying rates as doubles, which is the default.
+     */
+    public void useProductSearch() {
+        changeRateSpace(RateSpace.PRODUCT);
+    }
+
+    /**
+     * Searches best rates by adding -log(rate) weights instead of multiplying rates.
+     * Paths whose rates differ by a relative amount of about tieEpsilon are
+     * treated as equally good. Either way the rate of a response is recomputed
+     * exactly from the rates along its path.
+     */
+    public void useLogSpaceSearch(double tieEpsilon) {
+        changeRateSpace(RateSpace.logSpace(tieEpsilon));
+    }
+
+    /**
+     * Sets the precision the rates along a best path are multiplied with,
+     * {@link MathContext#DECIMAL128} by default. {@link MathContext#UNLIMITED}
+     * keeps every digit, so the rate of a path grows by the digits of each step.
+     */
+    public void setMathContext(MathContext mathContext) {
+        this.mathContext = mathContext;
+    }
+
+    /**
+     * With lazy updates a price update only marks the best rates as outdated,
+     * and the next query brings them up to date once for all updates since the
+     * previous query. Queries arriving meanwhile wait for that one computation.
+     */
+    public void setLazyUpdates(boolean lazyUpdates) {
+        this.lazyUpdates = lazyUpdates;
+        if (!lazyUpdates) {
+            applyPendingUpdates();
+        }
+    }
+
+    /**
+     * Runs full recomputes on a pool of the given parallelism, in tiles of
+     * tileSize rows and columns per task. The results are the same as those of
+     * the sequential recompute, which a parallelism of 1 restores.
+     */
+    public void setParallelism(int parallelism, int tileSize) {
+        if (parallelism < 1 || tileSize < 1) {
+            throw new IllegalArgumentException("Parallelism and tile size must be positive");
+        }
+        if (floydWarshallPool != null) {
+            floydWarshallPool.shutdown();
+        }
+        floydWarshallPool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+        floydWarshallTileSize = tileSize;
+    }
+
+    /**
+     * Sets how best rates are searched, {@link SearchStrategy#ALL_PAIRS} by default.
+     */
+    public void setSearchStrategy(SearchStrategy searchStrategy) {
+        synchronized (recomputeLock) {
+            this.searchStrategy = searchStrategy;
+            clearSingleSourceResults();
+            pendingUpdates = new ArrayList<>();
+            dirty = false;
+            if (searchStrategy == SearchStrategy.ALL_PAIRS && existingCurrencies.size() > 0) {
+                BestRateMatrix previous = matrixBeforeRecompute();
+                bestRateMatrix = computeBestRates();
+                recomputed(previous, existingCurrencies);
+            }
+        }
+    }
+
+    /**
+     * Sets how long after its timestamp a price rate is removed by
+     * {@link #expireRates(OffsetDateTime)}, unless a newer one replaced it,
+     * for the exchanges without a time to live of their own. Null, the
+     * default, keeps rates until they are replaced.
+     */
+    public void setRateTimeToLive(Duration timeToLive) {
+        rateTimeToLive = timeToLive;
+        scheduleExpiries();
+    }
+
+    /**
+     * Sets the time to live of the price rates of one exchange, where null
+     * falls back to that of {@link #setRateTimeToLive(Duration)}.
+     */
+    public void setRateTimeToLive(String exchange, Duration timeToLive) {
+        if (timeToLive == null) {
+            exchangeTimesToLive.remove(exchange.toLowerCase());
+        } else {
+            exchangeTimesToLive.put(exchange.toLowerCase(), timeToLive);
+        }
+        scheduleExpiries();
+    }
+
+    /**
+     * Number of price updates whose best rate computation was merged into
+     * that of an earlier update, because no query came in between.
+     */
+    public long getAvoidedRecomputes() {
+        return avoidedRecomputes.get();
+    }
+
+    /* deadlines follow from the times to live, so the wheel is filled anew whenever they change */
+    private void scheduleExpiries() {
+        if (rateTimeToLive == null && exchangeTimesToLive.isEmpty()) {
+            rateExpiry = null;
+            return;
+        }
+        rateExpiry = new TimerWheel<>(EXPIRY_TICK_MILLIS);
+        for (Map<ExchangeCurrency, ExchangeRate> destRates : rates.values()) {
+            for (ExchangeRate rate : destRates.values()) {
+                scheduleExpiry(rate);
+            }
+        }
+    }
+
+    /* transfers to the same currency never expire, they go with their currencies */
+    private void scheduleExpiry(ExchangeRate rate) {
+        if (rate.getSrcCurrency().isSameCurrency(rate.getDestCurrency())) {
+            return;
+        }
+        Duration timeToLive = exchangeTimesToLive.getOrDefault(rate.getSrcCurrency().getExchange(), rateTimeToLive);
+        if (timeToLive != null) {
+            rateExpiry.schedule(rate, rate.getTimestamp().toInstant().plus(timeToLive).toEpochMilli());
+        }
+    }
+
+    private void changeRateSpace(RateSpace newRateSpace) {
+        rateSpace = newRateSpace;
+        if (searchStrategy == SearchStrategy.SINGLE_SOURCE) {
+            clearSingleSourceResults();
+        } else if (bestRateMatrix != null && !dirty) {
+            BestRateMatrix previous = matrixBeforeRecompute();
+            bestRateMatrix = computeBestRates();
+            recomputed(previous, existingCurrencies);
+        }
+    }
+
+    private void clearSingleSourceResults() {
+        singleSourceResults.clear();
+        edgeList = null;
+        bestRateMatrix = null;
+    }
+
+    boolean hasPendingUpdates() {
+        return dirty;
+    }
+
+    void applyPendingUpdates() {
+        synchronized (recomputeLock) {
+            if (dirty) {
+                updateBestRates(pendingUpdates);
+                pendingUpdates = new ArrayList<>();
+                dirty = false;
+            }
+        }
     }
 
     private void addSameCurrencyRates(ExchangeCurrency newCurrency) {
         for (ExchangeCurrency existingCurrency : existingCurrencies) {
-            if (newCurrency.isSameCurrency(existingCurrency)) { // but different exchange
+            if (!existingCurrency.isHub() && newCurrency.isSameCurrency(existingCurrency)) { // but different exchange
                 ExchangeRate sameCurrencyRate = new ExchangeRate(OffsetDateTime.now(), existingCurrency, newCurrency, BigDecimal.ONE);
-                rates.putIfAbsent(existingCurrency, new HashMap<>());
-                rates.get(existingCurrency).put(newCurrency, sameCurrencyRate);
+                destRatesToChange(existingCurrency).put(newCurrency, sameCurrencyRate);
                 logger.info("Added same currency rate {}", sameCurrencyRate);
                 sameCurrencyRate = new ExchangeRate(OffsetDateTime.now(), newCurrency, existingCurrency, BigDecimal.ONE);
-                rates.putIfAbsent(newCurrency, new HashMap<>());
-                rates.get(newCurrency).put(existingCurrency, sameCurrencyRate);
+                destRatesToChange(newCurrency).put(existingCurrency, sameCurrencyRate);
                 logger.info("Added same currency rate {}", sameCurrencyRate);
             }
         }
+        if (currencyHubs) {
+            ExchangeCurrency hub = ExchangeCurrency.hub(newCurrency);
+            if (!existingCurrencies.contains(hub)) {
+                existingCurrencies.add(hub);
+            }
+            searchRates.putIfAbsent(newCurrency, new HashMap<>());
+            searchRates.get(newCurrency).put(hub, new ExchangeRate(OffsetDateTime.now(), newCurrency, hub, BigDecimal.ONE));
+            searchRates.putIfAbsent(hub, new HashMap<>());
+            searchRates.get(hub).put(newCurrency, new ExchangeRate(OffsetDateTime.now(), hub, newCurrency, BigDecimal.ONE));
+        }
+    }
+
+    /* the rates from the source, copied first if the last published snapshot shares them */
+    private Map<ExchangeCurrency, ExchangeRate> destRatesToChange(ExchangeCurrency srcCurrency) {
+        Map<ExchangeCurrency, ExchangeRate> destRates = rates.get(srcCurrency);
+        if (destRates == null || publishedRates != null && publishedRates.get(srcCurrency) == destRates) {
+            destRates = destRates == null ? new HashMap<>() : new HashMap<>(destRates);
+            rates.put(srcCurrency, destRates);
+        }
+        return destRates;
     }
 
     ExchangeRate getExchangeRate(ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency) {
         return rates.getOrDefault(srcCurrency, new HashMap<>()).get(destCurrency);
     }
 
+    int searchRateCount() {
+        int count = 0;
+        for (Map<ExchangeCurrency, ExchangeRate> destRates : searchRates.values()) {
+            count += destRates.size();
+        }
+        return count;
+    }
 
-    /* modified Floyd-Warshall algorithm */
-    private TempResult computeBestRates() {
 
-        Map<ExchangeCurrency, Map<ExchangeCurrency, BigDecimal>> bestRates = new HashMap<>();
-        Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeCurrency>> nextCurrencies = new HashMap<>();
+    private void updateBestRates(List<RateUpdate> updates) {
+        BestRateMatrix previous = matrixBeforeRecompute();
+        /* each update costs O(n²) incrementally, so n of them are as dear as a full recompute */
+        if (bestRateMatrix == null || !incrementalUpdates || updates.size() > existingCurrencies.size()) {
+            bestRateMatrix = computeBestRates();
+        } else if (!updateBestRatesIncrementally(updates)) {
+            logger.debug("Incremental update not possible, recomputing all best rates");
+            bestRateMatrix = computeBestRates();
+        }
+        recomputed(previous, existingCurrencies);
+    }
+
+    /* a copy of the best rates, as incremental updates change them in place, kept only for listeners */
+    private BestRateMatrix matrixBeforeRecompute() {
+        if (changeSetListeners.isEmpty() || bestRateMatrix == null) {
+            return null;
+        }
+        return matrixPublished() ? bestRateMatrix : bestRateMatrix.copy();
+    }
 
-        List<ExchangeCurrency> currencyList = new ArrayList<>(existingCurrencies);
+    private boolean matrixPublished() {
+        return published != null && published.matrix == bestRateMatrix;
+    }
 
-        /* initialise bestRates and nextCurrencies */
-        for (int i = 0; i < currencyList.size(); i++) {
-            ExchangeCurrency srcCurrency = currencyList.get(i);
-            Map<ExchangeCurrency, BigDecimal> rateMap = new HashMap<>();
-            bestRates.put(srcCurrency, rateMap);
-            Map<ExchangeCurrency, ExchangeCurrency> currencyMap = new HashMap<>();
-            nextCurrencies.put(srcCurrency, currencyMap);
-            for (ExchangeCurrency destCurrency : currencyList) {
-                bestRates.get(srcCurrency).put(destCurrency, srcCurrency.equals(destCurrency) ? BigDecimal.ONE : null);
-                nextCurrencies.get(srcCurrency).put(destCurrency, null);
+    private void recomputed(BestRateMatrix previous, CurrencyIndex previousCurrencies) {
+        if (changeSetListeners.isEmpty() || bestRateMatrix == null) {
+            return;
+        }
+        BestRateChangeSet changes = BestRateChangeSet.between(previous, previousCurrencies, bestRateMatrix,
+                existingCurrencies, version);
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (Consumer<BestRateChangeSet> listener : changeSetListeners) {
+            try {
+                listener.accept(changes);
+            } catch (RuntimeException e) {
+                logger.warn("Change set listener failed at version {}", version, e);
+            }
+        }
+    }
+
+    /*
+     * New currencies are inserted one by one in O(n²) each, together with all
+     * their rates. Between known currencies, a worse rate from u to v only
+     * affects the sources whose best paths take it, so just their rows are
+     * searched again, and a better one is relaxed into every pair in O(n²).
+     * Sources are all found before any row changes, and searched over the
+     * final rates, so the improvements relaxed after them start from rows
+     * that hold no rate the batch made worse. A rate updated more than once
+     * in the batch counts by its net change. Returns false if all best rates
+     * must be recomputed, which is the case whenever a cycle is involved, or
+     * when tied paths leave next steps running in a circle.
+     */
+    private boolean updateBestRatesIncrementally(List<RateUpdate> updates) {
+        if (bestRateMatrix.space != rateSpace || bestRateMatrix.hasCycle()) {
+            return false;
+        }
+        int knownSize = bestRateMatrix.size;
+        for (int x = knownSize; x < existingCurrencies.size(); x++) {
+            bestRateMatrix = bestRateMatrix.withCurrencyAdded();
+            if (!insertCurrency(x)) {
+                return false;
             }
         }
 
+        if (matrixPublished()) {
+            bestRateMatrix = bestRateMatrix.copy();
+        }
+        BestRateMatrix matrix = bestRateMatrix;
+        int size = matrix.size;
+        Map<Long, RateUpdate> netUpdates = new LinkedHashMap<>();
+        for (RateUpdate update : updates) {
+            int u = existingCurrencies.indexOf(update.newRate.getSrcCurrency());
+            int v = existingCurrencies.indexOf(update.newRate.getDestCurrency());
+            if (u == v) {
+                return false;
+            }
+            if (u >= knownSize || v >= knownSize) {
+                continue; // inserted with its currency already
+            }
+            netUpdates.merge((long) u * size + v, update,
+                    (first, last) -> new RateUpdate(first.oldRate, last.newRate));
+        }
+
+        BitSet sources = new BitSet(size);
+        List<RateUpdate> improvements = new ArrayList<>();
+        for (RateUpdate update : netUpdates.values()) {
+            int comparison = update.oldRate == null ? 1 : update.newRate.getRate().compareTo(update.oldRate.getRate());
+            if (comparison > 0) {
+                improvements.add(update);
+            } else if (comparison < 0) {
+                sources.or(matrix.sourcesUsing(existingCurrencies.indexOf(update.newRate.getSrcCurrency()),
+                        existingCurrencies.indexOf(update.newRate.getDestCurrency())));
+            }
+        }
+
+        if (!sources.isEmpty()) {
+            EdgeList edges = EdgeList.build(existingCurrencies, searchRates, rateSpace);
+            /* a row search costs about O(E), Floyd-Warshall O(n³) */
+            if ((long) sources.cardinality() * edges.edgeCount() > (long) size * size * size) {
+                return false;
+            }
+            double[] rowRates = new double[size];
+            int[] previousSteps = new int[size];
+            int[] firstSteps = new int[size];
+            for (int src = sources.nextSetBit(0); src >= 0; src = sources.nextSetBit(src + 1)) {
+                if (!SingleSourceSearch.search(edges, src, rowRates, previousSteps)) {
+                    return false;
+                }
+                SingleSourceSearch.firstSteps(src, previousSteps, firstSteps, size);
+                matrix.setRow(src, rowRates, firstSteps);
+            }
+        }
+
+        for (RateUpdate update : improvements) {
+            int u = existingCurrencies.indexOf(update.newRate.getSrcCurrency());
+            int v = existingCurrencies.indexOf(update.newRate.getDestCurrency());
+            if (!matrix.improveRate(u, v, rateSpace.toWeight(update.newRate.getRate()))) {
+                return false;
+            }
+        }
+        return !matrix.hasStepLoop();
+    }
+
+    /* inserts the currency at index x with its rates to and from currencies before it */
+    private boolean insertCurrency(int x) {
+        ExchangeCurrency currency = existingCurrencies.get(x);
+        Map<ExchangeCurrency, ExchangeRate> outRates = searchRates.getOrDefault(currency, Collections.emptyMap());
+        if (outRates.containsKey(currency)) {
+            return false;
+        }
+        int[] outTargets = new int[outRates.size()];
+        double[] outWeights = new double[outRates.size()];
+        int outCount = 0;
+        for (ExchangeRate rate : outRates.values()) {
+            int target = existingCurrencies.indexOf(rate.getDestCurrency());
+            if (target < x) {
+                outTargets[outCount] = target;
+                outWeights[outCount++] = rateSpace.toWeight(rate.getRate());
+            }
+        }
+        int[] inSources = new int[x];
+        double[] inWeights = new double[x];
+        int inCount = 0;
+        for (Map.Entry<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> entry : searchRates.entrySet()) {
+            int source = existingCurrencies.indexOf(entry.getKey());
+            ExchangeRate rate = entry.getValue().get(currency);
+            if (rate != null && source < x) {
+                inSources[inCount] = source;
+                inWeights[inCount++] = rateSpace.toWeight(rate.getRate());
+            }
+        }
+        return bestRateMatrix.insertLastCurrency(Arrays.copyOf(outTargets, outCount), Arrays.copyOf(outWeights, outCount),
+                Arrays.copyOf(inSources, inCount), Arrays.copyOf(inWeights, inCount));
+    }
+
+    /* modified Floyd-Warshall algorithm over primitive matrices */
+    BestRateMatrix computeBestRates() {
+
+        RateSpace space = rateSpace;
+        int size = existingCurrencies.size();
+        BestRateMatrix matrix = new BestRateMatrix(space, size);
+
         /* copy current graph to bestRates and nextCurrencies */
-        for (ExchangeCurrency srcCurrency : rates.keySet()) {
-            for (ExchangeCurrency destCurrency : rates.get(srcCurrency).keySet()) {
-                bestRates.get(srcCurrency).put(destCurrency, rates.get(srcCurrency).get(destCurrency).getRate());
-                nextCurrencies.get(srcCurrency).put(destCurrency, destCurrency);
+        for (ExchangeCurrency srcCurrency : searchRates.keySet()) {
+            int srcIndex = existingCurrencies.indexOf(srcCurrency);
+            for (ExchangeCurrency destCurrency : searchRates.get(srcCurrency).keySet()) {
+                int destIndex = existingCurrencies.indexOf(destCurrency);
+                double weight = space.toWeight(searchRates.get(srcCurrency).get(destCurrency).getRate());
+                matrix.set(srcIndex, destIndex, weight, destIndex);
             }
         }
 
         /* find best rates and path to achieve the best rates */
-        for (int k = 0; k < currencyList.size(); k++) {
-            ExchangeCurrency kCurrency = currencyList.get(k);
-            for (int i = 0; i < currencyList.size(); i++) {
-                ExchangeCurrency iCurrency = currencyList.get(i);
-                for (ExchangeCurrency jCurrency : currencyList) {
-                    BigDecimal ijRate = bestRates.get(iCurrency).get(jCurrency);
-                    BigDecimal ikRate = bestRates.get(iCurrency).get(kCurrency);
-                    BigDecimal kjRate = bestRates.get(kCurrency).get(jCurrency);
-                    if (ikRate != null && kjRate != null) {
-                        BigDecimal ikjRate = ikRate.multiply(kjRate);
-                        if (ijRate == null || ijRate.compareTo(ikjRate) < 0) {
-                            bestRates.get(iCurrency).put(jCurrency, ikjRate);
-                            nextCurrencies.get(iCurrency).put(jCurrency, nextCurrencies.get(iCurrency).get(kCurrency));
-                        }
+        if (floydWarshallPool == null) {
+            FloydWarshall.run(matrix);
+        } else {
+            FloydWarshall.run(matrix, floydWarshallPool, floydWarshallTileSize);
+        }
+
+        return matrix;
+    }
+
+    public BestRateResponse getBestRate(BestRateRequest request) {
+        if (dirty) {
+            applyPendingUpdates();
+        }
+        if (searchStrategy == SearchStrategy.SINGLE_SOURCE) {
+            return getSingleSourceBestRate(request);
+        }
+        return snapshot().getBestRate(request);
+    }
+
+    /**
+     * Answers all the requests from the same rates, in their order, with the
+     * same responses {@link #getBestRate(BestRateRequest)} gives one by one.
+     */
+    public List<BestRateResponse> getBestRates(Collection<BestRateRequest> requests) {
+        return getBestRates(requests, false);
+    }
+
+    /**
+     * Answers all the requests from the same rates as
+     * {@link #getBestRates(Collection)} does, and if parallel is true, the
+     * requests of different sources on the cores of the common pool. Only the
+     * all pairs strategy answers in parallel.
+     */
+    public List<BestRateResponse> getBestRates(Collection<BestRateRequest> requests, boolean parallel) {
+        if (dirty) {
+            applyPendingUpdates();
+        }
+        if (searchStrategy == SearchStrategy.SINGLE_SOURCE) {
+            List<BestRateResponse> responses = new ArrayList<>(requests.size());
+            for (BestRateRequest request : requests) {
+                responses.add(getSingleSourceBestRate(request));
+            }
+            return responses;
+        }
+        return snapshot().getBestRates(new ArrayList<>(requests), parallel);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The cycles whose rates multiply to more than one, with their exact gain.
+     * Only the rates updated since the last call are checked again.
+     */
+    public List<ArbitrageCycle> findArbitrageCycles() {
+        synchronized (recomputeLock) {
+            return arbitrageDetector.findCycles(existingCurrencies, searchRates, rates, mathContext);
+        }
+    }
+
+    /**
+     * Removes the price rates whose time to live is over by now, then the
+     * currencies left without any price rate, together with their transfers
+     * to the same currency on other exchanges. Only if something expired are
+     * the best rates recomputed, right away even with lazy updates. Returns
+     * the number of rates removed.
+     */
+    public int expireRates(OffsetDateTime now) {
+        int expired = removeExpiredRates(now);
+        notifySubscribers();
+        return expired;
+    }
+
+    /* the wheel hands back every rate due by now, some of which were replaced since */
+    int removeExpiredRates(OffsetDateTime now) {
+        if (rateExpiry == null) {
+            return 0;
+        }
+        List<ExchangeRate> expired = new ArrayList<>();
+        for (ExchangeRate rate : rateExpiry.advance(now.toInstant().toEpochMilli())) {
+            Map<ExchangeCurrency, ExchangeRate> destRates = rates.get(rate.getSrcCurrency());
+            if (destRates != null && destRates.get(rate.getDestCurrency()) == rate) {
+                expired.add(rate);
+            }
+        }
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        Set<ExchangeCurrency> unquoted = new HashSet<>();
+        for (ExchangeRate rate : expired) {
+            destRatesToChange(rate.getSrcCurrency()).remove(rate.getDestCurrency());
+            if (searchRates != rates) {
+                searchRates.get(rate.getSrcCurrency()).remove(rate.getDestCurrency());
+            }
+            countPriceRate(rate, -1);
+            unquoted.add(rate.getSrcCurrency());
+            unquoted.add(rate.getDestCurrency());
+            logger.info("Expired {}", rate);
+        }
+        unquoted.removeIf(priceRateCounts::containsKey);
+
+        BestRateMatrix previous = matrixBeforeRecompute();
+        CurrencyIndex previousCurrencies = existingCurrencies;
+        if (!unquoted.isEmpty()) {
+            removeCurrencies(unquoted);
+        }
+        version++;
+        /* removed rates only end cycles, which the detector does not track, so it starts over */
+        arbitrageDetector = new ArbitrageDetector();
+        synchronized (recomputeLock) {
+            /* the recompute covers the pending updates too */
+            pendingUpdates = new ArrayList<>();
+            dirty = false;
+            if (searchStrategy == SearchStrategy.SINGLE_SOURCE) {
+                clearSingleSourceResults();
+            } else {
+                bestRateMatrix = computeBestRates();
+                recomputed(previous, previousCurrencies);
+            }
+        }
+        return expired.size();
+    }
+
+    /* counts the price rate for its currencies, forgetting those left at none */
+    private void countPriceRate(ExchangeRate rate, int change) {
+        if (!rate.getSrcCurrency().isSameCurrency(rate.getDestCurrency())) {
+            priceRateCounts.merge(rate.getSrcCurrency(), change, (count, c) -> count + c == 0 ? null : count + c);
+            priceRateCounts.merge(rate.getDestCurrency(), change, (count, c) -> count + c == 0 ? null : count + c);
+        }
+    }
+
+    /* hubs go with the last currency they join, and the currencies left are indexed anew */
+    private void removeCurrencies(Set<ExchangeCurrency> unquoted) {
+        Set<ExchangeCurrency> removed = new HashSet<>(unquoted);
+        for (ExchangeCurrency currency : unquoted) {
+            Map<ExchangeCurrency, ExchangeRate> transfers = rates.remove(currency);
+            if (transfers != null) {
+                for (ExchangeCurrency other : transfers.keySet()) {
+                    if (rates.containsKey(other)) {
+                        destRatesToChange(other).remove(currency);
+                    }
+                }
+            }
+            if (currencyHubs) {
+                searchRates.remove(currency);
+                ExchangeCurrency hub = ExchangeCurrency.hub(currency);
+                Map<ExchangeCurrency, ExchangeRate> hubRates = searchRates.get(hub);
+                if (hubRates != null) {
+                    hubRates.remove(currency);
+                    if (hubRates.isEmpty()) {
+                        searchRates.remove(hub);
+                        removed.add(hub);
                     }
                 }
             }
+            logger.info("Removed {} without any price rate", currency);
         }
+        CurrencyIndex remaining = new CurrencyIndex();
+        for (ExchangeCurrency currency : existingCurrencies) {
+            if (!removed.contains(currency)) {
+                remaining.add(currency);
+            }
+        }
+        existingCurrencies = remaining;
+    }
 
-        TempResult tempResult = new TempResult();
-        tempResult.setBestRates(bestRates);
-        tempResult.setNextCurrencies(nextCurrencies);
-        return tempResult;
+    /**
+     * Writes the rates and best rates to a snapshot file, which
+     * {@link #restoreSnapshot(Path)} can later answer queries from right away.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        if (dirty) {
+            applyPendingUpdates();
+        }
+        SnapshotFile.write(snapshot(), file);
     }
 
-    public BestRateResponse getBestRate(BestRateRequest request) {
-        ExchangeCurrency srcCurrency = request.getSrcCurrency();
-        ExchangeCurrency destCurrency = request.getDestCurrency();
-        List<ExchangeCurrency> steps = new ArrayList<>();
-        boolean circular = false;
-        if (tempResult.getNextCurrency(srcCurrency, destCurrency) != null) {
-            Set<ExchangeCurrency> differentSteps = new HashSet<>();
-            ExchangeCurrency next = srcCurrency;
-            steps.add(next);
-            differentSteps.add(next);
-            while ((next = tempResult.getNextCurrency(next, destCurrency)) != null) {
-                if (differentSteps.contains(next)) {
-                    circular = true;
+    /**
+     * Restores the rates of a snapshot file into a graph without any rates yet,
+     * taking over its best rates without a recompute when they were searched
+     * the same way. Best rates that were not, or are corrupt, are recomputed.
+     * Returns false, leaving the graph empty, if the file is corrupt or of
+     * another format version.
+     */
+    public boolean restoreSnapshot(Path file) throws IOException {
+        if (!rates.isEmpty()) {
+            throw new IllegalStateException("Snapshots must be restored before the first rate is added");
+        }
+        BestRateSnapshot restored = SnapshotFile.read(file, rateSpace);
+        if (restored == null) {
+            return false;
+        }
+        boolean hubsRestored = false;
+        for (ExchangeCurrency currency : restored.currencies) {
+            hubsRestored |= currency.isHub();
+        }
+        boolean installed = restored.matrix != null && hubsRestored == currencyHubs
+                && searchStrategy == SearchStrategy.ALL_PAIRS;
+        if (installed) {
+            existingCurrencies = restored.currencies;
+            rates = restored.rates;
+            searchRates = currencyHubs ? new HashMap<>() : rates;
+            for (Map<ExchangeCurrency, ExchangeRate> destRates : rates.values()) {
+                for (ExchangeRate rate : destRates.values()) {
+                    countPriceRate(rate, 1);
+                    if (currencyHubs && !rate.getSrcCurrency().isSameCurrency(rate.getDestCurrency())) {
+                        searchRates.computeIfAbsent(rate.getSrcCurrency(), currency -> new HashMap<>())
+                                .put(rate.getDestCurrency(), rate);
+                    }
                 }
-                steps.add(next);
-                if (circular) {
-                    break;
-                } else {
-                    differentSteps.add(next);
+            }
+            for (ExchangeCurrency currency : existingCurrencies) {
+                if (currencyHubs && !currency.isHub()) {
+                    ExchangeCurrency hub = ExchangeCurrency.hub(currency);
+                    searchRates.computeIfAbsent(currency, c -> new HashMap<>())
+                            .put(hub, new ExchangeRate(OffsetDateTime.now(), currency, hub, BigDecimal.ONE));
+                    searchRates.computeIfAbsent(hub, c -> new HashMap<>())
+                            .put(currency, new ExchangeRate(OffsetDateTime.now(), hub, currency, BigDecimal.ONE));
+                }
+            }
+            bestRateMatrix = restored.matrix;
+            logger.info("Restored {} currencies and their best rates from {}", existingCurrencies.size(), file);
+        } else {
+            logger.warn("Recomputing the best rates of {}", file);
+            List<ExchangeRate> priceRates = new ArrayList<>();
+            for (Map<ExchangeCurrency, ExchangeRate> destRates : restored.rates.values()) {
+                for (ExchangeRate rate : destRates.values()) {
+                    if (!rate.getSrcCurrency().isSameCurrency(rate.getDestCurrency())) {
+                        priceRates.add(rate);
+                    }
                 }
             }
+            addOrUpdateExchangeRate(priceRates.toArray(new ExchangeRate[0]));
         }
-        Number rate = circular ? Double.POSITIVE_INFINITY : tempResult.getBestRate(srcCurrency, destCurrency);
-        return new BestRateResponse(request, rate, new BestRatePath(steps), rates);
+        version = restored.version;
+        if (installed) {
+            if (rateExpiry != null) {
+                scheduleExpiries();
+            }
+            recomputed(null, existingCurrencies);
+        }
+        return true;
     }
 
-    private static class TempResult {
+    /**
+     * Hands the pairs whose best rate or next step changed to the listener
+     * after each recompute of all pairs. Best rates there were before the
+     * listener was added are not handed on, so a copy of the table starts out
+     * from querying them. The listener is called on the thread that
+     * recomputes, with any lock of the graph held, so it should hand the
+     * changes on rather than take long. Searching per source computes no
+     * best rate table, so there are no changes to hand on.
+     */
+    public void addChangeSetListener(Consumer<BestRateChangeSet> listener) {
+        changeSetListeners.add(listener);
+    }
 
-        private Map<ExchangeCurrency, Map<ExchangeCurrency, BigDecimal>> bestRates;
-        private Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeCurrency>> nextCurrencies;
+    public void removeChangeSetListener(Consumer<BestRateChangeSet> listener) {
+        changeSetListeners.remove(listener);
+    }
+
+    /**
+     * Pushes the changes of the best rate or path from the source to the
+     * destination of the request to the listener, on a pool of daemon threads
+     * of the graph. A change of rate alone is pushed once it differs from the
+     * rate last pushed by at least minRelativeChange of that rate, so 0 pushes
+     * every change. Only the subscribed pairs are looked at after an update,
+     * which also brings lazy best rates up to date.
+     */
+    public Subscription subscribe(BestRateRequest request, double minRelativeChange,
+                                  Consumer<BestRateChange> listener) {
+        return subscribe(request, minRelativeChange, listener, notifier());
+    }
+
+    /**
+     * Subscribes as {@link #subscribe(BestRateRequest, double, Consumer)} does,
+     * with the listener called on the given executor.
+     */
+    public Subscription subscribe(BestRateRequest request, double minRelativeChange,
+                                  Consumer<BestRateChange> listener, Executor executor) {
+        if (minRelativeChange < 0) {
+            throw new IllegalArgumentException("Minimum relative change must not be negative");
+        }
+        Subscription subscription = new Subscription(this, request, minRelativeChange, listener, executor,
+                getBestRate(request));
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
 
-        void setBestRates(Map<ExchangeCurrency, Map<ExchangeCurrency, BigDecimal>> bestRates) {
-            this.bestRates = bestRates;
+    /* once per version, checks the subscribed pairs only, most of which the walk finds unchanged */
+    void notifySubscribers() {
+        if (subscriptions.isEmpty() || notifiedVersion == version) {
+            return;
+        }
+        notifiedVersion = version;
+        BestRateSnapshot snapshot = querySnapshot();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.isOutdated(snapshot)) {
+                subscription.offer(snapshot != null ? snapshot.getBestRate(subscription.request)
+                        : getSingleSourceBestRate(subscription.request));
+            }
         }
+    }
 
-        void setNextCurrencies(Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeCurrency>> nextCurrencies) {
-            this.nextCurrencies = nextCurrencies;
+    private synchronized Executor notifier() {
+        if (notifier == null) {
+            notifier = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "subscription-notifier");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return notifier;
+    }
 
-        ExchangeCurrency getNextCurrency(ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency) {
-            return nextCurrencies.get(srcCurrency) == null ? null : nextCurrencies.get(srcCurrency).get(destCurrency);
+    /* the snapshot queries are answered from now, or null if they are searched per source */
+    BestRateSnapshot querySnapshot() {
+        if (dirty) {
+            applyPendingUpdates();
         }
+        return searchStrategy == SearchStrategy.SINGLE_SOURCE ? null : snapshot();
+    }
+
+    /* a view of the current best rates, which only stays valid until the next update */
+    BestRateSnapshot snapshot() {
+        return new BestRateSnapshot(version, existingCurrencies, bestRateMatrix, rates, mathContext);
+    }
+
+    /*
+     * A snapshot that later changes to the graph cannot affect. It shares the
+     * best rates and the rates from each source with the graph until the graph
+     * changes them, so publishing copies only what changed since the last one.
+     */
+    BestRateSnapshot publishSnapshot() {
+        CurrencyIndex currencies = published != null && publishedCurrencies == existingCurrencies
+                && published.currencies.size() == existingCurrencies.size()
+                ? published.currencies : existingCurrencies.copy();
+        Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> views = new HashMap<>();
+        for (Map.Entry<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> entry : rates.entrySet()) {
+            boolean shared = publishedRates != null && publishedRates.get(entry.getKey()) == entry.getValue();
+            views.put(entry.getKey(), shared ? published.rates.get(entry.getKey())
+                    : Collections.unmodifiableMap(entry.getValue()));
+        }
+        publishedCurrencies = existingCurrencies;
+        publishedRates = new HashMap<>(rates);
+        published = new BestRateSnapshot(version, currencies, bestRateMatrix, Collections.unmodifiableMap(views),
+                mathContext);
+        return published;
+    }
+
+    private BestRateResponse getSingleSourceBestRate(BestRateRequest request) {
+        /* those of the published snapshot if there is one, which no update changes under the response */
+        Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> quotedRates = snapshot().rates;
+        int srcIndex = existingCurrencies.indexOf(request.getSrcCurrency());
+        int destIndex = existingCurrencies.indexOf(request.getDestCurrency());
+        List<ExchangeCurrency> steps = new ArrayList<>();
+        Number rate = null;
+        if (srcIndex != NOT_FOUND && destIndex != NOT_FOUND) {
+            SingleSourceResult result = getSingleSourceResult(srcIndex);
+            if (result.cyclic) {
+                BestRateMatrix matrix = getCyclicFallbackMatrix();
+                return new BestRateSnapshot(version, existingCurrencies, matrix, quotedRates, mathContext).getBestRate(request);
+            }
+            rate = srcIndex == destIndex ? BigDecimal.ONE : null;
+            if (result.previousSteps[destIndex] != NO_CURRENCY) {
+                for (int step = destIndex; step != srcIndex; step = result.previousSteps[step]) {
+                    if (!existingCurrencies.get(step).isHub()) {
+                        steps.add(existingCurrencies.get(step));
+                    }
+                }
+                steps.add(existingCurrencies.get(srcIndex));
+                Collections.reverse(steps);
+                rate = BestRateSnapshot.multiplyRates(steps, quotedRates, mathContext);
+            }
+        }
+        return new BestRateResponse(request, rate, new BestRatePath(steps), quotedRates, version, rateSpace, mathContext);
+    }
+
+    /* searched once per source and update, concurrent queries for the same source share the search */
+    private SingleSourceResult getSingleSourceResult(int srcIndex) {
+        synchronized (recomputeLock) {
+            SingleSourceResult result = singleSourceResults.get(srcIndex);
+            if (result == null) {
+                if (edgeList == null) {
+                    edgeList = EdgeList.build(existingCurrencies, searchRates, rateSpace);
+                }
+                result = new SingleSourceResult(edgeList.size);
+                result.cyclic = !SingleSourceSearch.search(edgeList, srcIndex, result.bestRates, result.previousSteps);
+                singleSourceResults.put(srcIndex, result);
+            }
+            return result;
+        }
+    }
+
+    private BestRateMatrix getCyclicFallbackMatrix() {
+        synchronized (recomputeLock) {
+            if (bestRateMatrix == null) {
+                bestRateMatrix = computeBestRates();
+            }
+            return bestRateMatrix;
+        }
+    }
+
+    private static class SingleSourceResult {
+
+        private double[] bestRates;
+        private int[] previousSteps;
+        private boolean cyclic;
+
+        SingleSourceResult(int size) {
+            this.bestRates = new double[size];
+            this.previousSteps = new int[size];
+        }
+    }
+
+    private static class RateUpdate {
+
+        private ExchangeRate oldRate;
+        private ExchangeRate newRate;
 
-        BigDecimal getBestRate(ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency) {
-            return bestRates.get(srcCurrency) == null ? null : bestRates.get(srcCurrency).get(destCurrency);
+        RateUpdate(ExchangeRate oldRate, ExchangeRate newRate) {
+            this.oldRate = oldRate;
+            this.newRate = newRate;
         }
     }
 }
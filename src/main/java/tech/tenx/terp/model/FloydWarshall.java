@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Modified Floyd-Warshall algorithm over a {@link BestRateMatrix} that
+ * already holds the direct rates.
+ *
+ * The parallel variant splits every round k into tiles of rows and columns
+ * and relaxes them on a {@link ForkJoinPool}. Within round k neither row k nor
+ * column k changes unless currency k lies on a cycle, so the tiles are
+ * independent and every pair sees exactly the candidates, in the same order,
+ * as in the sequential variant. Rounds through a cycle run sequentially.
+ * Tiles are not carried across rounds as in the three-phase blocked algorithm,
+ * since that reorders relaxations and would break ties differently.
+ */
+final class FloydWarshall {
+
+    private FloydWarshall() {
+    }
+
+    static void run(BestRateMatrix matrix) {
+        for (int k = 0; k < matrix.size; k++) {
+            relax(matrix, k, 0, matrix.size, 0, matrix.size);
+        }
+    }
+
+    static void run(BestRateMatrix matrix, ForkJoinPool pool, int tileSize) {
+        int size = matrix.size;
+        List<ForkJoinTask<?>> tiles = new ArrayList<>();
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            for (int k = 0; k < size; k++) {
+                if (matrix.space.isBetter(matrix.getBestRate(k, k), matrix.space.identity)) {
+                    relax(matrix, k, 0, size, 0, size);
+                    continue;
+                }
+                tiles.clear();
+                for (int rowFrom = 0; rowFrom < size; rowFrom += tileSize) {
+                    for (int colFrom = 0; colFrom < size; colFrom += tileSize) {
+                        int round = k;
+                        int tileRowFrom = rowFrom;
+                        int tileColFrom = colFrom;
+                        tiles.add(ForkJoinTask.adapt(() -> relax(matrix, round,
+                                tileRowFrom, Math.min(tileRowFrom + tileSize, size),
+                                tileColFrom, Math.min(tileColFrom + tileSize, size))));
+                    }
+                }
+                ForkJoinTask.invokeAll(tiles);
+            }
+        }));
+    }
+
+    /* relaxes the pairs of the given rows and columns through currency k */
+    private static void relax(BestRateMatrix matrix, int k, int rowFrom, int rowTo, int colFrom, int colTo) {
+        RateSpace space = matrix.space;
+        int size = matrix.size;
+        double[] bestRates = matrix.bestRates;
+        int[] nextCurrencies = matrix.nextCurrencies;
+        int kRow = k * size;
+        for (int i = rowFrom; i < rowTo; i++) {
+            int iRow = i * size;
+            double ikRate = bestRates[iRow + k];
+            if (ikRate == space.none) {
+                continue;
+            }
+            for (int j = colFrom; j < colTo; j++) {
+                double kjRate = bestRates[kRow + j];
+                if (kjRate != space.none) {
+                    double ikjRate = space.combine(ikRate, kjRate);
+                    if (space.isBetter(ikjRate, bestRates[iRow + j])) {
+                        bestRates[iRow + j] = ikjRate;
+                        nextCurrencies[iRow + j] = nextCurrencies[iRow + k];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.math.BigDecimal;
+
+/**
+ * The arithmetic the best rate search is carried out in.
+ *
+ * Searching never needs exact values: once the best path is known its rate
+ * is recomputed from the original {@link BigDecimal} rates along the path.
+ */
+abstract class RateSpace {
+
+    /* rates multiplied as doubles, -1 marks a missing rate */
+    static final RateSpace PRODUCT = new RateSpace("product", 1d, -1d) {
+
+        @Override
+        double toWeight(BigDecimal rate) {
+            return rate.doubleValue();
+        }
+
+        @Override
+        double toRate(double weight) {
+            return weight;
+        }
+
+        @Override
+        double combine(double first, double second) {
+            return first * second;
+        }
+
+        @Override
+        boolean isBetter(double candidate, double current) {
+            return current < candidate;
+        }
+    };
+
+    /**
+     * Rates are searched as additive -log(rate) weights, which neither
+     * overflow nor underflow on long paths. A candidate only replaces the
+     * current weight when it is better by more than tieEpsilon, so paths
+     * whose rates differ by a relative amount of about tieEpsilon are treated
+     * as equal and the one found first is kept.
+     *
+     * A zero rate has an infinite weight and is never extended into a longer path.
+     */
+    static RateSpace logSpace(double tieEpsilon) {
+        if (tieEpsilon < 0 || Double.isNaN(tieEpsilon)) {
+            throw new IllegalArgumentException("Tie epsilon must not be negative: " + tieEpsilon);
+        }
+        return new RateSpace("log " + tieEpsilon, 0d, Double.POSITIVE_INFINITY) {
+
+            @Override
+            double toWeight(BigDecimal rate) {
+                return -Math.log(rate.doubleValue());
+            }
+
+            @Override
+            double toRate(double weight) {
+                return Math.exp(-weight);
+            }
+
+            @Override
+            double combine(double first, double second) {
+                return first + second;
+            }
+
+            @Override
+            boolean isBetter(double candidate, double current) {
+                return candidate < current - tieEpsilon;
+            }
+        };
+    }
+
+    /* the same for spaces that search alike, and kept in snapshot files */
+    final String name;
+
+    /* weight of the empty path from a currency to itself */
+    final double identity;
+
+    /* weight of a pair without any path */
+    final double none;
+
+    private RateSpace(String name, double identity, double none) {
+        this.name = name;
+        this.identity = identity;
+        this.none = none;
+    }
+
+    abstract double toWeight(BigDecimal rate);
+
+    abstract double toRate(double weight);
+
+    abstract double combine(double first, double second);
+
+    abstract boolean isBetter(double candidate, double current);
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps the most recently requested best rate responses of a graph, each
+ * with its formatted text and the version of the graph it was answered at,
+ * dropping the least recently requested beyond a capacity. Safe to share
+ * between threads.
+ *
+ * A response cached at the current version is returned as it is. After
+ * updates, it is checked against the current best rates the first time it
+ * is requested again: if the best path is the same and none of the rates
+ * along it changed, the response still holds and is kept, otherwise it is
+ * invalidated. So an update only costs the responses it actually changed.
+ */
+public class ResponseCache {
+
+    private final ExchangeRateGraph graph;
+    private final Function<BestRateResponse, String> formatter;
+    private final Map<BestRateRequest, Entry> entries;
+
+    /* guarded by entries */
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    @SuppressWarnings("serial")
+    public ResponseCache(ExchangeRateGraph graph, int capacity, Function<BestRateResponse, String> formatter) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.graph = graph;
+        this.formatter = formatter;
+        this.entries = new LinkedHashMap<BestRateRequest, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BestRateRequest, ResponseCache.Entry> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The formatted response to the request, from the cache if it still
+     * holds, otherwise answered by the graph and cached.
+     */
+    public String getFormatted(BestRateRequest request) {
+        String formatted = lookup(request);
+        if (formatted == null) {
+            BestRateResponse response = graph.getBestRate(request);
+            formatted = formatter.apply(response);
+            put(response, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * The formatted response to the request if a cached one still holds at
+     * the graph's current version, otherwise null.
+     */
+    public String lookup(BestRateRequest request) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(request);
+        }
+        BestRateSnapshot snapshot = entry == null ? null : graph.querySnapshot();
+        boolean current = snapshot != null && entry.version == snapshot.version
+                && entry.response.space == (snapshot.matrix == null ? null : snapshot.matrix.space)
+                && entry.response.mathContext.equals(snapshot.mathContext);
+        if (current) {
+            synchronized (entries) {
+                hits++;
+            }
+            return entry.formatted;
+        }
+        if (snapshot != null && snapshot.answersAlike(entry.response, entry.pathRates)) {
+            synchronized (entries) {
+                hits++;
+                entries.replace(request, entry, new Entry(entry, snapshot));
+            }
+            return entry.formatted;
+        }
+        synchronized (entries) {
+            misses++;
+            if (entry != null) {
+                invalidations++;
+                entries.remove(request, entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caches the response with its formatted text. Must be called before the
+     * graph is updated again, unless the graph is a
+     * {@link ConcurrentExchangeRateGraph}, whose responses never change.
+     */
+    public void put(BestRateResponse response, String formatted) {
+        Entry entry = new Entry(response, formatted);
+        synchronized (entries) {
+            Entry cached = entries.get(response.getRequest());
+            if (cached == null || cached.version <= entry.version) {
+                entries.put(response.getRequest(), entry);
+            }
+        }
+    }
+
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+
+    /**
+     * Number of cached responses found not to hold anymore after an update.
+     */
+    public long getInvalidations() {
+        synchronized (entries) {
+            return invalidations;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+
+        final BestRateResponse response;
+        final String formatted;
+        final long version;
+
+        /* the rates along the path, which the response's rates may no longer hold */
+        final ExchangeRate[] pathRates;
+
+        Entry(BestRateResponse response, String formatted) {
+            this.response = response;
+            this.formatted = formatted;
+            this.version = response.getVersion();
+            this.pathRates = BestRateSnapshot.pathRates(response);
+        }
+
+        /* the same response, found to still hold at the version of snapshot */
+        Entry(Entry entry, BestRateSnapshot snapshot) {
+            this.response = new BestRateResponse(entry.response.getRequest(), entry.response.getRate(),
+                    entry.response.getPath(), snapshot.rates, snapshot.version,
+                    snapshot.matrix.space, snapshot.mathContext);
+            this.formatted = entry.formatted;
+            this.version = snapshot.version;
+            this.pathRates = entry.pathRates;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+/**
+ * How {@link ExchangeRateGraph} finds best rates, with n currencies and E rates.
+ */
+public enum SearchStrategy {
+
+    /**
+     * Keeps the best rates between all pairs of currencies, computed with
+     * Floyd-Warshall in O(n³) and then updated incrementally in about O(n²)
+     * per price update. A query only walks its path. Suits graphs queried from
+     * many different sources, or queried more often than updated.
+     */
+    ALL_PAIRS,
+
+    /**
+     * Searches the best rates from the source of a query only, with SPFA in
+     * about O(E) and at worst O(n·E), and caches them per source until the next
+     * price update. Updates cost nothing and memory is O(n) per cached source.
+     * Suits feeds with many more updates than queries, or queries from a few
+     * sources only.
+     *
+     * A source that reaches a cycle better than the empty path is answered from
+     * all pairs best rates instead, so circular paths look the same either way.
+     */
+    SINGLE_SOURCE
+}
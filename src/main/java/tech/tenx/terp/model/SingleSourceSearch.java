@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.Arrays;
+
+import static tech.tenx.terp.model.BestRateMatrix.NO_CURRENCY;
+
+/**
+ * Best rates from one source currency to all others, found with Bellman-Ford
+ * over a FIFO queue of the currencies whose rate improved (SPFA).
+ */
+final class SingleSourceSearch {
+
+    private SingleSourceSearch() {
+    }
+
+    /**
+     * Fills bestRates and previous steps for srcIndex. Returns false if a cycle
+     * better than the empty path is reachable from srcIndex, in which case the
+     * arrays hold no meaningful result.
+     */
+    static boolean search(EdgeList edges, int srcIndex, double[] bestRates, int[] previousSteps) {
+        RateSpace space = edges.space;
+        int size = edges.size;
+        Arrays.fill(bestRates, 0, size, space.none);
+        Arrays.fill(previousSteps, 0, size, NO_CURRENCY);
+        bestRates[srcIndex] = space.identity;
+
+        int[] queue = new int[size];
+        boolean[] queued = new boolean[size];
+        int[] enqueueCounts = new int[size];
+        int head = 0;
+        int count = 1;
+        queue[0] = srcIndex;
+        queued[srcIndex] = true;
+
+        while (count > 0) {
+            int a = queue[head];
+            head = head + 1 == size ? 0 : head + 1;
+            count--;
+            queued[a] = false;
+            double aRate = bestRates[a];
+            for (int edge = edges.offsets[a]; edge < edges.offsets[a + 1]; edge++) {
+                int b = edges.targets[edge];
+                double candidate = space.combine(aRate, edges.weights[edge]);
+                if (space.isBetter(candidate, bestRates[b])) {
+                    if (b == srcIndex) {
+                        return false;
+                    }
+                    bestRates[b] = candidate;
+                    previousSteps[b] = a;
+                    if (!queued[b]) {
+                        if (++enqueueCounts[b] > size) {
+                            return false;
+                        }
+                        int tail = head + count;
+                        queue[tail >= size ? tail - size : tail] = b;
+                        count++;
+                        queued[b] = true;
+                    }
+                }
+            }
+        }
+        return !hasStepCycle(previousSteps, size);
+    }
+
+    /*
+     * Previous steps can only run in a circle around a cycle better than the
+     * empty path, which rounding may leave undetected when its rates multiply
+     * to about one, so the steps are checked before anyone walks them.
+     */
+    private static boolean hasStepCycle(int[] previousSteps, int size) {
+        final byte unvisited = 0;
+        final byte onWalk = 1;
+        final byte done = 2;
+        byte[] states = new byte[size];
+        for (int j = 0; j < size; j++) {
+            int x = j;
+            while (x != NO_CURRENCY && states[x] == unvisited) {
+                states[x] = onWalk;
+                x = previousSteps[x];
+            }
+            if (x != NO_CURRENCY && states[x] == onWalk) {
+                return true;
+            }
+            for (x = j; x != NO_CURRENCY && states[x] == onWalk; x = previousSteps[x]) {
+                states[x] = done;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turns the previous steps of a search into the first step taken from
+     * srcIndex towards every currency, which is what {@link BestRateMatrix} keeps.
+     */
+    static void firstSteps(int srcIndex, int[] previousSteps, int[] firstSteps, int size) {
+        final int unknown = -2;
+        Arrays.fill(firstSteps, 0, size, unknown);
+        firstSteps[srcIndex] = NO_CURRENCY;
+        int[] stack = new int[size];
+        for (int j = 0; j < size; j++) {
+            int depth = 0;
+            int x = j;
+            while (firstSteps[x] == unknown) {
+                int previous = previousSteps[x];
+                if (previous == NO_CURRENCY) {
+                    firstSteps[x] = NO_CURRENCY;
+                } else if (previous == srcIndex) {
+                    firstSteps[x] = x;
+                } else {
+                    stack[depth++] = x;
+                    x = previous;
+                }
+            }
+            int firstStep = firstSteps[x];
+            while (depth > 0) {
+                firstSteps[stack[--depth]] = firstStep;
+            }
+        }
+    }
+}
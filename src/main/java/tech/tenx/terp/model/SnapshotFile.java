@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a {@link BestRateSnapshot} to a file and maps it back into memory.
+ * The file has a header, a section of currencies and rates, and a section
+ * with the best rate matrix as it is held in memory, so restoring it is a
+ * bulk copy instead of a recompute:
+ * <pre>
+ * header     int magic, int format version, long graph version,
+ *            int rates length, int rates CRC-32, int matrix length, int matrix CRC-32
+ * rates      int currencies, then exchange and currency names,
+ *            int rates, then int src index, int dest index, long epoch second, int nano,
+ *            int offset seconds, int scale, unscaled value
+ * matrix     rate space name, int size, size² double best rates, size² int next currencies
+ * </pre>
+ * Names are written as a short length and UTF-8 bytes, unscaled values as a
+ * short length and two's complement bytes. The matrix section is empty when
+ * the snapshot had no matrix.
+ */
+class SnapshotFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotFile.class);
+
+    private static final int MAGIC = 0x54525053;
+
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_LENGTH = 4 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    /**
+     * Writes the snapshot next to the file first and then moves it in place,
+     * so that the file is never left half written.
+     */
+    static void write(BestRateSnapshot snapshot, Path file) throws IOException {
+        byte[] ratesSection = ratesSection(snapshot);
+        ByteBuffer matrixSection = matrixSection(snapshot.matrix);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(snapshot.version)
+                .putInt(ratesSection.length).putInt(crc(ByteBuffer.wrap(ratesSection)))
+                .putInt(matrixSection.remaining()).putInt(crc(matrixSection.duplicate()));
+        header.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer rates = ByteBuffer.wrap(ratesSection);
+            ByteBuffer[] buffers = {header, rates, matrixSection};
+            /* the matrix section is empty when there is no matrix */
+            while (header.hasRemaining() || rates.hasRemaining() || matrixSection.hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot in the file, or returns null if it is corrupt or of
+     * another format version. The matrix is left out if it is corrupt, or was
+     * searched in another rate space than the given one.
+     */
+    static BestRateSnapshot read(Path file, RateSpace space) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                logger.warn("Snapshot {} has no valid header", file);
+                return null;
+            }
+            /* the mapping stays valid after the channel is closed */
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.getInt() != MAGIC || mapped.getInt() != FORMAT_VERSION) {
+            logger.warn("Snapshot {} is not of format version {}", file, FORMAT_VERSION);
+            return null;
+        }
+        long version = mapped.getLong();
+        int ratesLength = mapped.getInt();
+        int ratesCrc = mapped.getInt();
+        int matrixLength = mapped.getInt();
+        int matrixCrc = mapped.getInt();
+        if (ratesLength < 0 || matrixLength < 0 || (long) HEADER_LENGTH + ratesLength + matrixLength != mapped.capacity()) {
+            logger.warn("Snapshot {} has sections of the wrong length", file);
+            return null;
+        }
+        ByteBuffer ratesSection = section(mapped, HEADER_LENGTH, ratesLength);
+        if (crc(ratesSection.duplicate()) != ratesCrc) {
+            logger.warn("Snapshot {} has corrupt rates", file);
+            return null;
+        }
+
+        CurrencyIndex currencies = new CurrencyIndex();
+        Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates = new HashMap<>();
+        try {
+            readRates(ratesSection, currencies, rates);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | java.time.DateTimeException e) {
+            logger.warn("Snapshot {} has rates that cannot be read", file, e);
+            return null;
+        }
+
+        BestRateMatrix matrix = null;
+        ByteBuffer matrixSection = section(mapped, HEADER_LENGTH + ratesLength, matrixLength);
+        if (matrixLength > 0 && crc(matrixSection.duplicate()) != matrixCrc) {
+            logger.warn("Snapshot {} has a corrupt best rate matrix", file);
+        } else if (matrixLength > 0) {
+            try {
+                matrix = readMatrix(matrixSection, space, currencies.size());
+                if (matrix == null) {
+                    logger.info("Snapshot {} was searched in another rate space than {}", file, space.name);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                logger.warn("Snapshot {} has a best rate matrix that cannot be read", file, e);
+            }
+        }
+        return new BestRateSnapshot(version, currencies, matrix, rates, null);
+    }
+
+    private static byte[] ratesSection(BestRateSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(snapshot.currencies.size());
+        for (ExchangeCurrency currency : snapshot.currencies) {
+            writeBytes(out, currency.getExchange().getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, currency.getCurrency().getBytes(StandardCharsets.UTF_8));
+        }
+        int count = 0;
+        for (Map<ExchangeCurrency, ExchangeRate> destRates : snapshot.rates.values()) {
+            count += destRates.size();
+        }
+        out.writeInt(count);
+        for (Map<ExchangeCurrency, ExchangeRate> destRates : snapshot.rates.values()) {
+            for (ExchangeRate rate : destRates.values()) {
+                OffsetDateTime timestamp = rate.getTimestamp();
+                out.writeInt(snapshot.currencies.indexOf(rate.getSrcCurrency()));
+                out.writeInt(snapshot.currencies.indexOf(rate.getDestCurrency()));
+                out.writeLong(timestamp.toEpochSecond());
+                out.writeInt(timestamp.getNano());
+                out.writeInt(timestamp.getOffset().getTotalSeconds());
+                out.writeInt(rate.getRate().scale());
+                writeBytes(out, rate.getRate().unscaledValue().toByteArray());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("More than " + Short.MAX_VALUE + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static ByteBuffer matrixSection(BestRateMatrix matrix) {
+        if (matrix == null) {
+            return ByteBuffer.allocate(0);
+        }
+        byte[] name = matrix.space.name.getBytes(StandardCharsets.UTF_8);
+        int cells = matrix.size * matrix.size;
+        ByteBuffer section = ByteBuffer.allocate(2 + name.length + 4 + cells * (Double.BYTES + Integer.BYTES));
+        section.putShort((short) name.length).put(name).putInt(matrix.size);
+        section.asDoubleBuffer().put(matrix.bestRates);
+        section.position(section.position() + cells * Double.BYTES);
+        section.asIntBuffer().put(matrix.nextCurrencies);
+        section.position(section.position() + cells * Integer.BYTES);
+        section.flip();
+        return section;
+    }
+
+    private static void readRates(ByteBuffer section, CurrencyIndex currencies,
+                                  Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> rates) {
+        int currencyCount = section.getInt();
+        for (int i = 0; i < currencyCount; i++) {
+            String exchange = new String(readBytes(section), StandardCharsets.UTF_8);
+            String currency = new String(readBytes(section), StandardCharsets.UTF_8);
+            currencies.add(new ExchangeCurrency(exchange, currency));
+        }
+        int rateCount = section.getInt();
+        for (int i = 0; i < rateCount; i++) {
+            ExchangeCurrency src = currencies.get(section.getInt());
+            ExchangeCurrency dest = currencies.get(section.getInt());
+            long epochSecond = section.getLong();
+            int nano = section.getInt();
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds(section.getInt());
+            OffsetDateTime timestamp = OffsetDateTime.of(LocalDateTime.ofEpochSecond(epochSecond, nano, offset), offset);
+            int scale = section.getInt();
+            BigDecimal rate = new BigDecimal(new BigInteger(readBytes(section)), scale);
+            rates.computeIfAbsent(src, currency -> new HashMap<>()).put(dest, new ExchangeRate(timestamp, src, dest, rate));
+        }
+        if (section.hasRemaining()) {
+            throw new IllegalArgumentException("Bytes after the last rate");
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer section) {
+        short length = section.getShort();
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        byte[] bytes = new byte[length];
+        section.get(bytes);
+        return bytes;
+    }
+
+    /* the matrix is copied out of the mapping in bulk, as updates change it in place */
+    private static BestRateMatrix readMatrix(ByteBuffer section, RateSpace space, int size) {
+        String name = new String(readBytes(section), StandardCharsets.UTF_8);
+        if (!name.equals(space.name)) {
+            return null;
+        }
+        if (section.getInt() != size || section.remaining() != (long) size * size * (Double.BYTES + Integer.BYTES)) {
+            throw new IllegalArgumentException("Best rate matrix of the wrong size");
+        }
+        double[] bestRates = new double[size * size];
+        int[] nextCurrencies = new int[size * size];
+        section.asDoubleBuffer().get(bestRates);
+        section.position(section.position() + bestRates.length * Double.BYTES);
+        section.asIntBuffer().get(nextCurrencies);
+        return new BestRateMatrix(space, size, bestRates, nextCurrencies);
+    }
+
+    private static ByteBuffer section(ByteBuffer file, int offset, int length) {
+        ByteBuffer section = file.duplicate();
+        section.position(offset).limit(offset + length);
+        return section.slice();
+    }
+
+    private static int crc(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A pair whose best rate or path changes are pushed to a listener, see
+ * {@link ExchangeRateGraph#subscribe(BestRateRequest, double, Consumer)}.
+ *
+ * Changes are handed to the listener on an executor, one at a time and in
+ * order. A change found while the listener is still busy replaces any other
+ * one waiting, so a slow listener skips to the latest change and never holds
+ * up updates of the graph.
+ */
+public class Subscription {
+
+    private static final Logger logger = LoggerFactory.getLogger(Subscription.class);
+
+    final BestRateRequest request;
+    private final double minRelativeChange;
+    private final Consumer<BestRateChange> listener;
+    private final Executor executor;
+    private final ExchangeRateGraph graph;
+
+    /* touched by the updating thread only */
+    private BestRateResponse lastSeen;
+    private ExchangeRate[] lastSeenRates;
+    private Number lastDelivered;
+    private BestRatePath lastDeliveredPath;
+
+    private final AtomicReference<BestRateChange> waiting = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean cancelled;
+
+    Subscription(ExchangeRateGraph graph, BestRateRequest request, double minRelativeChange,
+                 Consumer<BestRateChange> listener, Executor executor, BestRateResponse current) {
+        this.graph = graph;
+        this.request = request;
+        this.minRelativeChange = minRelativeChange;
+        this.listener = listener;
+        this.executor = executor;
+        see(current);
+        lastDelivered = current.getRate();
+        lastDeliveredPath = current.getPath();
+    }
+
+    public BestRateRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Stops the changes, apart from one being handed to the listener already.
+     */
+    public void cancel() {
+        cancelled = true;
+        graph.unsubscribe(this);
+    }
+
+    /* whether the response is worth a look, that is the snapshot does not answer as it last did */
+    boolean isOutdated(BestRateSnapshot snapshot) {
+        return snapshot == null || !snapshot.answersAlike(lastSeen, lastSeenRates);
+    }
+
+    /* passes the response on if its path changed, or its rate by at least the minimum relative change */
+    void offer(BestRateResponse response) {
+        see(response);
+        Number rate = response.getRate();
+        boolean changed = !response.getPath().getSteps().equals(lastDeliveredPath.getSteps());
+        if (!changed && rate instanceof BigDecimal && lastDelivered instanceof BigDecimal) {
+            BigDecimal previous = (BigDecimal) lastDelivered;
+            BigDecimal difference = ((BigDecimal) rate).subtract(previous).abs();
+            changed = difference.signum() != 0
+                    && difference.compareTo(previous.abs().multiply(BigDecimal.valueOf(minRelativeChange))) >= 0;
+        } else if (!changed) {
+            changed = rate == null ? lastDelivered != null : !rate.equals(lastDelivered);
+        }
+        if (changed) {
+            waiting.set(new BestRateChange(request, lastDelivered, rate, response.getPath(), response.getVersion()));
+            lastDelivered = rate;
+            lastDeliveredPath = response.getPath();
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::deliver);
+            }
+        }
+    }
+
+    private void see(BestRateResponse response) {
+        lastSeen = response;
+        lastSeenRates = BestRateSnapshot.pathRates(response);
+    }
+
+    private void deliver() {
+        BestRateChange change;
+        while ((change = waiting.getAndSet(null)) != null && !cancelled) {
+            try {
+                listener.accept(change);
+            } catch (RuntimeException e) {
+                logger.warn("Subscriber failed on {}", change, e);
+            }
+        }
+        scheduled.set(false);
+        /* a change may have come in after the last look and before the flag was cleared */
+        if (waiting.get() != null && !cancelled && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::deliver);
+        }
+    }
+}
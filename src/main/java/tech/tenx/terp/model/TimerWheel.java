@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, after Varghese and Lauck, holding items until
+ * a deadline in milliseconds. Level k has SLOTS slots of SLOTS^k ticks each,
+ * so scheduling is O(1), and an item moves down at most once per level on its
+ * way to expiry. Deadlines beyond the top level wait in an overflow list that
+ * is sorted out each time the top level turns.
+ *
+ * Items cannot be cancelled, their owner ignores those gone stale meanwhile.
+ */
+class TimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final List<List<Entry<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private List<Entry<T>> overflow = new ArrayList<>();
+    /* before the first advance there is no current tick to place items from */
+    private List<Entry<T>> unplaced = new ArrayList<>();
+    private boolean started;
+    private long currentTick;
+    private int size;
+
+    TimerWheel(long tickMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    void schedule(T item, long deadline) {
+        Entry<T> entry = new Entry<>(item, deadline);
+        if (started) {
+            place(entry);
+        } else {
+            unplaced.add(entry);
+        }
+        size++;
+    }
+
+    /* the lowest level whose slots share everything above them with the current tick */
+    private void place(Entry<T> entry) {
+        long tick = Math.max(Math.floorDiv(entry.deadline, tickMillis), currentTick);
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = SLOT_BITS * (level + 1);
+            if (tick >>> shift == currentTick >>> shift) {
+                slots.get(level * SLOTS + (int) (tick >>> (SLOT_BITS * level) & SLOT_MASK)).add(entry);
+                return;
+            }
+        }
+        overflow.add(entry);
+    }
+
+    /**
+     * Turns the wheel up to now and returns the items whose deadline is not
+     * after it, in no particular order. Time may stand still or go back.
+     */
+    List<T> advance(long now) {
+        List<T> expired = new ArrayList<>();
+        long nowTick = Math.floorDiv(now, tickMillis);
+        if (!started) {
+            started = true;
+            currentTick = nowTick;
+            List<Entry<T>> entries = unplaced;
+            unplaced = null;
+            entries.forEach(this::place);
+        }
+        if (nowTick - currentTick > size) {
+            /* a jump over more ticks than there are items is cheaper to sort out item by item */
+            List<Entry<T>> entries = drainAll();
+            currentTick = nowTick;
+            for (Entry<T> entry : entries) {
+                if (entry.deadline <= now) {
+                    expired.add(entry.item);
+                    size--;
+                } else {
+                    place(entry);
+                }
+            }
+            return expired;
+        }
+        for (long tick = currentTick, lastTick = Math.max(nowTick, currentTick); tick <= lastTick; tick++) {
+            currentTick = tick;
+            if ((tick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+                List<Entry<T>> entries = overflow;
+                overflow = new ArrayList<>();
+                entries.forEach(this::place);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level * SLOTS + (int) (tick >>> (SLOT_BITS * level) & SLOT_MASK));
+                }
+            }
+            /* only the slot of the current tick can hold deadlines after now */
+            List<Entry<T>> slot = slots.get((int) (tick & SLOT_MASK));
+            int kept = 0;
+            for (Entry<T> entry : slot) {
+                if (entry.deadline <= now) {
+                    expired.add(entry.item);
+                    size--;
+                } else {
+                    slot.set(kept++, entry);
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+        return expired;
+    }
+
+    private void cascade(int index) {
+        List<Entry<T>> slot = slots.get(index);
+        if (!slot.isEmpty()) {
+            slots.set(index, new ArrayList<>());
+            slot.forEach(this::place);
+        }
+    }
+
+    private List<Entry<T>> drainAll() {
+        List<Entry<T>> entries = new ArrayList<>(overflow);
+        overflow.clear();
+        for (List<Entry<T>> slot : slots) {
+            entries.addAll(slot);
+            slot.clear();
+        }
+        return entries;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static final class Entry<T> {
+
+        final T item;
+        final long deadline;
+
+        Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
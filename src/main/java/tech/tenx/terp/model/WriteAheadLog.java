@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of the price updates a graph accepted, kept in segment
+ * files of a directory so that they survive until the next snapshot.
+ * Appending only copies a record into memory. Committing writes all records
+ * appended so far and forces them to disk, and writers committing while
+ * another one forces wait for it and then go to disk together, so a single
+ * fsync covers the records of all of them.
+ *
+ * A record is an int payload length, the int CRC-32 of the payload, and a
+ * payload of long epoch second, int nano, int offset seconds, source and
+ * destination exchange and currency names, int scale and unscaled value.
+ * Names and unscaled values are written as a short length and their bytes.
+ * A torn record at the end of the last segment is cut off on opening, and
+ * one left by a failed commit is cut off before the next commit, so that
+ * the records committed after it are not lost behind it.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    private final Object appendLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private long appended;
+
+    /* held by the writer going to disk, and by compaction */
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private volatile long durable;
+    private long segmentNumber;
+    private FileChannel segment;
+    /* where the durable records of the segment end */
+    private long segmentEnd;
+    private long syncs;
+
+    /**
+     * Opens the log in directory, creating it if needed, and appends to its
+     * last segment. A segment is rolled over once it holds segmentSize bytes.
+     */
+    public WriteAheadLog(Path directory, long segmentSize) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            segmentNumber = segmentNumber(last);
+            segment = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = readSegment(last, new ArrayList<>());
+            if (end < segment.size()) {
+                logger.warn("Cutting off a torn record at {} of {}", end, last);
+                segment.truncate(end);
+                segment.force(true);
+            }
+            segment.position(end);
+            segmentEnd = end;
+        }
+    }
+
+    /**
+     * Adds the rate to the records of the next commit, and returns the
+     * sequence number to commit to make it durable.
+     */
+    public long append(ExchangeRate rate) {
+        synchronized (appendLock) {
+            pending = encode(rate, pending);
+            return ++appended;
+        }
+    }
+
+    /**
+     * Returns once the record of the given sequence number and all before it
+     * are on disk.
+     */
+    public void commit(long sequence) throws IOException {
+        if (durable >= sequence) {
+            return;
+        }
+        ioLock.lock();
+        try {
+            if (durable >= sequence) {
+                return; // went to disk with the records of the writer before
+            }
+            ByteBuffer batch;
+            long batchEnd;
+            synchronized (appendLock) {
+                batch = pending;
+                pending = spare;
+                batchEnd = appended;
+            }
+            batch.flip();
+            try {
+                while (batch.hasRemaining()) {
+                    segment.write(batch);
+                }
+                segment.force(false);
+            } catch (IOException e) {
+                logger.error("Lost {} records that could not be written to {}", batchEnd - durable, directory, e);
+                spare = ByteBuffer.allocate(batch.capacity());
+                cutOffFailedWrite();
+                throw e;
+            }
+            syncs++;
+            durable = batchEnd;
+            segmentEnd = segment.position();
+            batch.clear();
+            spare = batch;
+            if (segment.position() >= segmentSize) {
+                segment.close();
+                openSegment(segmentNumber + 1);
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the rates of all segments, which the graph the log belongs to
+     * would have accepted, oldest segment first.
+     */
+    public List<ExchangeRate> readAll() throws IOException {
+        ioLock.lock();
+        try {
+            List<ExchangeRate> rates = new ArrayList<>();
+            for (Path file : segments()) {
+                readSegment(file, rates);
+            }
+            return rates;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites all segments but the one appended to into a single segment,
+     * keeping only the newest rate from each currency to each other, which
+     * is the one a graph replaying them would end up with.
+     */
+    public void compact() throws IOException {
+        ioLock.lock();
+        try {
+            if (segment.position() > 0) {
+                segment.close();
+                openSegment(segmentNumber + 1);
+            }
+            List<Path> closed = segments();
+            closed.remove(closed.size() - 1);
+            if (closed.isEmpty()) {
+                return;
+            }
+
+            Map<ExchangeCurrency, Map<ExchangeCurrency, ExchangeRate>> newestRates = new HashMap<>();
+            int count = 0;
+            for (Path file : closed) {
+                List<ExchangeRate> rates = new ArrayList<>();
+                readSegment(file, rates);
+                count += rates.size();
+                for (ExchangeRate rate : rates) {
+                    Map<ExchangeCurrency, ExchangeRate> destRates =
+                            newestRates.computeIfAbsent(rate.getSrcCurrency(), currency -> new HashMap<>());
+                    ExchangeRate newest = destRates.get(rate.getDestCurrency());
+                    if (newest == null || newest.isOlderThan(rate)) {
+                        destRates.put(rate.getDestCurrency(), rate);
+                    }
+                }
+            }
+
+            Path last = closed.get(closed.size() - 1);
+            Path compacted = last.resolveSibling(last.getFileName() + ".compact");
+            ByteBuffer records = ByteBuffer.allocate(1 << 16);
+            int kept = 0;
+            for (Map<ExchangeCurrency, ExchangeRate> destRates : newestRates.values()) {
+                for (ExchangeRate rate : destRates.values()) {
+                    records = encode(rate, records);
+                    kept++;
+                }
+            }
+            records.flip();
+            try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (records.hasRemaining()) {
+                    channel.write(records);
+                }
+                channel.force(true);
+            }
+            /* replaying a segment twice changes nothing, so a crash before the deletes is harmless */
+            Files.move(compacted, last, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Path file : closed.subList(0, closed.size() - 1)) {
+                Files.delete(file);
+            }
+            logger.info("Compacted {} rates in {} segments into {} rates", count, closed.size(), kept);
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /* number of times records were forced to disk */
+    long getSyncs() {
+        ioLock.lock();
+        try {
+            return syncs;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    int getSegmentCount() throws IOException {
+        return segments().size();
+    }
+
+    /**
+     * Commits whatever was appended and closes the segment appended to.
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (appendLock) {
+            last = appended;
+        }
+        commit(last);
+        ioLock.lock();
+        try {
+            segment.close();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = FileChannel.open(directory.resolve(String.format("%016d%s", number, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentEnd = segment.size();
+        segment.position(segmentEnd);
+    }
+
+    /*
+     * cuts off what a failed write left after the durable records, or if that
+     * fails too, goes on in a new segment, whose records replay reaches as it
+     * stops reading a segment at the first torn record
+     */
+    private void cutOffFailedWrite() {
+        try {
+            segment.truncate(segmentEnd);
+            segment.position(segmentEnd);
+            return;
+        } catch (IOException e) {
+            logger.error("Could not cut off a failed write at {} of segment {}", segmentEnd, segmentNumber, e);
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            logger.warn("Could not close segment {}", segmentNumber, e);
+        }
+        try {
+            openSegment(segmentNumber + 1);
+        } catch (IOException e) {
+            /* the closed segment fails the next commit, which tries again */
+            logger.error("Could not open segment {}", segmentNumber, e);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /* adds the rates of the intact records to rates, and returns where they end */
+    private static long readSegment(Path file, List<ExchangeRate> rates) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (bytes.remaining() >= RECORD_HEADER_LENGTH) {
+            int start = bytes.position();
+            int length = bytes.getInt();
+            int crc = bytes.getInt();
+            if (length < 0 || length > bytes.remaining()) {
+                bytes.position(start);
+                break;
+            }
+            ByteBuffer payload = bytes.slice();
+            payload.limit(length);
+            if (crc(payload.duplicate()) != crc) {
+                bytes.position(start);
+                break;
+            }
+            try {
+                rates.add(decode(payload));
+            } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+                bytes.position(start);
+                break;
+            }
+            bytes.position(start + RECORD_HEADER_LENGTH + length);
+        }
+        return bytes.position();
+    }
+
+    private static ByteBuffer encode(ExchangeRate rate, ByteBuffer records) {
+        byte[] srcExchange = rate.getSrcCurrency().getExchange().getBytes(StandardCharsets.UTF_8);
+        byte[] srcCurrency = rate.getSrcCurrency().getCurrency().getBytes(StandardCharsets.UTF_8);
+        byte[] destExchange = rate.getDestCurrency().getExchange().getBytes(StandardCharsets.UTF_8);
+        byte[] destCurrency = rate.getDestCurrency().getCurrency().getBytes(StandardCharsets.UTF_8);
+        byte[] unscaled = rate.getRate().unscaledValue().toByteArray();
+        if (Math.max(Math.max(srcExchange.length, srcCurrency.length), Math.max(destExchange.length,
+                Math.max(destCurrency.length, unscaled.length))) > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("More than " + Short.MAX_VALUE + " bytes in " + rate);
+        }
+        int length = 8 + 4 + 4 + 2 * 5 + srcExchange.length + srcCurrency.length
+                + destExchange.length + destCurrency.length + 4 + unscaled.length;
+        if (records.remaining() < RECORD_HEADER_LENGTH + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * records.capacity(),
+                    records.position() + RECORD_HEADER_LENGTH + length));
+            records.flip();
+            records = larger.put(records);
+        }
+
+        OffsetDateTime timestamp = rate.getTimestamp();
+        int start = records.position();
+        records.putInt(length).putInt(0)
+                .putLong(timestamp.toEpochSecond())
+                .putInt(timestamp.getNano())
+                .putInt(timestamp.getOffset().getTotalSeconds());
+        putBytes(records, srcExchange);
+        putBytes(records, srcCurrency);
+        putBytes(records, destExchange);
+        putBytes(records, destCurrency);
+        records.putInt(rate.getRate().scale());
+        putBytes(records, unscaled);
+
+        ByteBuffer payload = records.duplicate();
+        payload.position(start + RECORD_HEADER_LENGTH).limit(records.position());
+        records.putInt(start + 4, crc(payload));
+        return records;
+    }
+
+    private static ExchangeRate decode(ByteBuffer payload) {
+        long epochSecond = payload.getLong();
+        int nano = payload.getInt();
+        ZoneOffset offset = ZoneOffset.ofTotalSeconds(payload.getInt());
+        OffsetDateTime timestamp = OffsetDateTime.of(LocalDateTime.ofEpochSecond(epochSecond, nano, offset), offset);
+        ExchangeCurrency src = new ExchangeCurrency(getString(payload), getString(payload));
+        ExchangeCurrency dest = new ExchangeCurrency(getString(payload), getString(payload));
+        int scale = payload.getInt();
+        return new ExchangeRate(timestamp, src, dest, new BigDecimal(new BigInteger(getBytes(payload)), scale));
+    }
+
+    private static void putBytes(ByteBuffer records, byte[] bytes) {
+        records.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort()];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer payload) {
+        return new String(getBytes(payload), StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.CurrencyRegistry;
+import tech.tenx.terp.model.ExchangeCurrency;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.util.InputScanner.InputType;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Reads the binary records of {@link BinaryFormat} from buffers that may
+ * end in the middle of a record, in which case nothing of that record is
+ * consumed and null is returned until more of it is read. Like
+ * {@link InputScanner}, input is first classified by {@link #next(ByteBuffer)}
+ * and then parsed into objects only if needed. Only the currencies of price
+ * updates are interned into the registry, those of requests and responses
+ * are looked up. Not thread safe.
+ */
+public class BinaryDecoder {
+
+    private final CurrencyRegistry registry = CurrencyRegistry.global();
+
+    /* by id in the stream, the names defined and the canonical instances once they are registered */
+    private String[] exchangeNames = new String[64];
+    private String[] currencyNames = new String[64];
+    private ExchangeCurrency[] currencies = new ExchangeCurrency[64];
+    private boolean headerRead;
+
+    private long epochSecond;
+    private int nano;
+    private int offsetSeconds;
+    private ExchangeCurrency srcCurrency;
+    private ExchangeCurrency destCurrency;
+    private BigDecimal forwardFactor;
+    private BigDecimal backwardFactor;
+
+    /**
+     * Whether the buffer, from its position, starts like a binary stream.
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == BinaryFormat.HEADER[0];
+    }
+
+    /**
+     * Reads the next input record, or returns null if the buffer has no
+     * complete one. Price updates are told valid or not like by the text
+     * parsers.
+     */
+    public InputType next(ByteBuffer buffer) {
+        while (true) {
+            int start = buffer.position();
+            try {
+                if (!headerRead) {
+                    readHeader(buffer);
+                    continue;
+                }
+                byte type = buffer.get();
+                switch (type) {
+                    case BinaryFormat.CURRENCY:
+                        readCurrency(buffer);
+                        continue;
+                    case BinaryFormat.PRICE_UPDATE:
+                        epochSecond = buffer.getLong();
+                        nano = buffer.getInt();
+                        offsetSeconds = buffer.getInt();
+                        srcCurrency = currency(buffer.getInt(), true);
+                        destCurrency = currency(buffer.getInt(), true);
+                        forwardFactor = readDecimal(buffer);
+                        backwardFactor = readDecimal(buffer);
+                        return forwardFactor.multiply(backwardFactor).compareTo(BigDecimal.ONE) <= 0
+                                ? InputType.PRICE_UPDATE : InputType.INVALID_PRICE_UPDATE;
+                    case BinaryFormat.EXCHANGE_RATE_REQUEST:
+                        srcCurrency = currency(buffer.getInt(), false);
+                        destCurrency = currency(buffer.getInt(), false);
+                        return InputType.EXCHANGE_RATE_REQUEST;
+                    case BinaryFormat.ARBITRAGE_REQUEST:
+                        return InputType.ARBITRAGE_REQUEST;
+                    case BinaryFormat.EXIT:
+                        return InputType.EXIT;
+                    default:
+                        throw new IllegalArgumentException("Not an input record: " + type);
+                }
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Fills the forward and backward rates of the price update last read
+     * into the given array, which needs a length of at least two.
+     */
+    public ExchangeRate[] parsePriceUpdate(ExchangeRate[] exchangeRates) {
+        ZoneOffset offset = ZoneOffset.ofTotalSeconds(offsetSeconds);
+        OffsetDateTime timestamp = OffsetDateTime.of(LocalDateTime.ofEpochSecond(epochSecond, nano, offset), offset);
+        exchangeRates[0] = new ExchangeRate(timestamp, srcCurrency, destCurrency, forwardFactor);
+        exchangeRates[1] = new ExchangeRate(timestamp, destCurrency, srcCurrency, backwardFactor);
+        return exchangeRates;
+    }
+
+    /**
+     * Returns the exchange rate request last read.
+     */
+    public BestRateRequest parseExchangeRateRequest() {
+        return new BestRateRequest(srcCurrency, destCurrency);
+    }
+
+    /**
+     * Reads the next response record as the text the console prints for it,
+     * or returns null if the buffer has no complete one.
+     */
+    public String nextResponse(ByteBuffer buffer) {
+        while (true) {
+            int start = buffer.position();
+            try {
+                if (!headerRead) {
+                    readHeader(buffer);
+                    continue;
+                }
+                byte type = buffer.get();
+                switch (type) {
+                    case BinaryFormat.CURRENCY:
+                        readCurrency(buffer);
+                        continue;
+                    case BinaryFormat.PRICE_UPDATE_RECEIVED:
+                        return OutputFormatter.PRICE_UPDATE_RECEIVED;
+                    case BinaryFormat.PRICE_UPDATE_DISCARDED:
+                        return OutputFormatter.PRICE_UPDATE_DISCARDED;
+                    case BinaryFormat.INPUT_NOT_RECOGNIZED:
+                        return OutputFormatter.INPUT_NOT_RECOGNIZED;
+                    case BinaryFormat.BYE:
+                        return OutputFormatter.BYE;
+                    case BinaryFormat.BEST_RATES:
+                        return readBestRates(buffer);
+                    case BinaryFormat.ARBITRAGE:
+                        return readArbitrage(buffer);
+                    default:
+                        throw new IllegalArgumentException("Not a response record: " + type);
+                }
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                return null;
+            }
+        }
+    }
+
+    private String readBestRates(ByteBuffer buffer) {
+        StringBuilder sb = new StringBuilder();
+        ExchangeCurrency src = currency(buffer.getInt(), false);
+        ExchangeCurrency dest = currency(buffer.getInt(), false);
+        OutputFormatter.beginBestRates(sb, src, dest, readNumber(buffer));
+        boolean circular = buffer.get() != 0;
+        readSteps(buffer, sb);
+        OutputFormatter.endBestRates(sb, circular, dest);
+        return sb.toString();
+    }
+
+    private String readArbitrage(ByteBuffer buffer) {
+        StringBuilder sb = new StringBuilder();
+        int cycles = buffer.getInt();
+        OutputFormatter.beginArbitrage(sb, cycles);
+        for (int c = 0; c < cycles; c++) {
+            BigDecimal gain = readDecimal(buffer);
+            int steps = buffer.getInt();
+            OutputFormatter.beginCycle(sb, gain, currency(buffer.getInt(), false));
+            for (int i = 1; i < steps; i++) {
+                ExchangeCurrency step = currency(buffer.getInt(), false);
+                OutputFormatter.appendStep(sb, step, readDecimal(buffer));
+            }
+        }
+        OutputFormatter.endArbitrage(sb);
+        return sb.toString();
+    }
+
+    private void readSteps(ByteBuffer buffer, StringBuilder sb) {
+        int steps = buffer.getInt();
+        for (int i = 0; i < steps; i++) {
+            ExchangeCurrency step = currency(buffer.getInt(), false);
+            OutputFormatter.appendStep(sb, step, i == 0 ? null : readDecimal(buffer));
+        }
+    }
+
+    private void readHeader(ByteBuffer buffer) {
+        for (byte expected : BinaryFormat.HEADER) {
+            if (buffer.get() != expected) {
+                throw new IllegalArgumentException("Not a binary stream of a known version");
+            }
+        }
+        headerRead = true;
+    }
+
+    private void readCurrency(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        String exchange = readName(buffer);
+        String currency = readName(buffer);
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative currency id: " + id);
+        }
+        if (id >= currencies.length) {
+            int length = Math.max(id + 1, currencies.length * 2);
+            exchangeNames = Arrays.copyOf(exchangeNames, length);
+            currencyNames = Arrays.copyOf(currencyNames, length);
+            currencies = Arrays.copyOf(currencies, length);
+        }
+        exchangeNames[id] = exchange;
+        currencyNames[id] = currency;
+        currencies[id] = null;
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.get() & 0xFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* the currency of the id, interned into the registry or else only looked up in it */
+    private ExchangeCurrency currency(int id, boolean intern) {
+        if (id < 0 || id >= currencies.length || exchangeNames[id] == null) {
+            throw new IllegalArgumentException("Currency not defined: " + id);
+        }
+        ExchangeCurrency currency = currencies[id];
+        if (currency == null) {
+            String exchange = exchangeNames[id];
+            String name = currencyNames[id];
+            currency = intern ? registry.intern(exchange, name) : registry.find(exchange, name);
+            if (intern || registry.idOf(currency) >= 0) {
+                currencies[id] = currency;
+            }
+        }
+        return currency;
+    }
+
+    private static Number readNumber(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case BinaryFormat.NULL_NUMBER:
+                return null;
+            case BinaryFormat.DECIMAL_NUMBER:
+                return readDecimal(buffer);
+            case BinaryFormat.DOUBLE_NUMBER:
+                return buffer.getDouble();
+            default:
+                throw new IllegalArgumentException("Not a number: " + tag);
+        }
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer buffer) {
+        int zigzag = readVarint(buffer);
+        int scale = zigzag >>> 1 ^ -(zigzag & 1);
+        int length = readVarint(buffer);
+        if (length <= 0 || length > BinaryFormat.MAX_DECIMAL_LENGTH) {
+            throw new IllegalArgumentException("Decimal of " + Integer.toUnsignedString(length) + " bytes");
+        }
+        if (length > Long.BYTES) {
+            if (length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new BigDecimal(new BigInteger(bytes), scale);
+        }
+        /* the first byte carries the sign */
+        long unscaled = buffer.get();
+        for (int i = 1; i < length; i++) {
+            unscaled = unscaled << 8 | (buffer.get() & 0xFF);
+        }
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint of more than five bytes");
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import tech.tenx.terp.model.ArbitrageCycle;
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.BestRateResponse;
+import tech.tenx.terp.model.CurrencyRegistry;
+import tech.tenx.terp.model.ExchangeCurrency;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.util.InputScanner.InputType;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes input and responses as the binary records of {@link BinaryFormat}.
+ * Every currency is defined in the stream the first time it is written.
+ * Currencies are looked up in the registry, not interned, so those that are
+ * only asked for do not grow it.
+ * Records are buffered until {@link #flush()}. Not thread safe.
+ */
+public class BinaryEncoder implements Flushable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final CurrencyRegistry registry = CurrencyRegistry.global();
+    private final OutputStream out;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /* by registry id, the id of the currency in the stream plus one, or 0 if not defined yet */
+    private int[] streamIds = new int[64];
+    /* the ids in the stream of currencies outside the registry, only named in requests */
+    private final Map<ExchangeCurrency, Integer> unregisteredIds = new HashMap<>();
+    private int nextStreamId;
+
+    public BinaryEncoder(OutputStream out) {
+        this.out = out;
+        buffer.put(BinaryFormat.HEADER);
+    }
+
+    /**
+     * Writes the forward and backward rates of a price update, which are
+     * expected to have the same timestamp, like those of the input parsers.
+     */
+    public void encodePriceUpdate(ExchangeRate forwardRate, ExchangeRate backwardRate) throws IOException {
+        int srcId = define(forwardRate.getSrcCurrency());
+        int destId = define(forwardRate.getDestCurrency());
+        OffsetDateTime timestamp = forwardRate.getTimestamp();
+        ensure(1 + 8 + 4 + 4 + 4 + 4);
+        buffer.put(BinaryFormat.PRICE_UPDATE)
+                .putLong(timestamp.toEpochSecond())
+                .putInt(timestamp.getNano())
+                .putInt(timestamp.getOffset().getTotalSeconds())
+                .putInt(srcId)
+                .putInt(destId);
+        putDecimal(forwardRate.getRate());
+        putDecimal(backwardRate.getRate());
+    }
+
+    public void encodeExchangeRateRequest(BestRateRequest request) throws IOException {
+        int srcId = define(request.getSrcCurrency());
+        int destId = define(request.getDestCurrency());
+        ensure(1 + 4 + 4);
+        buffer.put(BinaryFormat.EXCHANGE_RATE_REQUEST).putInt(srcId).putInt(destId);
+    }
+
+    public void encodeArbitrageRequest() throws IOException {
+        ensure(1);
+        buffer.put(BinaryFormat.ARBITRAGE_REQUEST);
+    }
+
+    public void encodeExit() throws IOException {
+        ensure(1);
+        buffer.put(BinaryFormat.EXIT);
+    }
+
+    /**
+     * Writes the reply to input that is answered without a response object:
+     * received for a price update, discarded for an invalid one, bye for exit
+     * and not recognized for anything else.
+     */
+    public void encodeReply(InputType inputType) throws IOException {
+        ensure(1);
+        switch (inputType) {
+            case PRICE_UPDATE:
+                buffer.put(BinaryFormat.PRICE_UPDATE_RECEIVED);
+                break;
+            case INVALID_PRICE_UPDATE:
+                buffer.put(BinaryFormat.PRICE_UPDATE_DISCARDED);
+                break;
+            case EXIT:
+                buffer.put(BinaryFormat.BYE);
+                break;
+            default:
+                buffer.put(BinaryFormat.INPUT_NOT_RECOGNIZED);
+        }
+    }
+
+    public void encode(BestRateResponse response) throws IOException {
+        List<ExchangeCurrency> steps = response.getPath().getSteps();
+        int[] stepIds = new int[steps.size()];
+        for (int i = 0; i < stepIds.length; i++) {
+            stepIds[i] = define(steps.get(i));
+        }
+        int srcId = define(response.getRequest().getSrcCurrency());
+        int destId = define(response.getRequest().getDestCurrency());
+        ensure(1 + 4 + 4);
+        buffer.put(BinaryFormat.BEST_RATES).putInt(srcId).putInt(destId);
+        putNumber(response.getRate());
+        ensure(1 + 4);
+        buffer.put((byte) (response.getPath().isCircular() ? 1 : 0)).putInt(stepIds.length);
+        for (int i = 0; i < stepIds.length; i++) {
+            ensure(4);
+            buffer.putInt(stepIds[i]);
+            if (i > 0) {
+                putDecimal(response.getOriginalRates().get(steps.get(i - 1)).get(steps.get(i)).getRate());
+            }
+        }
+    }
+
+    public void encode(List<ArbitrageCycle> cycles) throws IOException {
+        int[][] stepIds = new int[cycles.size()][];
+        for (int c = 0; c < stepIds.length; c++) {
+            List<ExchangeCurrency> steps = cycles.get(c).getSteps();
+            stepIds[c] = new int[steps.size()];
+            for (int i = 0; i < steps.size(); i++) {
+                stepIds[c][i] = define(steps.get(i));
+            }
+        }
+        ensure(1 + 4);
+        buffer.put(BinaryFormat.ARBITRAGE).putInt(cycles.size());
+        for (int c = 0; c < stepIds.length; c++) {
+            ArbitrageCycle cycle = cycles.get(c);
+            putDecimal(cycle.getGain());
+            ensure(4);
+            buffer.putInt(stepIds[c].length);
+            for (int i = 0; i < stepIds[c].length; i++) {
+                ensure(4);
+                buffer.putInt(stepIds[c][i]);
+                if (i > 0) {
+                    putDecimal(cycle.getRates().get(i - 1).getRate());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+        out.flush();
+    }
+
+    /* returns the id of the currency in the stream, defining it first if needed */
+    private int define(ExchangeCurrency currency) throws IOException {
+        int registryId = registry.idOf(currency);
+        if (registryId < 0) {
+            Integer id = unregisteredIds.get(currency);
+            if (id == null) {
+                id = putCurrency(currency);
+                unregisteredIds.put(currency, id);
+            }
+            return id;
+        }
+        if (registryId >= streamIds.length) {
+            streamIds = Arrays.copyOf(streamIds, Math.max(registryId + 1, streamIds.length * 2));
+        }
+        if (streamIds[registryId] == 0) {
+            streamIds[registryId] = putCurrency(currency) + 1;
+        }
+        return streamIds[registryId] - 1;
+    }
+
+    private int putCurrency(ExchangeCurrency currency) throws IOException {
+        byte[] exchange = name(currency.getExchange());
+        byte[] name = name(currency.getCurrency());
+        int id = nextStreamId++;
+        ensure(1 + 4 + 1 + exchange.length + 1 + name.length);
+        buffer.put(BinaryFormat.CURRENCY).putInt(id)
+                .put((byte) exchange.length).put(exchange)
+                .put((byte) name.length).put(name);
+        return id;
+    }
+
+    private static byte[] name(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException("Name longer than 255 bytes: " + name);
+        }
+        return bytes;
+    }
+
+    private void putNumber(Number number) throws IOException {
+        ensure(1 + 8);
+        if (number == null) {
+            buffer.put(BinaryFormat.NULL_NUMBER);
+        } else if (number instanceof BigDecimal) {
+            buffer.put(BinaryFormat.DECIMAL_NUMBER);
+            putDecimal((BigDecimal) number);
+        } else {
+            buffer.put(BinaryFormat.DOUBLE_NUMBER).putDouble(number.doubleValue());
+        }
+    }
+
+    private void putDecimal(BigDecimal decimal) throws IOException {
+        int scale = decimal.scale();
+        BigInteger unscaled = decimal.unscaledValue();
+        if (unscaled.bitLength() < Long.SIZE) {
+            long value = unscaled.longValue();
+            /* the bytes holding the bits of the value and its sign */
+            int length = (Long.SIZE - Long.numberOfLeadingZeros(value ^ (value >> 63))) / 8 + 1;
+            ensure(5 + 1 + length);
+            putVarint(scale << 1 ^ scale >> 31);
+            buffer.put((byte) length);
+            for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+                buffer.put((byte) (value >> shift));
+            }
+        } else {
+            byte[] bytes = unscaled.toByteArray();
+            if (bytes.length > BinaryFormat.MAX_DECIMAL_LENGTH) {
+                throw new IllegalArgumentException("Unscaled value of more than "
+                        + BinaryFormat.MAX_DECIMAL_LENGTH + " bytes: " + decimal);
+            }
+            ensure(5 + 5);
+            putVarint(scale << 1 ^ scale >> 31);
+            putVarint(bytes.length);
+            if (bytes.length > buffer.remaining()) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+                out.write(bytes);
+            } else {
+                buffer.put(bytes);
+            }
+        }
+    }
+
+    /* an unsigned varint, of at most five bytes */
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
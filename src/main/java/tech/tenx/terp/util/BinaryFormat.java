@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+/**
+ * Layout of the binary records read by {@link BinaryDecoder} and written by
+ * {@link BinaryEncoder}. A stream starts with {@link #HEADER} and then has
+ * records of a type byte and fields in big endian byte order:
+ * <pre>
+ * CURRENCY                 int id, byte length, exchange, byte length, currency (UTF-8)
+ * PRICE_UPDATE             long epoch second, int nano, int offset seconds, int src id, int dest id,
+ *                          decimal forward factor, decimal backward factor
+ * EXCHANGE_RATE_REQUEST    int src id, int dest id
+ * ARBITRAGE_REQUEST
+ * EXIT
+ * PRICE_UPDATE_RECEIVED, PRICE_UPDATE_DISCARDED, INPUT_NOT_RECOGNIZED, BYE
+ * BEST_RATES               int src id, int dest id, number rate, byte circular, int steps,
+ *                          int first step id, then int step id, decimal rate for every other step
+ * ARBITRAGE                int cycles, then for every cycle: decimal gain, int steps,
+ *                          int first step id, then int step id, decimal rate for every other step
+ * </pre>
+ * Ids are those of the stream, each defined by a CURRENCY record before its
+ * first use. A decimal is a varint scale, a varint length and the unscaled
+ * value in that many bytes of two's complement, so most take no more bytes
+ * than a long. Varints have seven bits per byte, least significant first,
+ * with the high bit set on all but the last byte, and scales are zigzag
+ * encoded so that small negative ones stay short. Unscaled values have at
+ * most {@link #MAX_DECIMAL_LENGTH} bytes. A number is a byte tag for null, a
+ * decimal or an IEEE double.
+ */
+final class BinaryFormat {
+
+    /* a zero byte never starts text input */
+    static final byte[] HEADER = {0, 'T', 'R', 'P', 2};
+
+    static final byte CURRENCY = 1;
+    static final byte PRICE_UPDATE = 2;
+    static final byte EXCHANGE_RATE_REQUEST = 3;
+    static final byte ARBITRAGE_REQUEST = 4;
+    static final byte EXIT = 5;
+
+    static final byte PRICE_UPDATE_RECEIVED = 16;
+    static final byte PRICE_UPDATE_DISCARDED = 17;
+    static final byte INPUT_NOT_RECOGNIZED = 18;
+    static final byte BYE = 19;
+    static final byte BEST_RATES = 20;
+    static final byte ARBITRAGE = 21;
+
+    static final byte NULL_NUMBER = 0;
+    static final byte DECIMAL_NUMBER = 1;
+    static final byte DOUBLE_NUMBER = 2;
+
+    /* like the longest line a server takes, far beyond the precision of any rate */
+    static final int MAX_DECIMAL_LENGTH = 1 << 16;
+
+    private BinaryFormat() {
+    }
+}
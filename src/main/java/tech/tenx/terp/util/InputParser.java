@@ -18,6 +18,7 @@
 package tech.tenx.terp.util;
 
 import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.CurrencyRegistry;
 import tech.tenx.terp.model.ExchangeCurrency;
 import tech.tenx.terp.model.ExchangeRate;
 
@@ -37,10 +38,14 @@ public class InputParser {
 
     private static final String EXCHANGE_RATE_REQ_REGEX = "^EXCHANGE_RATE_REQUEST" + TEXT_REGEX + TEXT_REGEX + TEXT_REGEX + TEXT_REGEX + "$";
 
+    private static final String ARBITRAGE_REQ_REGEX = "^ARBITRAGE_REQUEST$";
+
     private static final Pattern PRICE_UPDATE_PATTERN = Pattern.compile(PRICE_UPDATE_REGEX);
 
     private static final Pattern EXCHANGE_RATE_REQ_PATTERN = Pattern.compile(EXCHANGE_RATE_REQ_REGEX);
 
+    private static final Pattern ARBITRAGE_REQ_PATTERN = Pattern.compile(ARBITRAGE_REQ_REGEX);
+
     public static boolean isPriceUpdate(String input) {
         return PRICE_UPDATE_PATTERN.matcher(input).find();
     }
@@ -49,6 +54,10 @@ public class InputParser {
         return EXCHANGE_RATE_REQ_PATTERN.matcher(input).find();
     }
 
+    public static boolean isArbitrageRequest(String input) {
+        return ARBITRAGE_REQ_PATTERN.matcher(input).find();
+    }
+
     public static boolean isPriceUpdateValid(String priceUpdate) {
         String[] segments = priceUpdate.split(" ");
         BigDecimal product = new BigDecimal(segments[4]).multiply(new BigDecimal(segments[5]));
@@ -59,8 +68,8 @@ public class InputParser {
         ExchangeRate[] exchangeRates = new ExchangeRate[2];
         String[] segments = priceUpdate.split(" ");
         OffsetDateTime timestamp = OffsetDateTime.parse(segments[0]);
-        ExchangeCurrency srcCurrency = new ExchangeCurrency(segments[1], segments[2]);
-        ExchangeCurrency destCurrency = new ExchangeCurrency(segments[1], segments[3]);
+        ExchangeCurrency srcCurrency = CurrencyRegistry.global().intern(segments[1], segments[2]);
+        ExchangeCurrency destCurrency = CurrencyRegistry.global().intern(segments[1], segments[3]);
         exchangeRates[0] = new ExchangeRate(timestamp, srcCurrency, destCurrency, new BigDecimal(segments[4]));
         exchangeRates[1] = new ExchangeRate(timestamp, destCurrency, srcCurrency, new BigDecimal(segments[5]));
         return exchangeRates;
@@ -68,8 +77,9 @@ public class InputParser {
 
     public static BestRateRequest parseExchangeRateRequest(String exchangeRateRequest) {
         String[] segments = exchangeRateRequest.split(" ");
-        ExchangeCurrency srcCurrency = new ExchangeCurrency(segments[1], segments[2]);
-        ExchangeCurrency destCurrency = new ExchangeCurrency(segments[3], segments[4]);
+        /* currencies only asked for are not interned, like those of InputScanner */
+        ExchangeCurrency srcCurrency = CurrencyRegistry.global().find(segments[1], segments[2]);
+        ExchangeCurrency destCurrency = CurrencyRegistry.global().find(segments[3], segments[4]);
         return new BestRateRequest(srcCurrency, destCurrency);
     }
 }
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.CurrencyRegistry;
+import tech.tenx.terp.model.ExchangeCurrency;
+import tech.tenx.terp.model.ExchangeRate;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recognizes and parses an input line in a single pass, taking the same
+ * decisions as {@link InputParser} without regular expressions, split
+ * arrays or intermediate {@link BigDecimal}s. One scanner is reused for
+ * every line: {@link #scan(CharSequence)} only records where the segments
+ * of the line are, and objects are created when the caller asks for the
+ * price update or request, with currencies interned in the
+ * {@link CurrencyRegistry}. Not thread safe.
+ */
+public class InputScanner {
+
+    public enum InputType {
+        PRICE_UPDATE,
+        /* product of forward_factor and backward_factor is greater than one */
+        INVALID_PRICE_UPDATE,
+        EXCHANGE_RATE_REQUEST,
+        /* EXCHANGE_RATES_REQUEST followed by one or more pairs of exchange rate request */
+        EXCHANGE_RATES_REQUEST,
+        ARBITRAGE_REQUEST,
+        /* x or X */
+        EXIT,
+        UNKNOWN
+    }
+
+    private static final String EXCHANGE_RATE_REQUEST = "EXCHANGE_RATE_REQUEST";
+
+    private static final String EXCHANGE_RATES_REQUEST = "EXCHANGE_RATES_REQUEST";
+
+    private static final String ARBITRAGE_REQUEST = "ARBITRAGE_REQUEST";
+
+    private static final int TIMESTAMP_LENGTH = "2018-05-26T09:42:23+00:00".length();
+
+    /* factors with more digits are left to BigDecimal */
+    private static final int MAX_EXACT_DIGITS = 18;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_EXACT_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final CurrencyRegistry registry = CurrencyRegistry.global();
+
+    private CharSequence input;
+    private int position;
+
+    private final int[] textStarts = new int[4];
+    private final int[] textEnds = new int[4];
+
+    /* start and end of the four texts of each pair of an exchange rates request */
+    private int[] pairTexts = new int[64];
+    private int pairCount;
+
+    private int year, month, day, hour, minute, second, offsetSeconds;
+
+    private final Factor forwardFactor = new Factor();
+    private final Factor backwardFactor = new Factor();
+
+    /**
+     * Scans a single line without its line terminator.
+     */
+    public InputType scan(CharSequence input) {
+        this.input = input;
+        position = 0;
+        if (input.length() == 1 && (input.charAt(0) == 'x' || input.charAt(0) == 'X')) {
+            return InputType.EXIT;
+        }
+        if (skip(EXCHANGE_RATE_REQUEST)) {
+            return texts(4) && position == input.length() ? InputType.EXCHANGE_RATE_REQUEST : InputType.UNKNOWN;
+        }
+        if (skip(EXCHANGE_RATES_REQUEST)) {
+            return pairs() ? InputType.EXCHANGE_RATES_REQUEST : InputType.UNKNOWN;
+        }
+        if (skip(ARBITRAGE_REQUEST) && position == input.length()) {
+            return InputType.ARBITRAGE_REQUEST;
+        }
+        position = 0;
+        if (timestamp() && texts(3) && factor(forwardFactor) && factor(backwardFactor) && position == input.length()) {
+            return isProductAtMostOne() ? InputType.PRICE_UPDATE : InputType.INVALID_PRICE_UPDATE;
+        }
+        return InputType.UNKNOWN;
+    }
+
+    /**
+     * Fills the forward and backward rates of the price update last scanned
+     * into the given array, which needs a length of at least two.
+     */
+    public ExchangeRate[] parsePriceUpdate(ExchangeRate[] exchangeRates) {
+        OffsetDateTime timestamp = OffsetDateTime.of(year, month, day, hour, minute, second, 0,
+                ZoneOffset.ofTotalSeconds(offsetSeconds));
+        ExchangeCurrency srcCurrency = currency(0, 1);
+        ExchangeCurrency destCurrency = currency(0, 2);
+        exchangeRates[0] = new ExchangeRate(timestamp, srcCurrency, destCurrency, forwardFactor.toBigDecimal());
+        exchangeRates[1] = new ExchangeRate(timestamp, destCurrency, srcCurrency, backwardFactor.toBigDecimal());
+        return exchangeRates;
+    }
+
+    /**
+     * Returns the exchange rate request last scanned. Its currencies are
+     * looked up without interning them, as requests come from any client and
+     * those of currencies never quoted are answered as not found anyway.
+     */
+    public BestRateRequest parseExchangeRateRequest() {
+        ExchangeCurrency srcCurrency = requestedCurrency(0, 1);
+        ExchangeCurrency destCurrency = requestedCurrency(2, 3);
+        return new BestRateRequest(srcCurrency, destCurrency);
+    }
+
+    /**
+     * Returns the requests of the exchange rates request last scanned, in
+     * the order of their pairs, looked up like those of a single request.
+     */
+    public List<BestRateRequest> parseExchangeRatesRequest() {
+        List<BestRateRequest> requests = new ArrayList<>(pairCount);
+        for (int pair = 0; pair < pairCount; pair++) {
+            int texts = pair * 8;
+            ExchangeCurrency srcCurrency = registry.find(input, pairTexts[texts], pairTexts[texts + 1],
+                    input, pairTexts[texts + 2], pairTexts[texts + 3]);
+            ExchangeCurrency destCurrency = registry.find(input, pairTexts[texts + 4], pairTexts[texts + 5],
+                    input, pairTexts[texts + 6], pairTexts[texts + 7]);
+            requests.add(new BestRateRequest(srcCurrency, destCurrency));
+        }
+        return requests;
+    }
+
+    private ExchangeCurrency currency(int exchangeText, int currencyText) {
+        return registry.intern(input, textStarts[exchangeText], textEnds[exchangeText],
+                input, textStarts[currencyText], textEnds[currencyText]);
+    }
+
+    private ExchangeCurrency requestedCurrency(int exchangeText, int currencyText) {
+        return registry.find(input, textStarts[exchangeText], textEnds[exchangeText],
+                input, textStarts[currencyText], textEnds[currencyText]);
+    }
+
+    private boolean skip(String expected) {
+        if (input.length() - position < expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (input.charAt(position + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        position += expected.length();
+        return true;
+    }
+
+    /* \d{4}-(0[1-9]|1[0-2])-[0-2]\d T ([01]\d|2[0-3]):[0-5]\d:[0-5]\d [+\-]([01]\d|2[0-3]):[0-5]\d */
+    private boolean timestamp() {
+        if (input.length() < TIMESTAMP_LENGTH) {
+            return false;
+        }
+        year = digits(0, 4);
+        month = digits(5, 2);
+        day = digits(8, 2);
+        hour = digits(11, 2);
+        minute = digits(14, 2);
+        second = digits(17, 2);
+        int offsetHours = digits(20, 2);
+        int offsetMinutes = digits(23, 2);
+        char sign = input.charAt(19);
+        if (year < 0 || input.charAt(4) != '-' || month < 1 || month > 12 || input.charAt(7) != '-'
+                || day < 0 || day > 29 || input.charAt(10) != 'T'
+                || hour < 0 || hour > 23 || input.charAt(13) != ':' || minute < 0 || minute > 59
+                || input.charAt(16) != ':' || second < 0 || second > 59
+                || (sign != '+' && sign != '-') || offsetHours < 0 || offsetHours > 23
+                || input.charAt(22) != ':' || offsetMinutes < 0 || offsetMinutes > 59) {
+            return false;
+        }
+        offsetSeconds = (offsetHours * 60 + offsetMinutes) * 60 * (sign == '-' ? -1 : 1);
+        position = TIMESTAMP_LENGTH;
+        return true;
+    }
+
+    /* the value of count decimal digits at from, or -1 if any is not a digit */
+    private int digits(int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /* count times a space followed by at least one character other than white space */
+    private boolean texts(int count) {
+        for (int i = 0; i < count; i++) {
+            if (position == input.length() || input.charAt(position) != ' ') {
+                return false;
+            }
+            int start = ++position;
+            while (position < input.length() && !isWhitespace(input.charAt(position))) {
+                position++;
+            }
+            if (position == start) {
+                return false;
+            }
+            textStarts[i] = start;
+            textEnds[i] = position;
+        }
+        return true;
+    }
+
+    /* groups of four texts until the end of the input, at least one */
+    private boolean pairs() {
+        pairCount = 0;
+        do {
+            if (!texts(4)) {
+                return false;
+            }
+            if (pairTexts.length < (pairCount + 1) * 8) {
+                pairTexts = Arrays.copyOf(pairTexts, pairTexts.length * 2);
+            }
+            for (int i = 0; i < 4; i++) {
+                pairTexts[pairCount * 8 + i * 2] = textStarts[i];
+                pairTexts[pairCount * 8 + i * 2 + 1] = textEnds[i];
+            }
+            pairCount++;
+        } while (position < input.length());
+        return true;
+    }
+
+    /* the characters \s stands for in a regular expression */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /* a space followed by \d+ or \d+\.\d+ */
+    private boolean factor(Factor factor) {
+        if (position == input.length() || input.charAt(position) != ' ') {
+            return false;
+        }
+        factor.start = ++position;
+        factor.unscaled = 0;
+        factor.scale = 0;
+        int integerDigits = skipDigits(factor);
+        if (integerDigits == 0) {
+            return false;
+        }
+        if (position < input.length() && input.charAt(position) == '.') {
+            position++;
+            int fractionDigits = skipDigits(factor);
+            if (fractionDigits == 0) {
+                return false;
+            }
+            factor.scale = fractionDigits;
+        }
+        factor.end = position;
+        factor.exact = factor.end - factor.start - (factor.scale > 0 ? 1 : 0) <= MAX_EXACT_DIGITS;
+        return true;
+    }
+
+    private int skipDigits(Factor factor) {
+        int start = position;
+        while (position < input.length()) {
+            char c = input.charAt(position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            factor.unscaled = factor.unscaled * 10 + (c - '0');
+            position++;
+        }
+        return position - start;
+    }
+
+    /* forward * backward <= 1 is unscaledForward * unscaledBackward <= 10^(scaleForward + scaleBackward) */
+    private boolean isProductAtMostOne() {
+        if (forwardFactor.exact && backwardFactor.exact) {
+            long a = forwardFactor.unscaled;
+            long b = backwardFactor.unscaled;
+            int scale = forwardFactor.scale + backwardFactor.scale;
+            if (a == 0 || b == 0) {
+                return true;
+            }
+            if (scale <= MAX_EXACT_DIGITS && b <= Long.MAX_VALUE / a) {
+                return a * b <= POWERS_OF_TEN[scale];
+            }
+        }
+        return forwardFactor.toBigDecimal().multiply(backwardFactor.toBigDecimal()).compareTo(BigDecimal.ONE) <= 0;
+    }
+
+    private class Factor {
+
+        private int start;
+        private int end;
+        private long unscaled;
+        private int scale;
+        /* whether unscaled holds all digits without overflow */
+        private boolean exact;
+
+        private BigDecimal toBigDecimal() {
+            if (exact) {
+                return BigDecimal.valueOf(unscaled, scale);
+            }
+            return new BigDecimal(input.subSequence(start, end).toString());
+        }
+    }
+}
@@ -17,33 +17,121 @@
 
 package tech.tenx.terp.util;
 
+import tech.tenx.terp.model.ArbitrageCycle;
+import tech.tenx.terp.model.BestRateChangeSet;
 import tech.tenx.terp.model.BestRateResponse;
 import tech.tenx.terp.model.ExchangeCurrency;
 
+import java.math.BigDecimal;
+import java.util.List;
+
 public class OutputFormatter {
 
+    public static final String PRICE_UPDATE_RECEIVED = "Ack! Price update received\n";
+
+    public static final String PRICE_UPDATE_DISCARDED = "Product of forward_factor and backward_factor is greater than one, input discarded\n";
+
+    public static final String INPUT_NOT_RECOGNIZED = "Input is not a price update or an exchange rate request, please try again\n";
+
+    public static final String BYE = "Bye!";
+
     private static String NEW_LINE = System.lineSeparator();
 
     public static String format(BestRateResponse response) {
-        StringBuilder sb = new StringBuilder("BEST_RATES_BEGIN ");
+        StringBuilder sb = new StringBuilder();
         ExchangeCurrency srcCurrency = response.getRequest().getSrcCurrency();
-        sb.append(srcCurrency)
-                .append(" ").append(response.getRequest().getDestCurrency())
-                .append(" ").append(response.getRate());
+        beginBestRates(sb, srcCurrency, response.getRequest().getDestCurrency(), response.getRate());
         boolean first = true;
         for (ExchangeCurrency exchangeCurrency : response.getPath().getSteps()) {
-            sb.append(NEW_LINE).append(exchangeCurrency);
-            if (!first) {
-                sb.append(" ").append(response.getOriginalRates().get(srcCurrency).get(exchangeCurrency).getRate());
+            if (first) {
+                appendStep(sb, exchangeCurrency, null);
+            } else {
+                appendStep(sb, exchangeCurrency, response.getOriginalRates().get(srcCurrency).get(exchangeCurrency).getRate());
                 srcCurrency = exchangeCurrency;
             }
             first = false;
         }
-        if(response.getPath().isCircular()) {
+        endBestRates(sb, response.getPath().isCircular(), response.getRequest().getDestCurrency());
+        return sb.toString();
+    }
+
+    /* the responses one after the other, as if they had been requested one by one */
+    public static String formatBestRates(List<BestRateResponse> responses) {
+        StringBuilder sb = new StringBuilder();
+        for (BestRateResponse response : responses) {
+            if (sb.length() > 0) {
+                sb.append(NEW_LINE);
+            }
+            sb.append(format(response));
+        }
+        return sb.toString();
+    }
+
+    public static String format(List<ArbitrageCycle> cycles) {
+        StringBuilder sb = new StringBuilder();
+        beginArbitrage(sb, cycles.size());
+        for (ArbitrageCycle cycle : cycles) {
+            beginCycle(sb, cycle.getGain(), cycle.getSteps().get(0));
+            for (int i = 0; i < cycle.getRates().size(); i++) {
+                appendStep(sb, cycle.getSteps().get(i + 1), cycle.getRates().get(i).getRate());
+            }
+        }
+        endArbitrage(sb);
+        return sb.toString();
+    }
+
+    /*
+     * a line per pair whose best rate or next step changed, with the rates and
+     * next steps before and after, where a dash stands for no path
+     */
+    public static String format(BestRateChangeSet changes) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BEST_RATES_CHANGED ").append(changes.getVersion()).append(" ").append(changes.size());
+        for (BestRateChangeSet.Cell cell : changes) {
+            sb.append(NEW_LINE).append(cell.getSrcCurrency())
+                    .append(" ").append(cell.getDestCurrency())
+                    .append(" ").append(cell.getPreviousRate() == null ? "-" : cell.getPreviousRate())
+                    .append(" ").append(cell.getRate() == null ? "-" : cell.getRate())
+                    .append(" ").append(cell.getPreviousNextCurrency() == null ? "- -" : cell.getPreviousNextCurrency())
+                    .append(" ").append(cell.getNextCurrency() == null ? "- -" : cell.getNextCurrency());
+        }
+        sb.append(NEW_LINE).append("BEST_RATES_CHANGED_END").append(NEW_LINE);
+        return sb.toString();
+    }
+
+    /* the parts of the responses, shared with BinaryDecoder, which has no response objects */
+
+    static void beginBestRates(StringBuilder sb, ExchangeCurrency srcCurrency, ExchangeCurrency destCurrency, Number rate) {
+        sb.append("BEST_RATES_BEGIN ").append(srcCurrency)
+                .append(" ").append(destCurrency)
+                .append(" ").append(rate);
+    }
+
+    static void appendStep(StringBuilder sb, ExchangeCurrency step, BigDecimal rate) {
+        sb.append(NEW_LINE).append(step);
+        if (rate != null) {
+            sb.append(" ").append(rate);
+        }
+    }
+
+    static void endBestRates(StringBuilder sb, boolean circular, ExchangeCurrency destCurrency) {
+        if(circular) {
             sb.append(NEW_LINE).append("...");
-            sb.append(NEW_LINE).append(response.getRequest().getDestCurrency());
+            sb.append(NEW_LINE).append(destCurrency);
         }
         sb.append(NEW_LINE).append("BEST_RATES_END").append(NEW_LINE);
-        return sb.toString();
+    }
+
+    static void beginArbitrage(StringBuilder sb, int cycles) {
+        sb.append("ARBITRAGE_BEGIN ").append(cycles);
+    }
+
+    static void beginCycle(StringBuilder sb, BigDecimal gain, ExchangeCurrency firstStep) {
+        sb.append(NEW_LINE).append("CYCLE ").append(gain);
+        sb.append(NEW_LINE).append(firstStep);
+    }
+
+    static void endArbitrage(StringBuilder sb) {
+        sb.append(NEW_LINE).append("ARBITRAGE_END").append(NEW_LINE);
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded ring of preallocated entries written by a single producer and
+ * read by stages that each follow a sequence, like the LMAX Disruptor. An
+ * entry is claimed with {@link #next()}, filled in place and handed on with
+ * {@link #publish(long)}. Each stage waits for the sequence of the stage
+ * before it, and the producer for the gating sequence of the last stage
+ * before it reuses an entry. Once {@link #alert()}ed, waiting for an
+ * entry throws instead, so that stages stop when one of them failed.
+ */
+public final class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private AtomicLong gatingSequence = new AtomicLong(Long.MAX_VALUE);
+    private volatile boolean alerted;
+
+    /* only touched by the producer */
+    private long nextSequence;
+
+    public RingBuffer(int size, Supplier<E> factory, WaitStrategy waitStrategy) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two: " + size);
+        }
+        this.entries = new Object[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = factory.get();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * The sequence of the last stage, whose entries may be reused once it passed them.
+     */
+    public void setGatingSequence(AtomicLong gatingSequence) {
+        this.gatingSequence = gatingSequence;
+    }
+
+    /**
+     * Claims the next entry, waiting while the ring is full.
+     */
+    public long next() {
+        long sequence = nextSequence++;
+        waitStrategy.waitFor(sequence - entries.length, gatingSequence, this);
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+        cursor.set(sequence);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Publishes the progress of a stage to the stages waiting for it.
+     */
+    public void advance(AtomicLong sequence, long value) {
+        sequence.set(value);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Waits until dependency reaches sequence and returns the sequence it reached.
+     *
+     * @throws IllegalStateException if alerted before the dependency reached it
+     */
+    public long waitFor(long sequence, AtomicLong dependency) {
+        return waitStrategy.waitFor(sequence, dependency, this);
+    }
+
+    /**
+     * Wakes every waiting stage and the producer, which then throw, as do
+     * their later waits.
+     */
+    public void alert() {
+        alerted = true;
+        waitStrategy.signalAll();
+    }
+
+    void checkAlert() {
+        if (alerted) {
+            throw new IllegalStateException("Ring buffer alerted");
+        }
+    }
+
+    public AtomicLong getCursor() {
+        return cursor;
+    }
+
+    public int size() {
+        return entries.length;
+    }
+}
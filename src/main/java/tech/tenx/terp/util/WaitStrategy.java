@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * How a stage of a {@link RingBuffer} pipeline waits for the stage before
+ * it, trading latency for the CPU burnt while idle.
+ */
+public abstract class WaitStrategy {
+
+    private static final int SPINS = 100;
+
+    /**
+     * Spins on the sequence, the lowest latency at the cost of a busy core.
+     */
+    public static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            @Override
+            void idle(int attempt) {
+            }
+        };
+    }
+
+    /**
+     * Spins for a while, then yields to other threads between checks.
+     */
+    public static WaitStrategy yielding() {
+        return new WaitStrategy() {
+            @Override
+            void idle(int attempt) {
+                if (attempt > SPINS) {
+                    Thread.yield();
+                }
+            }
+        };
+    }
+
+    /**
+     * Spins, yields, then sleeps for 100 microseconds between checks.
+     */
+    public static WaitStrategy sleeping() {
+        return new WaitStrategy() {
+            @Override
+            void idle(int attempt) {
+                if (attempt > 2 * SPINS) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                } else if (attempt > SPINS) {
+                    Thread.yield();
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits on a condition that every publish signals, which costs no CPU
+     * while idle but adds a lock to every publish.
+     */
+    public static WaitStrategy blocking() {
+        return new WaitStrategy() {
+
+            private final ReentrantLock lock = new ReentrantLock();
+            private final Condition published = lock.newCondition();
+            private volatile int waiters;
+
+            @Override
+            long waitFor(long sequence, AtomicLong dependency, RingBuffer<?> ring) {
+                long available = dependency.get();
+                if (available >= sequence) {
+                    return available;
+                }
+                lock.lock();
+                try {
+                    waiters++;
+                    while ((available = dependency.get()) < sequence) {
+                        ring.checkAlert();
+                        published.awaitUninterruptibly();
+                    }
+                } finally {
+                    waiters--;
+                    lock.unlock();
+                }
+                return available;
+            }
+
+            @Override
+            void signalAll() {
+                if (waiters > 0) {
+                    lock.lock();
+                    try {
+                        published.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+
+            @Override
+            void idle(int attempt) {
+            }
+        };
+    }
+
+    /**
+     * One of busy-spin, yielding, sleeping and blocking.
+     */
+    public static WaitStrategy named(String name) {
+        switch (name) {
+            case "busy-spin":
+                return busySpin();
+            case "yielding":
+                return yielding();
+            case "sleeping":
+                return sleeping();
+            case "blocking":
+                return blocking();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy: " + name);
+        }
+    }
+
+    /* returns the sequence available, which is at least the one waited for, unless the ring is alerted */
+    long waitFor(long sequence, AtomicLong dependency, RingBuffer<?> ring) {
+        long available;
+        for (int attempt = 0; (available = dependency.get()) < sequence; attempt++) {
+            ring.checkAlert();
+            idle(attempt);
+        }
+        return available;
+    }
+
+    void signalAll() {
+    }
+
+    abstract void idle(int attempt);
+}
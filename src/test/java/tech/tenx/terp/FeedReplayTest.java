@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import org.junit.jupiter.api.Test;
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.ExchangeCurrency;
+import tech.tenx.terp.model.ExchangeRateGraph;
+import tech.tenx.terp.util.BinaryDecoder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeedReplayTest {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private ExchangeRateGraph graph = new ExchangeRateGraph();
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private boolean replay(String feed) throws IOException {
+        PrintStream out = new PrintStream(output, false, "UTF-8");
+        byte[] bytes = feed.getBytes(StandardCharsets.UTF_8);
+        return new FeedReplay(graph, out).replay(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    void updatesBatchedUntilRequest() throws IOException {
+        assertTrue(replay("2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\r\n" +
+                "2018-05-26T09:42:24+00:00 GDAX BTC USD 1001.0 0.0009\n" +
+                "2018-05-26T09:42:25+00:00 GDAX BTC USD 1001.0 0.1\n" +
+                "EXCHANGE_RATE_REQUEST KRAKEN BTC GDAX USD\r\n" +
+                "\r" +
+                "2018-05-26T09:42:26+00:00 KRAKEN BTC USD 1002.0 0.0009\n" +
+                "EXCHANGE_RATE_REQUEST KRAKEN BTC KRAKEN USD"));
+        assertEquals(2, graph.getVersion());
+        String expected = String.join(NEW_LINE,
+                LineProtocol.PRICE_UPDATE_RECEIVED,
+                LineProtocol.PRICE_UPDATE_RECEIVED,
+                LineProtocol.PRICE_UPDATE_DISCARDED,
+                "BEST_RATES_BEGIN kraken btc gdax usd 1001.0",
+                "kraken btc",
+                "gdax btc 1",
+                "gdax usd 1001.0",
+                "BEST_RATES_END",
+                "",
+                LineProtocol.INPUT_NOT_RECOGNIZED,
+                LineProtocol.PRICE_UPDATE_RECEIVED,
+                "BEST_RATES_BEGIN kraken btc kraken usd 1002.0",
+                "kraken btc",
+                "kraken usd 1002.0",
+                "BEST_RATES_END",
+                "", "");
+        assertEquals(expected, output.toString("UTF-8"));
+    }
+
+    @Test
+    void changeSetsPrintedBeforeResponses() throws IOException {
+        PrintStream out = new PrintStream(output, false, "UTF-8");
+        FeedReplay feedReplay = new FeedReplay(graph, out);
+        feedReplay.printChangeSets();
+        feedReplay.replay(Channels.newChannel(new ByteArrayInputStream((
+                "2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\n" +
+                "ARBITRAGE_REQUEST\n" +
+                "2018-05-26T09:42:24+00:00 KRAKEN BTC USD 1002.0 0.0009\n" +
+                "ARBITRAGE_REQUEST\n").getBytes(StandardCharsets.UTF_8))));
+        String expected = String.join(NEW_LINE,
+                LineProtocol.PRICE_UPDATE_RECEIVED,
+                "BEST_RATES_CHANGED 1 4",
+                "kraken btc kraken btc - 1.0 - - - -",
+                "kraken btc kraken usd - 1000.0 - - kraken usd",
+                "kraken usd kraken btc - 9.0E-4 - - kraken btc",
+                "kraken usd kraken usd - 1.0 - - - -",
+                "BEST_RATES_CHANGED_END",
+                "",
+                "ARBITRAGE_BEGIN 0",
+                "ARBITRAGE_END",
+                "",
+                LineProtocol.PRICE_UPDATE_RECEIVED,
+                "BEST_RATES_CHANGED 2 1",
+                "kraken btc kraken usd 1000.0 1002.0 kraken usd kraken usd",
+                "BEST_RATES_CHANGED_END",
+                "",
+                "ARBITRAGE_BEGIN 0",
+                "ARBITRAGE_END",
+                "", "");
+        assertEquals(expected, output.toString("UTF-8"));
+    }
+
+    @Test
+    void ratesExpireByTimeOfFeed() throws IOException {
+        graph.setRateTimeToLive(Duration.ofSeconds(60));
+        replay("2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\n" +
+                "ARBITRAGE_REQUEST\n" +
+                "2018-05-26T09:43:22+00:00 GDAX ETH USD 300.0 0.003\n" +
+                "ARBITRAGE_REQUEST\n");
+        BestRateRequest request = new BestRateRequest(new ExchangeCurrency("kraken", "btc"),
+                new ExchangeCurrency("kraken", "usd"));
+        assertEquals(new BigDecimal("1000.0"), graph.getBestRate(request).getRate());
+
+        replay("2018-05-26T09:43:23+00:00 GDAX ETH USD 301.0 0.003\n");
+        assertNull(graph.getBestRate(request).getRate());
+    }
+
+    @Test
+    void exchangeRatesRequestAnsweredLikeSingleRequests() throws IOException {
+        String updates = "2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\n" +
+                "2018-05-26T09:42:24+00:00 GDAX BTC USD 1001.0 0.0009\n" +
+                "2018-05-26T09:42:24+00:00 GDAX ETH USD 300.0 0.003\n";
+        replay(updates + "EXCHANGE_RATE_REQUEST KRAKEN BTC GDAX USD\n" +
+                "EXCHANGE_RATE_REQUEST GDAX ETH KRAKEN BTC\n" +
+                "EXCHANGE_RATE_REQUEST BINANCE BTC GDAX USD\n");
+        String singleRequests = output.toString("UTF-8");
+
+        graph = new ExchangeRateGraph();
+        output.reset();
+        replay(updates + "EXCHANGE_RATES_REQUEST KRAKEN BTC GDAX USD GDAX ETH KRAKEN BTC BINANCE BTC GDAX USD\n");
+        assertEquals(singleRequests, output.toString("UTF-8"));
+    }
+
+    @Test
+    void answeredLikeConsole() throws IOException {
+        /*
+         * the console applies price updates one by one and the replay runs of
+         * them at once, with rates close enough to change each other's best paths
+         */
+        Random random = new Random(8);
+        String[] currencies = {"BTC", "ETH", "USD", "EUR", "XRP"};
+        double[] prices = {9000, 600, 1, 1.2, 0.7};
+        MathContext rateContext = new MathContext(10);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String exchange = "EXCHANGE" + random.nextInt(3);
+            int src = random.nextInt(currencies.length);
+            int dest = (src + 1 + random.nextInt(currencies.length - 1)) % currencies.length;
+            if (random.nextInt(5) == 0) {
+                StringBuilder request = new StringBuilder("EXCHANGE_RATES_REQUEST");
+                for (int pair = 0; pair < 20; pair++) {
+                    request.append(" EXCHANGE").append(random.nextInt(3)).append(' ')
+                            .append(currencies[random.nextInt(currencies.length)])
+                            .append(" EXCHANGE").append(random.nextInt(3)).append(' ')
+                            .append(currencies[random.nextInt(currencies.length)]);
+                }
+                lines.add(request.toString());
+            } else {
+                double midRate = prices[src] / prices[dest] * (1 + (random.nextDouble() - 0.5) * 0.001);
+                lines.add(String.format("2018-05-26T%02d:%02d:%02d+00:00 %s %s %s %s %s", i / 3600, i / 60 % 60,
+                        i % 60, exchange, currencies[src], currencies[dest],
+                        new BigDecimal(midRate * 0.998, rateContext).toPlainString(),
+                        new BigDecimal(0.998 / midRate, rateContext).toPlainString()));
+            }
+        }
+        LineProtocol protocol = new LineProtocol(new ExchangeRateGraph());
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            expected.append(protocol.respond(line)).append(NEW_LINE);
+        }
+
+        assertTrue(replay(String.join("\n", lines)));
+        assertEquals(expected.toString(), output.toString("UTF-8"));
+    }
+
+    @Test
+    void updatesAppliedAtEndOfFeed() throws IOException {
+        assertTrue(replay("2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\n" +
+                "2018-05-26T09:42:24+00:00 KRAKEN ETH USD 500.0 0.0019\n"));
+        assertEquals(1, graph.getVersion());
+    }
+
+    @Test
+    void exitStopsReplay() throws IOException {
+        assertFalse(replay("2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\nx\n" +
+                "2018-05-26T09:42:24+00:00 KRAKEN ETH USD 500.0 0.0019\n"));
+        assertEquals(1, graph.getVersion());
+        assertTrue(output.toString("UTF-8").endsWith(LineProtocol.BYE + NEW_LINE));
+    }
+
+    @Test
+    void linesLongerThanBufferRead() throws IOException {
+        char[] longLine = new char[3 << 20];
+        Arrays.fill(longLine, 'a');
+        assertTrue(replay(new String(longLine) + "\nARBITRAGE_REQUEST\n"));
+        assertEquals(LineProtocol.INPUT_NOT_RECOGNIZED + NEW_LINE + "ARBITRAGE_BEGIN 0" + NEW_LINE + "ARBITRAGE_END" + NEW_LINE + NEW_LINE,
+                output.toString("UTF-8"));
+    }
+
+    @Test
+    void binaryFeedAnsweredLikeText() throws IOException {
+        String feed = "2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009\n" +
+                "2018-05-26T09:42:24+00:00 GDAX BTC USD 1001.0 0.0009\n" +
+                "2018-05-26T09:42:25+00:00 GDAX BTC USD 1001.0 0.1\n" +
+                "EXCHANGE_RATE_REQUEST KRAKEN BTC GDAX USD\n" +
+                "2018-05-26T09:42:26+00:00 GDAX BTC USD 1200.0 0.0008\n" +
+                "ARBITRAGE_REQUEST\n" +
+                "EXCHANGE_RATE_REQUEST KRAKEN USD BITFINEX ETH\n" +
+                "x\n" +
+                "EXCHANGE_RATE_REQUEST KRAKEN BTC KRAKEN USD\n";
+        assertFalse(replay(feed));
+        String expected = output.toString("UTF-8");
+
+        ByteArrayOutputStream binaryFeed = new ByteArrayOutputStream();
+        new FeedConverter().convert(new BufferedReader(new StringReader(feed)), binaryFeed);
+        ExchangeRateGraph binaryGraph = new ExchangeRateGraph();
+        ByteArrayOutputStream binaryOutput = new ByteArrayOutputStream();
+        assertFalse(new FeedReplay(binaryGraph, new PrintStream(binaryOutput)).replay(
+                Channels.newChannel(new ByteArrayInputStream(binaryFeed.toByteArray()))));
+        assertEquals(graph.getVersion(), binaryGraph.getVersion());
+
+        BinaryDecoder decoder = new BinaryDecoder();
+        ByteBuffer responses = ByteBuffer.wrap(binaryOutput.toByteArray());
+        StringBuilder actual = new StringBuilder();
+        String response;
+        while ((response = decoder.nextResponse(responses)) != null) {
+            actual.append(response).append(NEW_LINE);
+        }
+        assertEquals(expected, actual.toString());
+    }
+}
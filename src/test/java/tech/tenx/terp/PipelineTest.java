@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import org.junit.jupiter.api.Test;
+import tech.tenx.terp.Pipeline.Stage;
+import tech.tenx.terp.model.ConcurrentExchangeRateGraph;
+import tech.tenx.terp.model.ExchangeRateGraph;
+import tech.tenx.terp.util.OutputFormatter;
+import tech.tenx.terp.util.WaitStrategy;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineTest {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private static final String[] EXCHANGES = {"KRAKEN", "GDAX", "BITFINEX"};
+
+    private static final String[] CURRENCIES = {"BTC", "ETH", "USD", "EUR"};
+
+    private static final double[] VALUES = {1000, 50, 1, 1.2};
+
+    private static List<String> lines(int count) {
+        Random random = new Random(17);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String exchange = EXCHANGES[random.nextInt(EXCHANGES.length)];
+            int src = random.nextInt(CURRENCIES.length);
+            int dest = (src + 1 + random.nextInt(CURRENCIES.length - 1)) % CURRENCIES.length;
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                lines.add("ARBITRAGE_REQUEST");
+            } else if (kind == 1) {
+                lines.add("hello");
+            } else if (kind < 6) {
+                lines.add("EXCHANGE_RATE_REQUEST " + exchange + " " + CURRENCIES[src] + " "
+                        + EXCHANGES[random.nextInt(EXCHANGES.length)] + " " + CURRENCIES[dest]);
+            } else {
+                /* below the fair rates, so that there is no arbitrage, and hardly ever equal */
+                double forward = VALUES[src] / VALUES[dest] * (0.98 + random.nextDouble() / 100);
+                double backward = random.nextInt(10) == 0 ? 2 / forward
+                        : VALUES[dest] / VALUES[src] * (0.98 + random.nextDouble() / 100);
+                lines.add(String.format("2018-05-26T09:%02d:%02d+00:00 %s %s %s %.8f %.8f", i / 60 % 60, i % 60,
+                        exchange, CURRENCIES[src], CURRENCIES[dest], forward, backward));
+            }
+        }
+        return lines;
+    }
+
+    private static String console(List<String> lines) {
+        LineProtocol protocol = new LineProtocol(new ExchangeRateGraph());
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            if (LineProtocol.isExit(line)) {
+                expected.append(LineProtocol.BYE).append(NEW_LINE);
+                break;
+            }
+            expected.append(protocol.respond(line)).append(NEW_LINE);
+        }
+        return expected.toString();
+    }
+
+    private static String pipeline(List<String> lines, WaitStrategy waitStrategy) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Pipeline pipeline = new Pipeline(new ConcurrentExchangeRateGraph(), new PrintStream(output, false, "UTF-8"),
+                64, 3, waitStrategy);
+        for (String line : lines) {
+            if (!pipeline.accept(line)) {
+                break;
+            }
+        }
+        pipeline.close();
+        for (Stage stage : Stage.values()) {
+            assertEquals(0, pipeline.getQueueDepth(stage));
+        }
+        return new String(output.toByteArray(), "UTF-8");
+    }
+
+    @Test
+    void answeredLikeConsole() throws Exception {
+        List<String> lines = lines(2000);
+        String expected = console(lines);
+        for (String waitStrategy : new String[]{"busy-spin", "yielding", "sleeping", "blocking"}) {
+            assertEquals(expected, pipeline(lines, WaitStrategy.named(waitStrategy)), waitStrategy);
+        }
+    }
+
+    @Test
+    void changeSetsPrintedAfterTheirUpdates() throws Exception {
+        List<String> lines = lines(2000);
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Pipeline pipeline = new Pipeline(graph, new PrintStream(output, false, "UTF-8"), 64, 3, WaitStrategy.yielding());
+        pipeline.printChangeSets();
+        for (String line : lines) {
+            pipeline.accept(line);
+        }
+        pipeline.close();
+
+        /* each change set follows a price update whole, and leaving them out leaves the console's answers */
+        BufferedReader reader = new BufferedReader(new StringReader(new String(output.toByteArray(), "UTF-8")));
+        StringBuilder answers = new StringBuilder();
+        String previous = null;
+        long version = 0;
+        int changeSets = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("BEST_RATES_CHANGED ")) {
+                assertEquals(LineProtocol.PRICE_UPDATE_RECEIVED.trim(), previous);
+                String[] header = line.split(" ");
+                assertTrue(Long.parseLong(header[1]) > version, line);
+                version = Long.parseLong(header[1]);
+                for (int i = Integer.parseInt(header[2]); i > 0; i--) {
+                    assertEquals(10, reader.readLine().split(" ").length);
+                }
+                assertEquals("BEST_RATES_CHANGED_END", reader.readLine());
+                assertEquals("", reader.readLine());
+                changeSets++;
+            } else {
+                answers.append(line).append(NEW_LINE);
+                if (!line.isEmpty()) {
+                    previous = line;
+                }
+            }
+        }
+        assertTrue(changeSets > 0);
+        assertEquals(graph.getVersion(), version);
+        assertEquals(console(lines), answers.toString());
+    }
+
+    @Test
+    void noLinesTakenAfterExit() throws Exception {
+        List<String> lines = lines(100);
+        lines.add(50, "x");
+        assertEquals(console(lines), pipeline(lines, WaitStrategy.blocking()));
+
+        Pipeline pipeline = new Pipeline(new ConcurrentExchangeRateGraph(), new PrintStream(new ByteArrayOutputStream()),
+                4, 1, WaitStrategy.blocking());
+        assertFalse(pipeline.accept("X"));
+        assertThrows(IllegalStateException.class, () -> pipeline.accept("hello"));
+        pipeline.close();
+    }
+
+    @Test
+    void failedStageThrownFromClose() {
+        List<String> lines = lines(2000);
+        for (String waitStrategy : new String[]{"busy-spin", "blocking"}) {
+            RuntimeException failure = new IllegalArgumentException("formatter failed");
+            AtomicInteger formatted = new AtomicInteger();
+            Pipeline pipeline = new Pipeline(new ConcurrentExchangeRateGraph(), new PrintStream(new ByteArrayOutputStream()),
+                    16, 2, WaitStrategy.named(waitStrategy), response -> {
+                        if (formatted.incrementAndGet() == 20) {
+                            throw failure;
+                        }
+                        return OutputFormatter.format(response);
+                    });
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                int accepted = 0;
+                while (accepted < lines.size() && pipeline.accept(lines.get(accepted))) {
+                    accepted++;
+                }
+                assertTrue(accepted < lines.size(), waitStrategy);
+                assertSame(failure, assertThrows(IllegalArgumentException.class, pipeline::close), waitStrategy);
+            }, waitStrategy);
+        }
+    }
+
+    @Test
+    void ringSizeMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new Pipeline(new ConcurrentExchangeRateGraph(),
+                System.out, 48, 2, WaitStrategy.yielding()));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tech.tenx.terp.model.ConcurrentExchangeRateGraph;
+import tech.tenx.terp.model.ExchangeRateGraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateServerTest {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private RateServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new RateServer(new ConcurrentExchangeRateGraph(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+    }
+
+    private String exchange(String lines) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write(lines.getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void pipelinedLinesAnsweredLikeConsole() throws IOException {
+        String[] lines = {
+                "2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0009",
+                "2018-05-26T09:42:24+00:00 GDAX BTC USD 1001.0 0.0009",
+                "2018-05-26T09:42:25+00:00 GDAX BTC USD 1001.0 0.1",
+                "hello",
+                "EXCHANGE_RATE_REQUEST KRAKEN BTC GDAX USD",
+                "x",
+                "EXCHANGE_RATE_REQUEST KRAKEN BTC KRAKEN USD"
+        };
+        LineProtocol console = new LineProtocol(new ExchangeRateGraph());
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            if (LineProtocol.isExit(line)) {
+                expected.append(LineProtocol.BYE).append(NEW_LINE);
+                break;
+            }
+            expected.append(console.respond(line)).append(NEW_LINE);
+        }
+        assertEquals(expected.toString(), exchange(String.join("\r\n", lines) + "\n"));
+    }
+
+    @Test
+    void linesBeyondLimitInFlightAnsweredInOrder() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 3 * RateServer.MAX_IN_FLIGHT; i++) {
+            lines.append(i % 2 == 0 ? "ARBITRAGE_REQUEST" : "hello").append('\n');
+            expected.append(i % 2 == 0 ? "ARBITRAGE_BEGIN 0" + NEW_LINE + "ARBITRAGE_END" + NEW_LINE
+                    : LineProtocol.INPUT_NOT_RECOGNIZED).append(NEW_LINE);
+        }
+        assertEquals(expected.toString(), exchange(lines.toString()));
+    }
+
+    @Test
+    void tooLongLineNotRecognized() throws IOException {
+        char[] longLine = new char[3 * RateServer.MAX_LINE_LENGTH];
+        Arrays.fill(longLine, 'a');
+        assertEquals(LineProtocol.INPUT_NOT_RECOGNIZED + NEW_LINE + LineProtocol.BYE + NEW_LINE,
+                exchange(new String(longLine) + "\nx\n"));
+    }
+
+    @Test
+    void concurrentClientsSeeOwnUpdates() throws Exception {
+        int clients = 8;
+        int updates = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                StringBuilder lines = new StringBuilder();
+                for (int u = 0; u < updates; u++) {
+                    lines.append(String.format("2018-05-26T09:%02d:%02d+00:00 EX BTC%d USD%d %d 0.0008%n",
+                            u / 60, u % 60, c, c, 1000 + u));
+                    lines.append(String.format("EXCHANGE_RATE_REQUEST EX BTC%d EX USD%d%n", c, c));
+                }
+                String feed = lines.toString();
+                responses.add(executor.submit(() -> exchange(feed)));
+            }
+            for (int c = 0; c < clients; c++) {
+                String response = responses.get(c).get();
+                int from = 0;
+                for (int u = 0; u < updates; u++) {
+                    from = response.indexOf(LineProtocol.PRICE_UPDATE_RECEIVED, from);
+                    assertTrue(from >= 0);
+                    String bestRate = String.format("BEST_RATES_BEGIN ex btc%d ex usd%d %d%n", c, c, 1000 + u);
+                    from = response.indexOf(bestRate, from);
+                    assertTrue(from >= 0, bestRate);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
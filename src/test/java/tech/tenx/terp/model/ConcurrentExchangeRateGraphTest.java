@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentExchangeRateGraphTest {
+
+    private static final ExchangeCurrency KRAKEN_BTC = new ExchangeCurrency("kraken", "btc");
+    private static final ExchangeCurrency KRAKEN_USD = new ExchangeCurrency("kraken", "usd");
+    private static final ExchangeCurrency GDAX_BTC = new ExchangeCurrency("gdax", "btc");
+    private static final ExchangeCurrency GDAX_USD = new ExchangeCurrency("gdax", "usd");
+
+    @Test
+    void responsesCarrySnapshotVersion() {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        BestRateRequest request = new BestRateRequest(KRAKEN_BTC, KRAKEN_USD);
+        assertNull(graph.getBestRate(request).getRate());
+        assertEquals(0, graph.getBestRate(request).getVersion());
+
+        OffsetDateTime now = OffsetDateTime.now();
+        graph.addOrUpdateExchangeRate(new ExchangeRate(now, KRAKEN_BTC, KRAKEN_USD, new BigDecimal("10000")));
+        BestRateResponse response = graph.getBestRate(request);
+        assertEquals(new BigDecimal("10000"), response.getRate());
+        assertEquals(1, response.getVersion());
+
+        graph.addOrUpdateExchangeRate(new ExchangeRate(now.minusSeconds(1), KRAKEN_BTC, KRAKEN_USD, new BigDecimal("1")));
+        assertEquals(1, graph.getBestRate(request).getVersion());
+    }
+
+    @Test
+    void readersSeeConsistentSnapshots() throws Exception {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        OffsetDateTime start = OffsetDateTime.now();
+        graph.addOrUpdateExchangeRate(
+                new ExchangeRate(start, KRAKEN_BTC, KRAKEN_USD, new BigDecimal("10000")),
+                new ExchangeRate(start, GDAX_BTC, GDAX_USD, new BigDecimal("10000")));
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                long lastVersion = 0;
+                BestRateRequest request = new BestRateRequest(KRAKEN_BTC, GDAX_USD);
+                try {
+                    while (writing.get()) {
+                        BestRateResponse response = graph.getBestRate(request);
+                        assertTrue(response.getVersion() >= lastVersion);
+                        lastVersion = response.getVersion();
+                        List<ExchangeCurrency> steps = response.getPath().getSteps();
+                        BigDecimal product = BigDecimal.ONE;
+                        for (int i = 1; i < steps.size(); i++) {
+                            product = product.multiply(
+                                    response.getOriginalRates().get(steps.get(i - 1)).get(steps.get(i)).getRate());
+                        }
+                        assertEquals(0, product.compareTo((BigDecimal) response.getRate()));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+
+        for (int u = 1; u <= 2000; u++) {
+            OffsetDateTime timestamp = start.plusSeconds(u);
+            ExchangeCurrency src = u % 2 == 0 ? KRAKEN_BTC : GDAX_BTC;
+            ExchangeCurrency dest = u % 2 == 0 ? KRAKEN_USD : GDAX_USD;
+            graph.addOrUpdateExchangeRate(new ExchangeRate(timestamp, src, dest, BigDecimal.valueOf(9000 + u % 1000)));
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(2001, graph.getVersion());
+    }
+
+    @Test
+    void publishedSnapshotsShareWhatUpdatesLeaveUnchanged() {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        OffsetDateTime now = OffsetDateTime.now();
+        graph.addOrUpdateExchangeRate(
+                new ExchangeRate(now, KRAKEN_BTC, KRAKEN_USD, new BigDecimal("10000")),
+                new ExchangeRate(now, GDAX_BTC, GDAX_USD, new BigDecimal("9000")));
+        BestRateSnapshot before = graph.snapshot();
+
+        graph.addOrUpdateExchangeRate(new ExchangeRate(now.plusSeconds(1), KRAKEN_BTC, KRAKEN_USD, new BigDecimal("11000")));
+        BestRateSnapshot after = graph.snapshot();
+
+        BestRateRequest request = new BestRateRequest(GDAX_BTC, GDAX_USD);
+        assertEquals(new BigDecimal("10000"), before.getBestRate(request).getRate());
+        assertEquals(new BigDecimal("11000"), after.getBestRate(request).getRate());
+        assertSame(before.rates.get(GDAX_BTC), after.rates.get(GDAX_BTC));
+        assertNotSame(before.rates.get(KRAKEN_BTC), after.rates.get(KRAKEN_BTC));
+        assertNotSame(before.matrix, after.matrix);
+    }
+
+    @Test
+    void lazyUpdatesPublishedByNextQuery() {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        graph.setLazyUpdates(true);
+        OffsetDateTime now = OffsetDateTime.now();
+        graph.addOrUpdateExchangeRate(new ExchangeRate(now, KRAKEN_BTC, KRAKEN_USD, new BigDecimal("10000")));
+        graph.addOrUpdateExchangeRate(new ExchangeRate(now, GDAX_BTC, GDAX_USD, new BigDecimal("9000")));
+
+        BestRateResponse response = graph.getBestRate(new BestRateRequest(GDAX_BTC, KRAKEN_USD));
+        assertEquals(new BigDecimal("10000"), response.getRate());
+        assertEquals(2, response.getVersion());
+        assertEquals(2, graph.getVersion());
+    }
+
+    @Test
+    void singleSourceAnswersLikeAllPairs() {
+        ConcurrentExchangeRateGraph allPairs = new ConcurrentExchangeRateGraph();
+        ConcurrentExchangeRateGraph singleSource = new ConcurrentExchangeRateGraph();
+        singleSource.setSearchStrategy(SearchStrategy.SINGLE_SOURCE);
+        OffsetDateTime now = OffsetDateTime.now();
+        for (ConcurrentExchangeRateGraph graph : new ConcurrentExchangeRateGraph[]{allPairs, singleSource}) {
+            graph.addOrUpdateExchangeRate(
+                    new ExchangeRate(now, KRAKEN_BTC, KRAKEN_USD, new BigDecimal("10000")),
+                    new ExchangeRate(now, GDAX_BTC, GDAX_USD, new BigDecimal("9000")));
+        }
+
+        BestRateRequest request = new BestRateRequest(GDAX_BTC, KRAKEN_USD);
+        BestRateResponse expected = allPairs.getBestRate(request);
+        BestRateResponse actual = singleSource.getBestRate(request);
+        assertEquals(expected.getRate(), actual.getRate());
+        assertEquals(expected.getPath().getSteps(), actual.getPath().getSteps());
+        assertEquals(expected.getVersion(), actual.getVersion());
+    }
+}
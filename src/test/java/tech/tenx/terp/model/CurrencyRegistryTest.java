@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CurrencyRegistryTest {
+
+    private CurrencyRegistry registry = CurrencyRegistry.global();
+
+    @Test
+    void internedOnceIgnoringCase() {
+        ExchangeCurrency interned = registry.intern("RegistryTest", "BTC");
+        assertSame(interned, registry.intern("registrytest", "btc"));
+        assertSame(interned, registry.intern(new ExchangeCurrency("REGISTRYTEST", "Btc")));
+        String line = "EXCHANGE_RATE_REQUEST registryTEST bTc";
+        assertSame(interned, registry.intern(line, 22, 34, line, 35, 38));
+        assertEquals(new ExchangeCurrency("registrytest", "btc"), interned);
+        assertEquals(new ExchangeCurrency("registrytest", "btc").hashCode(), interned.hashCode());
+        assertEquals("registrytest btc", interned.toString());
+    }
+
+    @Test
+    void idsDense() {
+        int size = registry.size();
+        for (int i = 0; i < 1000; i++) {
+            ExchangeCurrency interned = registry.intern("registrytest" + i, "usd");
+            assertEquals(size + i, interned.id);
+            assertSame(interned, registry.get(interned.id));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(size + i, registry.idOf(new ExchangeCurrency("registrytest" + i, "usd")));
+        }
+        assertEquals(size + 1000, registry.size());
+        assertEquals(CurrencyRegistry.NO_ID, registry.idOf(new ExchangeCurrency("registrytest", "never interned")));
+    }
+
+    @Test
+    void idsLookedUpWhileRegistryLocked() throws InterruptedException {
+        ExchangeCurrency interned = registry.intern("registrytest", "eth");
+        int[] id = {CurrencyRegistry.NO_ID};
+        Thread lookup = new Thread(() -> id[0] = registry.idOf(new ExchangeCurrency("registrytest", "eth")));
+        synchronized (registry) {
+            lookup.start();
+            lookup.join(10_000);
+        }
+        assertEquals(interned.id, id[0]);
+    }
+
+    @Test
+    void currenciesFoundWhileRegistryLocked() throws InterruptedException {
+        ExchangeCurrency interned = registry.intern("registrytest", "xrp");
+        ExchangeCurrency[] found = new ExchangeCurrency[1];
+        Thread lookup = new Thread(() -> found[0] = registry.find("REGISTRYTEST", "XRP"));
+        synchronized (registry) {
+            lookup.start();
+            lookup.join(10_000);
+        }
+        assertSame(interned, found[0]);
+    }
+
+    @Test
+    void currenciesFoundWhileInterned() throws InterruptedException {
+        int count = 5000;
+        Thread interning = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                registry.intern("registryfind" + i, "usd");
+            }
+        });
+        interning.start();
+        for (int i = 0; i < count; i++) {
+            ExchangeCurrency found = registry.find("REGISTRYFIND" + i, "USD");
+            assertEquals(new ExchangeCurrency("registryfind" + i, "usd"), found);
+            if (registry.idOf(found) != CurrencyRegistry.NO_ID) {
+                assertSame(registry.get(registry.idOf(found)), registry.find("registryfind" + i, "usd"));
+            }
+        }
+        interning.join();
+        for (int i = 0; i < count; i++) {
+            assertSame(registry.intern("registryfind" + i, "usd"), registry.find("RegistryFind" + i, "Usd"));
+        }
+    }
+
+    @Test
+    void nonAsciiInternedLikeConstructor() {
+        ExchangeCurrency interned = registry.intern("B\u00d6rse", "\u00c4UD");
+        assertSame(interned, registry.intern(new ExchangeCurrency("b\u00f6rse", "\u00e4ud")));
+    }
+}
@@ -22,7 +22,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -321,4 +331,615 @@ class ExchangeRateGraphTest {
         assertTrue(response.getPath().isEmpty());
         assertFalse(response.getPath().isCircular());
     }
+
+    @Test
+    void logSpaceBestRateCorrect() {
+        exchangeRateGraph.useLogSpaceSearch(0);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_USD_BTC);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_ETH);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_ETH_BTC);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_ETH_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_USD_ETH);
+        exchangeRateGraph.addOrUpdateExchangeRate(KRAKEN_ETH_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(KRAKEN_USD_ETH);
+
+        BestRateResponse response = exchangeRateGraph.getBestRate(new BestRateRequest(BITFINEX_BTC, KRAKEN_ETH));
+        assertEquals(response.getRate(), BITFINEX_BTC_ETH.getRate());
+        assertEquals(response.getPath().getSteps().size(), 3);
+
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(KRAKEN_USD, BITFINEX_ETH));
+        assertEquals(response.getRate(), BITFINEX_USD_BTC.getRate().multiply(BITFINEX_BTC_ETH.getRate()));
+        assertEquals(response.getPath().getSteps().size(), 4);
+
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(BITFINEX_ETH, BITFINEX_USD));
+        assertEquals(response.getRate(), KRAKEN_ETH_USD.getRate());
+        assertEquals(response.getPath().getSteps().size(), 4);
+        assertFalse(response.getPath().isCircular());
+
+        exchangeRateGraph.addOrUpdateExchangeRate(GDAX_BTC_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(GDAX_USD_BTC);
+
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(BITFINEX_BTC, GDAX_BTC));
+        assertEquals(response.getRate(), Double.POSITIVE_INFINITY);
+        assertTrue(response.getPath().isCircular());
+    }
+
+    @Test
+    void logSpaceNearTiesKeepFirstPath() {
+        ExchangeCurrency krakenBtc = new ExchangeCurrency("kraken", "btc");
+        OffsetDateTime now = OffsetDateTime.now();
+        ExchangeRate ethUsd = new ExchangeRate(now, KRAKEN_ETH, KRAKEN_USD, new BigDecimal("10"));
+        ExchangeRate ethBtc = new ExchangeRate(now, KRAKEN_ETH, krakenBtc, new BigDecimal("3.5"));
+        ExchangeRate btcUsd = new ExchangeRate(now, krakenBtc, KRAKEN_USD, new BigDecimal("3"));
+        exchangeRateGraph.addOrUpdateExchangeRate(ethUsd, ethBtc, btcUsd);
+
+        exchangeRateGraph.useLogSpaceSearch(0.1);
+        BestRateResponse response = exchangeRateGraph.getBestRate(new BestRateRequest(KRAKEN_ETH, KRAKEN_USD));
+        assertEquals(response.getRate(), ethUsd.getRate());
+        assertEquals(response.getPath().getSteps().size(), 2);
+
+        exchangeRateGraph.useLogSpaceSearch(0);
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(KRAKEN_ETH, KRAKEN_USD));
+        assertEquals(response.getRate(), ethBtc.getRate().multiply(btcUsd.getRate()));
+        assertEquals(response.getPath().getSteps().size(), 3);
+    }
+
+    @Test
+    void pathRateDigitsBounded() {
+        int chainLength = 200;
+        ExchangeCurrency first = new ExchangeCurrency("kraken", "c0");
+        ExchangeCurrency previous = first;
+        OffsetDateTime now = OffsetDateTime.now();
+        for (int i = 1; i < chainLength; i++) {
+            ExchangeCurrency next = new ExchangeCurrency("kraken", "c" + i);
+            exchangeRateGraph.addOrUpdateExchangeRate(
+                    new ExchangeRate(now, previous, next, new BigDecimal("1.0000001")),
+                    new ExchangeRate(now, next, previous, new BigDecimal("0.99")));
+            previous = next;
+        }
+        BestRateRequest request = new BestRateRequest(first, previous);
+
+        BestRateResponse response = exchangeRateGraph.getBestRate(request);
+        assertEquals(response.getPath().getSteps().size(), chainLength);
+        assertTrue(((BigDecimal) response.getRate()).precision() <= MathContext.DECIMAL128.getPrecision());
+
+        exchangeRateGraph.setMathContext(MathContext.UNLIMITED);
+        response = exchangeRateGraph.getBestRate(request);
+        assertTrue(((BigDecimal) response.getRate()).precision() > MathContext.DECIMAL128.getPrecision());
+    }
+
+    @Test
+    void incrementalUpdatesMatchFullRecompute() {
+        /* spreads below the fee keep the graph free of cycles, wider ones do not */
+        assertMatchesFullRecompute(graph -> { }, 0.001, 1);
+        assertMatchesFullRecompute(graph -> { }, 0.05, 2);
+        /* price lines of a batch can worsen rates the others' best paths take */
+        for (long seed = 0; seed < 10; seed++) {
+            assertMatchesFullRecompute(graph -> { }, 0.001, MathContext.DECIMAL64, 4, seed);
+            assertMatchesFullRecompute(graph -> { }, 0.05, MathContext.DECIMAL64, 4, seed);
+        }
+    }
+
+    @Test
+    void incrementalUpdatesWithEqualRatesMatchFullRecompute() {
+        /* rates of three digits are often equal on different exchanges, which ties their paths */
+        assertMatchesFullRecompute(graph -> { }, 0.001, new MathContext(3), 7);
+    }
+
+    @Test
+    void batchedUpdatesMatchLinesOneByOne() {
+        /* as many lines as the console pipeline gathers while requests are answered */
+        for (long seed = 20; seed < 25; seed++) {
+            assertMatchesFullRecompute(graph -> { }, 0.001, MathContext.DECIMAL64, 16, seed);
+            assertMatchesFullRecompute(graph -> { }, 0.001, new MathContext(3), 16, seed);
+        }
+    }
+
+    @Test
+    void singleSourceSearchMatchesFullRecompute() {
+        assertMatchesFullRecompute(graph -> graph.setSearchStrategy(SearchStrategy.SINGLE_SOURCE), 0.001, 3);
+        assertMatchesFullRecompute(graph -> graph.setSearchStrategy(SearchStrategy.SINGLE_SOURCE), 0.05, 4);
+    }
+
+    @Test
+    void sameCurrencyRatesMatchCurrencyHubs() {
+        assertMatchesFullRecompute(graph -> graph.setCurrencyHubs(false), 0.001, 5);
+        assertMatchesFullRecompute(graph -> graph.setCurrencyHubs(false), 0.05, 6);
+    }
+
+    @Test
+    void currencyHubsNotInPath() {
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_USD, GDAX_BTC_USD, KRAKEN_USD_ETH);
+        BestRateResponse response = exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, KRAKEN_ETH));
+        assertEquals(Arrays.asList(GDAX_BTC, BITFINEX_BTC, BITFINEX_USD, KRAKEN_USD, KRAKEN_ETH), response.getPath().getSteps());
+        assertEquals(0, new BigDecimal("9.81").compareTo((BigDecimal) response.getRate()));
+        assertThrows(IllegalStateException.class, () -> exchangeRateGraph.setCurrencyHubs(false));
+    }
+
+    @Test
+    void batchedRequestsMatchSingleRequests() {
+        assertBatchMatchesSingleRequests(new ExchangeRateGraph(), false);
+        assertBatchMatchesSingleRequests(new ExchangeRateGraph(), true);
+        assertBatchMatchesSingleRequests(new ConcurrentExchangeRateGraph(), true);
+        ExchangeRateGraph singleSource = new ExchangeRateGraph();
+        singleSource.setSearchStrategy(SearchStrategy.SINGLE_SOURCE);
+        assertBatchMatchesSingleRequests(singleSource, true);
+    }
+
+    private void assertBatchMatchesSingleRequests(ExchangeRateGraph graph, boolean parallel) {
+        Random random = new Random(8);
+        int exchanges = 3;
+        int currencies = 6;
+        /* few digits round every product, so prefixes must be multiplied in the same order */
+        graph.setMathContext(new MathContext(5));
+        List<BestRateRequest> requests = new ArrayList<>();
+        for (int e = 0; e < exchanges; e++) {
+            for (int c = 0; c < currencies; c++) {
+                for (int e2 = 0; e2 < exchanges; e2++) {
+                    for (int c2 = 0; c2 < currencies; c2++) {
+                        requests.add(new BestRateRequest(new ExchangeCurrency("exchange" + e, "currency" + c),
+                                new ExchangeCurrency("exchange" + e2, "currency" + c2)));
+                    }
+                }
+            }
+        }
+        requests.add(new BestRateRequest(new ExchangeCurrency("nowhere", "currency0"), KRAKEN_USD));
+        requests.add(requests.get(7));
+        Collections.shuffle(requests, random);
+
+        OffsetDateTime timestamp = OffsetDateTime.now();
+        for (int update = 0; update < 60; update++) {
+            int e = random.nextInt(exchanges);
+            int c1 = random.nextInt(currencies);
+            int c2 = (c1 + 1 + random.nextInt(currencies - 1)) % currencies;
+            timestamp = timestamp.plusSeconds(1);
+            /* rates above one in both directions make cycles too */
+            graph.addOrUpdateExchangeRate(new ExchangeRate(timestamp, new ExchangeCurrency("exchange" + e, "currency" + c1),
+                    new ExchangeCurrency("exchange" + e, "currency" + c2), BigDecimal.valueOf(0.3 + random.nextDouble() * 0.8)));
+
+            List<BestRateResponse> responses = graph.getBestRates(requests, parallel);
+            assertEquals(requests.size(), responses.size());
+            for (int r = 0; r < requests.size(); r++) {
+                BestRateResponse expected = graph.getBestRate(requests.get(r));
+                BestRateResponse actual = responses.get(r);
+                assertSame(requests.get(r), actual.getRequest());
+                assertEquals(expected.getRate(), actual.getRate());
+                assertEquals(expected.getPath().getSteps(), actual.getPath().getSteps());
+                assertEquals(expected.getVersion(), actual.getVersion());
+            }
+        }
+    }
+
+    @Test
+    void changeSetsKeepCopyOfBestRates() {
+        assertChangeSetsKeepCopy(new ExchangeRateGraph());
+        ExchangeRateGraph fullRecomputes = new ExchangeRateGraph();
+        fullRecomputes.setIncrementalUpdates(false);
+        assertChangeSetsKeepCopy(fullRecomputes);
+        ExchangeRateGraph sameCurrencyRates = new ExchangeRateGraph();
+        sameCurrencyRates.setCurrencyHubs(false);
+        assertChangeSetsKeepCopy(sameCurrencyRates);
+        assertChangeSetsKeepCopy(new ConcurrentExchangeRateGraph());
+    }
+
+    private void assertChangeSetsKeepCopy(ExchangeRateGraph graph) {
+        Random random = new Random(9);
+        int exchanges = 3;
+        int currencies = 4;
+        double[] prices = new double[currencies];
+        for (int c = 0; c < currencies; c++) {
+            prices[c] = Math.exp(random.nextGaussian() * 3);
+        }
+        Map<List<ExchangeCurrency>, BestRateChangeSet.Cell> copy = new HashMap<>();
+        List<BestRateChangeSet> changeSets = new ArrayList<>();
+        graph.addChangeSetListener(changes -> {
+            changeSets.add(changes);
+            for (BestRateChangeSet.Cell cell : changes) {
+                copy.put(Arrays.asList(cell.getSrcCurrency(), cell.getDestCurrency()), cell);
+            }
+        });
+
+        OffsetDateTime timestamp = OffsetDateTime.now();
+        for (int update = 0; update < 100; update++) {
+            int e = random.nextInt(exchanges);
+            int c1 = random.nextInt(currencies);
+            int c2 = (c1 + 1 + random.nextInt(currencies - 1)) % currencies;
+            ExchangeCurrency src = new ExchangeCurrency("exchange" + e, "currency" + c1);
+            ExchangeCurrency dest = new ExchangeCurrency("exchange" + e, "currency" + c2);
+            double midRate = prices[c1] / prices[c2] * (1 + (random.nextDouble() - 0.5) * 0.001);
+            timestamp = timestamp.plusSeconds(1);
+            int changeSetCount = changeSets.size();
+            graph.addOrUpdateExchangeRate(new ExchangeRate(timestamp, src, dest, new BigDecimal(midRate * 0.998)),
+                    new ExchangeRate(timestamp, dest, src, new BigDecimal(0.998 / midRate)));
+            assertTrue(changeSets.size() <= changeSetCount + 1);
+            if (changeSets.size() > changeSetCount) {
+                assertEquals(graph.getVersion(), changeSets.get(changeSetCount).getVersion());
+                assertFalse(changeSets.get(changeSetCount).isEmpty());
+            }
+
+            for (int e1 = 0; e1 < exchanges; e1++) {
+                for (int e2 = 0; e2 < exchanges; e2++) {
+                    for (int d1 = 0; d1 < currencies; d1++) {
+                        for (int d2 = 0; d2 < currencies; d2++) {
+                            ExchangeCurrency from = new ExchangeCurrency("exchange" + e1, "currency" + d1);
+                            ExchangeCurrency to = new ExchangeCurrency("exchange" + e2, "currency" + d2);
+                            assertCopied(graph.getBestRate(new BestRateRequest(from, to)),
+                                    copy.get(Arrays.asList(from, to)));
+                        }
+                    }
+                }
+            }
+        }
+
+        /* an outdated rate changes nothing */
+        ExchangeCurrency src = new ExchangeCurrency("exchange0", "currency0");
+        ExchangeCurrency dest = new ExchangeCurrency("exchange0", "currency1");
+        graph.addOrUpdateExchangeRate(new ExchangeRate(timestamp, src, dest, BigDecimal.ONE));
+        int changeSetCount = changeSets.size();
+        graph.addOrUpdateExchangeRate(new ExchangeRate(timestamp.minusSeconds(1), src, dest, BigDecimal.TEN));
+        assertEquals(changeSetCount, changeSets.size());
+    }
+
+    private static void assertCopied(BestRateResponse response, BestRateChangeSet.Cell cell) {
+        List<ExchangeCurrency> steps = response.getPath().getSteps();
+        if (response.getRate() == null) {
+            assertTrue(cell == null || cell.getRate() == null);
+            assertTrue(cell == null || cell.getNextCurrency() == null);
+            return;
+        }
+        assertNotNull(cell, () -> "No copy of " + response);
+        double rate = ((BigDecimal) response.getRate()).doubleValue();
+        assertEquals(rate, cell.getRate(), rate * 1e-9);
+        assertEquals(steps.size() > 1 ? steps.get(1) : null, cell.getNextCurrency());
+    }
+
+    private void assertMatchesFullRecompute(Consumer<ExchangeRateGraph> configuration, double spread, long seed) {
+        assertMatchesFullRecompute(configuration, spread, MathContext.DECIMAL64, seed);
+    }
+
+    private void assertMatchesFullRecompute(Consumer<ExchangeRateGraph> configuration, double spread,
+                                            MathContext rateContext, long seed) {
+        assertMatchesFullRecompute(configuration, spread, rateContext, 1, seed);
+    }
+
+    private void assertMatchesFullRecompute(Consumer<ExchangeRateGraph> configuration, double spread,
+                                            MathContext rateContext, int maxLines, long seed) {
+        assertMatchesFullRecompute(configuration, spread, rateContext, maxLines, 1, seed);
+    }
+
+    /*
+     * each update carries up to maxLines price lines, of both rates between two
+     * currencies, and with more than one a graph taking the lines one by one
+     * must answer alike. The graphs are asked after every updatesPerQuery updates.
+     */
+    private void assertMatchesFullRecompute(Consumer<ExchangeRateGraph> configuration, double spread,
+                                            MathContext rateContext, int maxLines, int updatesPerQuery, long seed) {
+        Random random = new Random(seed);
+        int exchanges = 3;
+        int currencies = 5;
+        double fee = 0.002;
+        double[] prices = new double[currencies];
+        for (int c = 0; c < currencies; c++) {
+            prices[c] = Math.exp(random.nextGaussian() * 3);
+        }
+        List<ExchangeCurrency> allCurrencies = new ArrayList<>();
+        for (int e = 0; e < exchanges; e++) {
+            for (int c = 0; c < currencies; c++) {
+                allCurrencies.add(new ExchangeCurrency("exchange" + e, "currency" + c));
+            }
+        }
+
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        configuration.accept(graph);
+        ExchangeRateGraph fullGraph = new ExchangeRateGraph();
+        fullGraph.setIncrementalUpdates(false);
+        ExchangeRateGraph lineGraph = new ExchangeRateGraph();
+        configuration.accept(lineGraph);
+        OffsetDateTime timestamp = OffsetDateTime.now();
+        for (int update = 0; update < 300; update++) {
+            int lines = maxLines == 1 ? 1 : 1 + random.nextInt(maxLines);
+            List<ExchangeRate> rates = new ArrayList<>();
+            timestamp = timestamp.plusSeconds(1);
+            for (int line = 0; line < lines; line++) {
+                int e = random.nextInt(exchanges);
+                int c1 = random.nextInt(currencies);
+                int c2 = (c1 + 1 + random.nextInt(currencies - 1)) % currencies;
+                ExchangeCurrency src = allCurrencies.get(e * currencies + c1);
+                ExchangeCurrency dest = allCurrencies.get(e * currencies + c2);
+                double midRate = prices[c1] / prices[c2] * (1 + (random.nextDouble() - 0.5) * spread);
+                rates.add(new ExchangeRate(timestamp, src, dest, new BigDecimal(midRate * (1 - fee), rateContext)));
+                rates.add(new ExchangeRate(timestamp, dest, src, new BigDecimal((1 - fee) / midRate, rateContext)));
+            }
+            graph.addOrUpdateExchangeRate(rates.toArray(new ExchangeRate[0]));
+            fullGraph.addOrUpdateExchangeRate(rates.toArray(new ExchangeRate[0]));
+            if (maxLines > 1) {
+                for (int line = 0; line < lines; line++) {
+                    lineGraph.addOrUpdateExchangeRate(rates.get(2 * line), rates.get(2 * line + 1));
+                }
+            }
+            if ((update + 1) % updatesPerQuery != 0) {
+                continue;
+            }
+
+            for (ExchangeCurrency srcCurrency : allCurrencies) {
+                for (ExchangeCurrency destCurrency : allCurrencies) {
+                    BestRateRequest request = new BestRateRequest(srcCurrency, destCurrency);
+                    BestRateResponse response = graph.getBestRate(request);
+                    assertSameBestRate(fullGraph.getBestRate(request), response);
+                    if (maxLines > 1) {
+                        assertSameBestRate(lineGraph.getBestRate(request), response);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameBestRate(BestRateResponse expected, BestRateResponse actual) {
+        assertEquals(expected.getPath().isCircular(), actual.getPath().isCircular());
+        if (expected.getRate() instanceof BigDecimal && actual.getRate() instanceof BigDecimal) {
+            /* equally good paths may differ in the last digits of their rates */
+            BigDecimal expectedRate = (BigDecimal) expected.getRate();
+            BigDecimal difference = expectedRate.subtract((BigDecimal) actual.getRate()).abs();
+            assertTrue(difference.compareTo(expectedRate.scaleByPowerOfTen(-9)) <= 0,
+                    () -> "Expected " + expectedRate + " but was " + actual.getRate());
+        } else {
+            assertEquals(expected.getRate(), actual.getRate());
+        }
+    }
+
+    @Test
+    void expiredRatesRemovedWithTheirCurrencies() {
+        OffsetDateTime start = OffsetDateTime.parse("2018-05-26T09:42:23+00:00");
+        exchangeRateGraph.setRateTimeToLive(Duration.ofSeconds(60));
+        exchangeRateGraph.setRateTimeToLive("KRAKEN", Duration.ofSeconds(10));
+        exchangeRateGraph.addOrUpdateExchangeRate(
+                new ExchangeRate(start, KRAKEN_ETH, KRAKEN_USD, new BigDecimal("1001")),
+                new ExchangeRate(start, GDAX_BTC, GDAX_USD, new BigDecimal("9999.9")),
+                new ExchangeRate(start.plusSeconds(30), GDAX_USD, GDAX_BTC, new BigDecimal("0.0001")));
+        long version = exchangeRateGraph.getVersion();
+        assertEquals(BigDecimal.ONE, exchangeRateGraph.getExchangeRate(GDAX_USD, KRAKEN_USD).getRate());
+
+        assertEquals(0, exchangeRateGraph.expireRates(start.plusSeconds(9)));
+        assertEquals(version, exchangeRateGraph.getVersion());
+
+        assertEquals(1, exchangeRateGraph.expireRates(start.plusSeconds(10)));
+        assertEquals(version + 1, exchangeRateGraph.getVersion());
+        assertNull(exchangeRateGraph.getExchangeRate(KRAKEN_ETH, KRAKEN_USD));
+        assertNull(exchangeRateGraph.getExchangeRate(GDAX_USD, KRAKEN_USD));
+        assertNull(exchangeRateGraph.getExchangeRate(KRAKEN_USD, GDAX_USD));
+        assertNull(exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, KRAKEN_USD)).getRate());
+        assertEquals(new BigDecimal("9999.9"),
+                exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, GDAX_USD)).getRate());
+
+        /* the way back keeps the gdax currencies, quoted until later */
+        assertEquals(1, exchangeRateGraph.expireRates(start.plusSeconds(60)));
+        assertNull(exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, GDAX_USD)).getRate());
+        assertEquals(new BigDecimal("0.0001"),
+                exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_USD, GDAX_BTC)).getRate());
+        assertEquals(1, exchangeRateGraph.expireRates(start.plusSeconds(90)));
+        assertEquals(0, exchangeRateGraph.snapshot().currencies.size());
+    }
+
+    @Test
+    void replacedRatesNotExpired() {
+        OffsetDateTime start = OffsetDateTime.parse("2018-05-26T09:42:23+00:00");
+        exchangeRateGraph.addOrUpdateExchangeRate(new ExchangeRate(start, GDAX_BTC, GDAX_USD, new BigDecimal("9999.9")));
+        assertEquals(0, exchangeRateGraph.expireRates(start.plusSeconds(3600)));
+
+        /* rates there already are scheduled once a time to live is set */
+        exchangeRateGraph.setRateTimeToLive(Duration.ofSeconds(60));
+        exchangeRateGraph.addOrUpdateExchangeRate(
+                new ExchangeRate(start.plusSeconds(50), GDAX_BTC, GDAX_USD, new BigDecimal("10000")));
+        assertEquals(0, exchangeRateGraph.expireRates(start.plusSeconds(100)));
+        assertEquals(new BigDecimal("10000"),
+                exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, GDAX_USD)).getRate());
+        assertEquals(1, exchangeRateGraph.expireRates(start.plusSeconds(110)));
+    }
+
+    @Test
+    void bestRatesAfterExpiryMatchThoseOfRemainingRates() {
+        OffsetDateTime start = OffsetDateTime.parse("2018-05-26T09:42:23+00:00");
+        List<ExchangeRate> stale = Arrays.asList(
+                new ExchangeRate(start, BITFINEX_BTC, BITFINEX_USD, new BigDecimal("10000")),
+                new ExchangeRate(start, BITFINEX_USD, BITFINEX_BTC, new BigDecimal("0.0000983")),
+                new ExchangeRate(start, KRAKEN_PAY, KRAKEN_ETH, new BigDecimal("0.002")));
+        List<ExchangeRate> fresh = Arrays.asList(
+                new ExchangeRate(start.plusSeconds(30), BITFINEX_ETH, BITFINEX_USD, new BigDecimal("1000")),
+                new ExchangeRate(start.plusSeconds(30), GDAX_BTC, GDAX_USD, new BigDecimal("9999.9")),
+                new ExchangeRate(start.plusSeconds(30), KRAKEN_ETH, KRAKEN_USD, new BigDecimal("1001")),
+                new ExchangeRate(start.plusSeconds(30), KRAKEN_USD, KRAKEN_ETH, new BigDecimal("0.000981")));
+        List<ExchangeRate> later = Arrays.asList(
+                new ExchangeRate(start.plusSeconds(40), KRAKEN_PAY, KRAKEN_ETH, new BigDecimal("0.0021")),
+                new ExchangeRate(start.plusSeconds(40), BITFINEX_USD, BITFINEX_ETH, new BigDecimal("0.000982")));
+
+        List<ExchangeRateGraph> graphs = Arrays.asList(new ExchangeRateGraph(), new ConcurrentExchangeRateGraph());
+        ExchangeRateGraph sameCurrencyRates = new ExchangeRateGraph();
+        sameCurrencyRates.setCurrencyHubs(false);
+        graphs = new ArrayList<>(graphs);
+        graphs.add(sameCurrencyRates);
+        for (ExchangeRateGraph graph : graphs) {
+            graph.setRateTimeToLive(Duration.ofSeconds(20));
+            List<BestRateChangeSet> changeSets = new ArrayList<>();
+            graph.addChangeSetListener(changeSets::add);
+            graph.addOrUpdateExchangeRate(stale.toArray(new ExchangeRate[0]));
+            graph.addOrUpdateExchangeRate(fresh.toArray(new ExchangeRate[0]));
+            changeSets.clear();
+            assertEquals(3, graph.expireRates(start.plusSeconds(30)));
+
+            /* the pairs of the removed currencies are handed on as having lost their path */
+            assertEquals(1, changeSets.size());
+            boolean payRemoved = false;
+            for (BestRateChangeSet.Cell cell : changeSets.get(0)) {
+                if (cell.getSrcCurrency().equals(KRAKEN_PAY) && cell.getDestCurrency().equals(KRAKEN_ETH)) {
+                    assertEquals(0.002, cell.getPreviousRate(), 1e-12);
+                    assertNull(cell.getRate());
+                    payRemoved = true;
+                }
+            }
+            assertTrue(payRemoved);
+
+            graph.addOrUpdateExchangeRate(later.toArray(new ExchangeRate[0]));
+            ExchangeRateGraph expected = new ExchangeRateGraph();
+            expected.setCurrencyHubs(graph != sameCurrencyRates);
+            expected.addOrUpdateExchangeRate(fresh.toArray(new ExchangeRate[0]));
+            expected.addOrUpdateExchangeRate(later.toArray(new ExchangeRate[0]));
+            List<ExchangeCurrency> currencies = Arrays.asList(BITFINEX_BTC, BITFINEX_ETH, BITFINEX_USD, GDAX_BTC,
+                    GDAX_USD, KRAKEN_ETH, KRAKEN_PAY, KRAKEN_USD);
+            for (ExchangeCurrency src : currencies) {
+                for (ExchangeCurrency dest : currencies) {
+                    BestRateRequest request = new BestRateRequest(src, dest);
+                    BestRateResponse expectedResponse = expected.getBestRate(request);
+                    BestRateResponse response = graph.getBestRate(request);
+                    assertEquals(expectedResponse.getRate(), response.getRate(), () -> request.toString());
+                    assertEquals(expectedResponse.getPath().getSteps(), response.getPath().getSteps());
+                }
+            }
+        }
+    }
+
+    @Test
+    void lazyUpdatesRecomputeOnQuery() {
+        exchangeRateGraph.setLazyUpdates(true);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_USD_BTC);
+        exchangeRateGraph.addOrUpdateExchangeRate(GDAX_BTC_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(GDAX_USD_BTC);
+        assertEquals(3, exchangeRateGraph.getAvoidedRecomputes());
+
+        BestRateResponse response = exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, GDAX_USD));
+        assertEquals(response.getRate(), BITFINEX_BTC_USD.getRate());
+        assertEquals(response.getPath().getSteps().size(), 4);
+
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_ETH);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_ETH);
+        assertEquals(3, exchangeRateGraph.getAvoidedRecomputes());
+
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_USD, BITFINEX_ETH));
+        assertEquals(response.getRate(), GDAX_USD_BTC.getRate().multiply(BITFINEX_BTC_ETH.getRate()));
+        assertEquals(response.getPath().getSteps().size(), 4);
+    }
+
+    @Test
+    void lazyUpdatesMatchEagerUpdates() {
+        /* the updates pending between queries are applied together */
+        for (long seed = 0; seed < 30; seed++) {
+            assertMatchesFullRecompute(graph -> graph.setLazyUpdates(true), 0.001, MathContext.DECIMAL64, 1, 7, seed);
+            assertMatchesFullRecompute(graph -> graph.setLazyUpdates(true), 0.001, MathContext.DECIMAL64, 4, 3, seed);
+        }
+    }
+
+    @Test
+    void lazyUpdatesSharedByConcurrentQueries() throws Exception {
+        exchangeRateGraph.setLazyUpdates(true);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_USD, BITFINEX_USD_BTC, GDAX_USD_BTC);
+        BestRateRequest request = new BestRateRequest(BITFINEX_USD, BITFINEX_BTC);
+        List<Thread> threads = new ArrayList<>();
+        List<BestRateResponse> responses = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> responses.add(exchangeRateGraph.getBestRate(request))));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8, responses.size());
+        for (BestRateResponse response : responses) {
+            assertEquals(response.getRate(), GDAX_USD_BTC.getRate());
+            assertEquals(response.getPath().getSteps().size(), 4);
+        }
+    }
+
+    @Test
+    void singleSourceBestRateCorrect() {
+        exchangeRateGraph.setSearchStrategy(SearchStrategy.SINGLE_SOURCE);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_USD_BTC);
+        exchangeRateGraph.addOrUpdateExchangeRate(GDAX_BTC_USD);
+        exchangeRateGraph.addOrUpdateExchangeRate(GDAX_USD_BTC);
+        exchangeRateGraph.addOrUpdateExchangeRate(KRAKEN_PAY_ETH);
+
+        BestRateResponse response = exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, GDAX_USD));
+        assertEquals(response.getRate(), BITFINEX_BTC_USD.getRate());
+        assertEquals(response.getPath().getSteps().size(), 4);
+        assertEquals(response.getPath().getSteps().get(0), GDAX_BTC);
+        assertEquals(response.getPath().getSteps().get(3), GDAX_USD);
+
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, GDAX_BTC));
+        assertEquals(response.getRate(), BigDecimal.ONE);
+        assertTrue(response.getPath().isEmpty());
+
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(GDAX_BTC, KRAKEN_PAY));
+        assertNull(response.getRate());
+        assertTrue(response.getPath().isEmpty());
+
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_ETH, BITFINEX_ETH_BTC, KRAKEN_ETH_USD, KRAKEN_USD_ETH);
+        response = exchangeRateGraph.getBestRate(new BestRateRequest(BITFINEX_BTC, KRAKEN_ETH));
+        assertEquals(response.getRate(), Double.POSITIVE_INFINITY);
+        assertTrue(response.getPath().isCircular());
+    }
+
+    @Test
+    void arbitrageCycleFound() {
+        exchangeRateGraph.addOrUpdateExchangeRate(BITFINEX_BTC_USD, BITFINEX_USD_BTC, GDAX_USD_BTC);
+        assertTrue(exchangeRateGraph.findArbitrageCycles().isEmpty());
+
+        ExchangeRate gdaxUsdBtc = new ExchangeRate(OffsetDateTime.now().plusSeconds(1), GDAX_USD, GDAX_BTC, new BigDecimal("0.000101"));
+        exchangeRateGraph.addOrUpdateExchangeRate(gdaxUsdBtc);
+        List<ArbitrageCycle> cycles = exchangeRateGraph.findArbitrageCycles();
+        assertEquals(1, cycles.size());
+        ArbitrageCycle cycle = cycles.get(0);
+        assertEquals(0, new BigDecimal("1.01").compareTo(cycle.getGain()));
+        assertEquals(5, cycle.getSteps().size());
+        assertEquals(cycle.getSteps().get(0), cycle.getSteps().get(4));
+        assertTrue(cycle.getSteps().containsAll(Arrays.asList(BITFINEX_BTC, BITFINEX_USD, GDAX_USD, GDAX_BTC)));
+        assertTrue(cycle.getRates().contains(gdaxUsdBtc));
+
+        ExchangeRate worseGdaxUsdBtc = new ExchangeRate(OffsetDateTime.now().plusSeconds(2), GDAX_USD, GDAX_BTC, new BigDecimal("0.0001"));
+        exchangeRateGraph.addOrUpdateExchangeRate(worseGdaxUsdBtc);
+        assertTrue(exchangeRateGraph.findArbitrageCycles().isEmpty());
+    }
+
+    @Test
+    void arbitrageCyclesMatchFullDetection() {
+        Random random = new Random(7);
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        OffsetDateTime timestamp = OffsetDateTime.now();
+        for (int i = 0; i < 300; i++) {
+            String exchange = "exchange" + random.nextInt(3);
+            ExchangeCurrency srcCurrency = new ExchangeCurrency(exchange, "currency" + random.nextInt(4));
+            ExchangeCurrency destCurrency = new ExchangeCurrency(exchange, "currency" + random.nextInt(4));
+            if (srcCurrency.equals(destCurrency)) {
+                continue;
+            }
+            BigDecimal rate = BigDecimal.valueOf(0.97 + random.nextDouble() * 0.05);
+            timestamp = timestamp.plusSeconds(1);
+            graph.addOrUpdateExchangeRate(new ExchangeRate(timestamp, srcCurrency, destCurrency, rate));
+            if (i % 10 == 0) {
+                graph.findArbitrageCycles();
+            }
+
+            List<ArbitrageCycle> cycles = graph.findArbitrageCycles();
+            for (ArbitrageCycle cycle : cycles) {
+                BigDecimal gain = BigDecimal.ONE;
+                for (ExchangeRate cycleRate : cycle.getRates()) {
+                    assertSame(cycleRate, graph.getExchangeRate(cycleRate.getSrcCurrency(), cycleRate.getDestCurrency()));
+                    gain = gain.multiply(cycleRate.getRate(), MathContext.DECIMAL128);
+                }
+                assertEquals(gain, cycle.getGain());
+                assertTrue(gain.compareTo(BigDecimal.ONE) > 0);
+            }
+
+            ExchangeRateGraph fresh = new ExchangeRateGraph();
+            for (ExchangeCurrency currency : graph.snapshot().currencies) {
+                for (ExchangeCurrency other : graph.snapshot().currencies) {
+                    ExchangeRate existing = graph.getExchangeRate(currency, other);
+                    if (existing != null && !currency.isSameCurrency(other)) {
+                        fresh.addOrUpdateExchangeRate(existing);
+                    }
+                }
+            }
+            assertEquals(fresh.findArbitrageCycles().isEmpty(), cycles.isEmpty());
+        }
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class FloydWarshallTest {
+
+    @Test
+    void parallelMatchesSequentialWithTies() {
+        /* rates of 1, 1/2 and 1/4 make many equally good paths but no better cycle */
+        double[] rates = {1, 0.5, 0.25};
+        assertParallelMatchesSequential(RateSpace.PRODUCT, rates, 1);
+        assertParallelMatchesSequential(RateSpace.logSpace(0), rates, 2);
+    }
+
+    @Test
+    void parallelMatchesSequentialWithCycles() {
+        double[] rates = {0.5, 0.9, 1.1, 2};
+        assertParallelMatchesSequential(RateSpace.PRODUCT, rates, 3);
+        assertParallelMatchesSequential(RateSpace.logSpace(1e-9), rates, 4);
+    }
+
+    private static void assertParallelMatchesSequential(RateSpace space, double[] rates, long seed) {
+        Random random = new Random(seed);
+        int size = 70;
+        BestRateMatrix sequential = new BestRateMatrix(space, size);
+        BestRateMatrix parallel = new BestRateMatrix(space, size);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (i != j && random.nextInt(10) == 0) {
+                    double weight = space.toWeight(BigDecimal.valueOf(rates[random.nextInt(rates.length)]));
+                    sequential.set(i, j, weight, j);
+                    parallel.set(i, j, weight, j);
+                }
+            }
+        }
+
+        FloydWarshall.run(sequential);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            FloydWarshall.run(parallel, pool, 16);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertArrayEquals(sequential.bestRates, parallel.bestRates);
+        assertArrayEquals(sequential.nextCurrencies, parallel.nextCurrencies);
+    }
+}
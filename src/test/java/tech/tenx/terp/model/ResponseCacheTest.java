@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.OffsetDateTime;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private static final ExchangeCurrency KRAKEN_BTC = new ExchangeCurrency("kraken", "btc");
+    private static final ExchangeCurrency KRAKEN_USD = new ExchangeCurrency("kraken", "usd");
+    private static final ExchangeCurrency GDAX_BTC = new ExchangeCurrency("gdax", "btc");
+    private static final ExchangeCurrency GDAX_USD = new ExchangeCurrency("gdax", "usd");
+    private static final ExchangeCurrency GDAX_ETH = new ExchangeCurrency("gdax", "eth");
+
+    private static final OffsetDateTime START = OffsetDateTime.parse("2017-11-01T09:42:23+00:00");
+
+    private static final Function<BestRateResponse, String> FORMATTER =
+            response -> response.getRate() + " " + response.getPath().getSteps();
+
+    private final AtomicInteger formatted = new AtomicInteger();
+
+    @Test
+    void responsesAreCachedPerVersion() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        ResponseCache cache = cache(graph, 16);
+        BestRateRequest request = new BestRateRequest(KRAKEN_BTC, KRAKEN_USD);
+
+        assertEquals("10000 [kraken btc, kraken usd]", cache.getFormatted(request));
+        assertEquals("10000 [kraken btc, kraken usd]", cache.getFormatted(new BestRateRequest(KRAKEN_BTC, KRAKEN_USD)));
+        assertEquals(1, formatted.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void updatesOffThePathKeepResponses() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"), rate(0, GDAX_ETH, GDAX_USD, "300"));
+        ResponseCache cache = cache(graph, 16);
+        BestRateRequest request = new BestRateRequest(KRAKEN_BTC, KRAKEN_USD);
+        cache.getFormatted(request);
+
+        graph.addOrUpdateExchangeRate(rate(1, GDAX_ETH, GDAX_USD, "310"));
+        assertNotNull(cache.lookup(request));
+        assertEquals(0, cache.getInvalidations());
+
+        /* and from then on without checking again */
+        assertNotNull(cache.lookup(request));
+        assertEquals(1, formatted.get());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    void changedRatesAlongThePathInvalidateResponses() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        ResponseCache cache = cache(graph, 16);
+        BestRateRequest request = new BestRateRequest(KRAKEN_BTC, KRAKEN_USD);
+        cache.getFormatted(request);
+
+        graph.addOrUpdateExchangeRate(rate(1, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        assertNull(cache.lookup(request));
+        assertEquals(1, cache.getInvalidations());
+
+        graph.addOrUpdateExchangeRate(rate(2, KRAKEN_BTC, KRAKEN_USD, "9000"));
+        assertEquals("9000 [kraken btc, kraken usd]", cache.getFormatted(request));
+    }
+
+    @Test
+    void betterPathsInvalidateResponses() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, GDAX_BTC, GDAX_USD, "9000"), rate(0, GDAX_BTC, GDAX_ETH, "30"));
+        ResponseCache cache = cache(graph, 16);
+        BestRateRequest request = new BestRateRequest(GDAX_BTC, GDAX_USD);
+        assertEquals("9000 [gdax btc, gdax usd]", cache.getFormatted(request));
+
+        graph.addOrUpdateExchangeRate(rate(1, GDAX_ETH, GDAX_USD, "290")); // still worse
+        assertEquals("9000 [gdax btc, gdax usd]", cache.getFormatted(request));
+        assertEquals(0, cache.getInvalidations());
+
+        graph.addOrUpdateExchangeRate(rate(2, GDAX_ETH, GDAX_USD, "310"));
+        assertEquals("9300 [gdax btc, gdax eth, gdax usd]", cache.getFormatted(request));
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    void otherPrecisionsInvalidateResponses() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, GDAX_BTC, GDAX_ETH, "1.23"), rate(0, GDAX_ETH, GDAX_USD, "4.56"));
+        ResponseCache cache = cache(graph, 16);
+        BestRateRequest request = new BestRateRequest(GDAX_BTC, GDAX_USD);
+        assertEquals("5.6088 [gdax btc, gdax eth, gdax usd]", cache.getFormatted(request));
+
+        graph.setMathContext(new MathContext(2));
+        assertEquals("5.6 [gdax btc, gdax eth, gdax usd]", cache.getFormatted(request));
+    }
+
+    @Test
+    void leastRecentlyRequestedResponsesAreEvicted() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"), rate(0, GDAX_BTC, GDAX_USD, "9000"));
+        ResponseCache cache = cache(graph, 2);
+        BestRateRequest first = new BestRateRequest(KRAKEN_BTC, KRAKEN_USD);
+        BestRateRequest second = new BestRateRequest(GDAX_BTC, GDAX_USD);
+        BestRateRequest third = new BestRateRequest(KRAKEN_BTC, GDAX_USD);
+
+        cache.getFormatted(first);
+        cache.getFormatted(second);
+        cache.getFormatted(first);
+        cache.getFormatted(third);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.lookup(first));
+        assertNull(cache.lookup(second));
+    }
+
+    @Test
+    void cachedResponsesMatchTheGraphUnderRandomUpdates() {
+        for (ExchangeRateGraph graph : new ExchangeRateGraph[]{new ExchangeRateGraph(), new ConcurrentExchangeRateGraph()}) {
+            String[] exchanges = {"kraken", "gdax", "binance"};
+            String[] currencies = {"btc", "usd", "eth", "ltc"};
+            ResponseCache cache = cache(graph, 32);
+            Random random = new Random(21);
+            for (int i = 0; i < 300; i++) {
+                ExchangeCurrency src = new ExchangeCurrency(exchanges[random.nextInt(exchanges.length)],
+                        currencies[random.nextInt(currencies.length)]);
+                ExchangeCurrency dest = new ExchangeCurrency(src.getExchange(), currencies[random.nextInt(currencies.length)]);
+                if (!src.equals(dest)) {
+                    graph.addOrUpdateExchangeRate(new ExchangeRate(START.plusSeconds(i), src, dest,
+                            BigDecimal.valueOf(0.5 + random.nextDouble() / 2)));
+                }
+                for (int r = 0; r < 8; r++) {
+                    BestRateRequest request = new BestRateRequest(
+                            new ExchangeCurrency(exchanges[random.nextInt(exchanges.length)], currencies[random.nextInt(currencies.length)]),
+                            new ExchangeCurrency(exchanges[random.nextInt(exchanges.length)], currencies[random.nextInt(currencies.length)]));
+                    assertEquals(FORMATTER.apply(graph.getBestRate(request)), cache.getFormatted(request));
+                }
+            }
+            assertTrue(cache.getHits() > 0);
+            assertTrue(cache.getInvalidations() > 0);
+        }
+    }
+
+    private ResponseCache cache(ExchangeRateGraph graph, int capacity) {
+        return new ResponseCache(graph, capacity, response -> {
+            formatted.incrementAndGet();
+            return FORMATTER.apply(response);
+        });
+    }
+
+    private static ExchangeRate rate(int seconds, ExchangeCurrency src, ExchangeCurrency dest, String rate) {
+        return new ExchangeRate(START.plusSeconds(seconds), src, dest, new BigDecimal(rate));
+    }
+}
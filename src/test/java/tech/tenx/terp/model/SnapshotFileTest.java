@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFileTest {
+
+    private static final String[] EXCHANGES = {"kraken", "gdax", "binance"};
+    private static final String[] CURRENCIES = {"btc", "usd", "eth", "ltc"};
+
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        file = Files.createTempFile("terp", ".snapshot");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void restoredGraphAnswersWithoutRecompute() throws IOException {
+        ExchangeRateGraph graph = randomGraph(new ExchangeRateGraph());
+        graph.writeSnapshot(file);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(graph.getVersion(), restored.getVersion());
+        BestRateMatrix matrix = graph.snapshot().matrix;
+        BestRateMatrix restoredMatrix = restored.snapshot().matrix;
+        assertArrayEquals(matrix.bestRates, restoredMatrix.bestRates);
+        assertArrayEquals(matrix.nextCurrencies, restoredMatrix.nextCurrencies);
+        assertSameBestRates(graph, restored);
+
+        /* and carries on with incremental updates */
+        OffsetDateTime later = OffsetDateTime.now().plusMinutes(1);
+        ExchangeRate update = new ExchangeRate(later, new ExchangeCurrency("kraken", "btc"),
+                new ExchangeCurrency("kraken", "usd"), new BigDecimal("12345.6"));
+        graph.addOrUpdateExchangeRate(update);
+        restored.addOrUpdateExchangeRate(update);
+        assertEquals(graph.getVersion(), restored.getVersion());
+        assertSameBestRates(graph, restored);
+    }
+
+    @Test
+    void corruptRatesAreNotRestored() throws IOException {
+        randomGraph(new ExchangeRateGraph()).writeSnapshot(file);
+        flipByte(SnapshotFile.HEADER_LENGTH + 10);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        assertFalse(restored.restoreSnapshot(file));
+        assertEquals(0, restored.getVersion());
+        assertEquals(0, restored.searchRateCount());
+    }
+
+    @Test
+    void corruptBestRatesAreRecomputed() throws IOException {
+        ExchangeRateGraph graph = randomGraph(new ExchangeRateGraph());
+        graph.writeSnapshot(file);
+        flipByte((int) Files.size(file) - 3);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(graph.getVersion(), restored.getVersion());
+        assertSameBestRates(graph, restored);
+    }
+
+    @Test
+    void bestRatesOfTheWrongSizeAreRecomputed() throws IOException {
+        ExchangeRateGraph graph = randomGraph(new ExchangeRateGraph());
+        graph.writeSnapshot(file);
+        /* a matrix section whose checksum holds but whose size does not match the currencies */
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        int matrixOffset = SnapshotFile.HEADER_LENGTH + bytes.getInt(16);
+        int sizeOffset = matrixOffset + 2 + bytes.getShort(matrixOffset);
+        bytes.putInt(sizeOffset, bytes.getInt(sizeOffset) + 1);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array(), matrixOffset, bytes.capacity() - matrixOffset);
+        bytes.putInt(28, (int) crc.getValue());
+        Files.write(file, bytes.array());
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(graph.getVersion(), restored.getVersion());
+        assertSameBestRates(graph, restored);
+    }
+
+    @Test
+    void otherFormatVersionsAreNotRestored() throws IOException {
+        randomGraph(new ExchangeRateGraph()).writeSnapshot(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, SnapshotFile.FORMAT_VERSION + 1), 4);
+        }
+        assertFalse(new ExchangeRateGraph().restoreSnapshot(file));
+    }
+
+    @Test
+    void bestRatesOfAnotherRateSpaceAreRecomputed() throws IOException {
+        ExchangeRateGraph graph = randomGraph(new ExchangeRateGraph());
+        graph.writeSnapshot(file);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        restored.useLogSpaceSearch(1e-12);
+        assertTrue(restored.restoreSnapshot(file));
+        assertSame(restored.snapshot().matrix.space, restored.computeBestRates().space);
+        assertSameBestRates(graph, restored);
+    }
+
+    @Test
+    void bestRatesWithoutHubsAreRestored() throws IOException {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.setCurrencyHubs(false);
+        randomGraph(graph).writeSnapshot(file);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        restored.setCurrencyHubs(false);
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(graph.searchRateCount(), restored.searchRateCount());
+        assertSameBestRates(graph, restored);
+    }
+
+    @Test
+    void ratesWithoutBestRateMatrixAreRestored() throws IOException {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.setSearchStrategy(SearchStrategy.SINGLE_SOURCE);
+        randomGraph(graph).writeSnapshot(file);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        restored.setSearchStrategy(SearchStrategy.SINGLE_SOURCE);
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(graph.getVersion(), restored.getVersion());
+        assertEquals(graph.searchRateCount(), restored.searchRateCount());
+        assertSameBestRates(graph, restored);
+    }
+
+    @Test
+    void restoredRatesExpireWithTheirCurrencies() throws IOException {
+        OffsetDateTime start = OffsetDateTime.parse("2018-05-26T09:42:23+00:00");
+        ExchangeCurrency krakenBtc = new ExchangeCurrency("kraken", "btc");
+        ExchangeCurrency krakenUsd = new ExchangeCurrency("kraken", "usd");
+        ExchangeCurrency gdaxBtc = new ExchangeCurrency("gdax", "btc");
+        ExchangeCurrency gdaxUsd = new ExchangeCurrency("gdax", "usd");
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(new ExchangeRate(start, krakenBtc, krakenUsd, new BigDecimal("10000")),
+                new ExchangeRate(start.plusSeconds(30), gdaxBtc, gdaxUsd, new BigDecimal("9999.9")));
+        graph.writeSnapshot(file);
+
+        ExchangeRateGraph restored = new ExchangeRateGraph();
+        assertTrue(restored.restoreSnapshot(file));
+        restored.setRateTimeToLive(Duration.ofSeconds(60));
+        assertEquals(1, restored.expireRates(start.plusSeconds(60)));
+        assertEquals(2 + 2, restored.snapshot().currencies.size());
+        assertNull(restored.getExchangeRate(krakenBtc, gdaxBtc));
+        assertEquals(new BigDecimal("9999.9"), restored.getBestRate(new BestRateRequest(gdaxBtc, gdaxUsd)).getRate());
+        assertEquals(1, restored.expireRates(start.plusSeconds(90)));
+        assertEquals(0, restored.snapshot().currencies.size());
+    }
+
+    @Test
+    void concurrentGraphPublishesRestoredSnapshot() throws IOException {
+        ExchangeRateGraph graph = randomGraph(new ConcurrentExchangeRateGraph());
+        graph.writeSnapshot(file);
+
+        ConcurrentExchangeRateGraph restored = new ConcurrentExchangeRateGraph();
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(graph.getVersion(), restored.getVersion());
+        assertSameBestRates(graph, restored);
+        assertThrows(IllegalStateException.class, () -> restored.restoreSnapshot(file));
+    }
+
+    private static ExchangeRateGraph randomGraph(ExchangeRateGraph graph) {
+        Random random = new Random(19);
+        OffsetDateTime now = OffsetDateTime.now();
+        for (int i = 0; i < 40; i++) {
+            ExchangeCurrency src = new ExchangeCurrency(EXCHANGES[random.nextInt(EXCHANGES.length)],
+                    CURRENCIES[random.nextInt(CURRENCIES.length)]);
+            ExchangeCurrency dest = new ExchangeCurrency(src.getExchange(), CURRENCIES[random.nextInt(CURRENCIES.length)]);
+            if (!src.equals(dest)) {
+                /* rates below one in both directions keep the graph free of arbitrage */
+                graph.addOrUpdateExchangeRate(new ExchangeRate(now.plusSeconds(i), src, dest,
+                        BigDecimal.valueOf(0.5 + random.nextDouble() / 2)));
+            }
+        }
+        return graph;
+    }
+
+    private static void assertSameBestRates(ExchangeRateGraph expected, ExchangeRateGraph actual) {
+        List<ExchangeCurrency> currencies = new ArrayList<>();
+        for (String exchange : EXCHANGES) {
+            for (String currency : CURRENCIES) {
+                currencies.add(new ExchangeCurrency(exchange, currency));
+            }
+        }
+        for (ExchangeCurrency src : currencies) {
+            for (ExchangeCurrency dest : currencies) {
+                BestRateRequest request = new BestRateRequest(src, dest);
+                BestRateResponse expectedResponse = expected.getBestRate(request);
+                BestRateResponse actualResponse = actual.getBestRate(request);
+                assertEquals(expectedResponse.getRate(), actualResponse.getRate(), src + " to " + dest);
+                assertEquals(expectedResponse.getPath().getSteps(), actualResponse.getPath().getSteps(), src + " to " + dest);
+            }
+        }
+    }
+
+    private void flipByte(int position) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[position] ^= 0x5a;
+        Files.write(file, bytes);
+    }
+}
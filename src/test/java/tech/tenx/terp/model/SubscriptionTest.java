@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionTest {
+
+    private static final ExchangeCurrency KRAKEN_BTC = new ExchangeCurrency("kraken", "btc");
+    private static final ExchangeCurrency KRAKEN_USD = new ExchangeCurrency("kraken", "usd");
+    private static final ExchangeCurrency KRAKEN_ETH = new ExchangeCurrency("kraken", "eth");
+    private static final ExchangeCurrency GDAX_ETH = new ExchangeCurrency("gdax", "eth");
+    private static final ExchangeCurrency GDAX_USD = new ExchangeCurrency("gdax", "usd");
+
+    private static final OffsetDateTime START = OffsetDateTime.parse("2017-11-01T09:42:23+00:00");
+
+    private final List<BestRateChange> changes = new ArrayList<>();
+
+    @Test
+    void rateChangesPushedFromMinimumRelativeChange() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        graph.subscribe(new BestRateRequest(KRAKEN_BTC, KRAKEN_USD), 0.01, changes::add, Runnable::run);
+
+        graph.addOrUpdateExchangeRate(rate(1, KRAKEN_BTC, KRAKEN_USD, "10050"));
+        graph.addOrUpdateExchangeRate(rate(1, GDAX_ETH, GDAX_USD, "300"));
+        assertTrue(changes.isEmpty());
+
+        graph.addOrUpdateExchangeRate(rate(2, KRAKEN_BTC, KRAKEN_USD, "10100"));
+        assertEquals(1, changes.size());
+        BestRateChange change = changes.get(0);
+        assertEquals(new BigDecimal("10000"), change.getPreviousRate());
+        assertEquals(new BigDecimal("10100"), change.getRate());
+        assertEquals(Arrays.asList(KRAKEN_BTC, KRAKEN_USD), change.getPath().getSteps());
+        assertEquals(graph.getVersion(), change.getVersion());
+
+        /* measured from the rate last pushed */
+        graph.addOrUpdateExchangeRate(rate(3, KRAKEN_BTC, KRAKEN_USD, "10150"));
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    void pathChangesPushedWhateverTheRate() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(rate(0, GDAX_ETH, GDAX_USD, "300"));
+        graph.subscribe(new BestRateRequest(KRAKEN_BTC, GDAX_USD), 0.5, changes::add, Runnable::run);
+
+        graph.addOrUpdateExchangeRate(rate(1, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        assertEquals(1, changes.size());
+        assertNull(changes.get(0).getPreviousRate());
+        assertEquals(Arrays.asList(KRAKEN_BTC, KRAKEN_USD, GDAX_USD), changes.get(0).getPath().getSteps());
+
+        graph.addOrUpdateExchangeRate(rate(2, KRAKEN_BTC, KRAKEN_ETH, "34"));
+        assertEquals(2, changes.size());
+        assertEquals(new BigDecimal("10200"), changes.get(1).getRate());
+        assertEquals(Arrays.asList(KRAKEN_BTC, KRAKEN_ETH, GDAX_ETH, GDAX_USD), changes.get(1).getPath().getSteps());
+    }
+
+    @Test
+    void cancelledSubscriptionsNotPushed() {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        Subscription subscription = graph.subscribe(new BestRateRequest(KRAKEN_BTC, KRAKEN_USD), 0, changes::add, Runnable::run);
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        subscription.cancel();
+        graph.addOrUpdateExchangeRate(rate(1, KRAKEN_BTC, KRAKEN_USD, "20000"));
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    void slowSubscribersSkipToLatestChange() throws Exception {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<BestRateChange> received = new LinkedBlockingQueue<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            graph.subscribe(new BestRateRequest(KRAKEN_BTC, KRAKEN_USD), 0, change -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(change);
+            }, executor);
+
+            /* the listener is stuck on the first change, the updates are not */
+            for (int i = 0; i < 100; i++) {
+                graph.addOrUpdateExchangeRate(rate(i, KRAKEN_BTC, KRAKEN_USD, String.valueOf(10000 + i)));
+            }
+            release.countDown();
+
+            /* the first change the listener took, then the latest of the ones it missed */
+            BestRateChange change = received.poll(5, TimeUnit.SECONDS);
+            if (!change.getRate().equals(new BigDecimal("10099"))) {
+                change = received.poll(5, TimeUnit.SECONDS);
+            }
+            assertEquals(new BigDecimal("10099"), change.getRate());
+            assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void changesPushedOnThreadsOfTheGraph() throws Exception {
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        graph.subscribe(new BestRateRequest(KRAKEN_BTC, KRAKEN_USD), 0, change -> threads.add(Thread.currentThread().getName()));
+        graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"));
+        assertEquals("subscription-notifier", threads.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static ExchangeRate rate(int seconds, ExchangeCurrency src, ExchangeCurrency dest, String rate) {
+        return new ExchangeRate(START.plusSeconds(seconds), src, dest, new BigDecimal(rate));
+    }
+}
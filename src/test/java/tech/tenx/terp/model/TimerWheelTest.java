@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    private static final long START = 1509529343000L;
+
+    @Test
+    void itemsExpireOnceTheirDeadlinePassed() {
+        /* short and long deadlines, small steps and jumps, cover every level and the overflow list */
+        assertMatchesDeadlines(new long[]{1, 7, 50}, new long[]{5, 700, 60_000, 50_000_000, 900_000_000}, 1);
+        assertMatchesDeadlines(new long[]{1, 3_000, 2_000_000}, new long[]{1, 40, 30_000, 3_000_000}, 2);
+    }
+
+    @Test
+    void itemsScheduledBeforeFirstAdvanceExpire() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000);
+        wheel.schedule("past", START - 5000);
+        wheel.schedule("soon", START + 1500);
+        assertEquals(Collections.singletonList("past"), wheel.advance(START));
+        assertEquals(Collections.emptyList(), wheel.advance(START + 1499));
+        assertEquals(Collections.singletonList("soon"), wheel.advance(START + 1500));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timeGoingBackExpiresNothingEarly() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000);
+        wheel.advance(START);
+        wheel.schedule("item", START + 100);
+        assertEquals(Collections.emptyList(), wheel.advance(START - 10_000));
+        assertEquals(Collections.emptyList(), wheel.advance(START + 99));
+        assertEquals(Collections.singletonList("item"), wheel.advance(START + 100));
+    }
+
+    private static void assertMatchesDeadlines(long[] steps, long[] timesToLive, long seed) {
+        Random random = new Random(seed);
+        TimerWheel<Integer> wheel = new TimerWheel<>(10);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        long now = START;
+        int items = 0;
+        for (int round = 0; round < 3000; round++) {
+            for (int i = random.nextInt(3); i > 0; i--) {
+                long deadline = now + timesToLive[random.nextInt(timesToLive.length)] - random.nextInt(20);
+                wheel.schedule(items, deadline);
+                deadlines.put(items++, deadline);
+            }
+            now += steps[random.nextInt(steps.length)] * random.nextInt(4);
+            List<Integer> expected = new ArrayList<>();
+            for (Map.Entry<Integer, Long> deadline : deadlines.entrySet()) {
+                if (deadline.getValue() <= now) {
+                    expected.add(deadline.getKey());
+                }
+            }
+            deadlines.keySet().removeAll(expected);
+            List<Integer> expired = wheel.advance(now);
+            Collections.sort(expected);
+            Collections.sort(expired);
+            assertEquals(expected, expired, "at " + now);
+            assertEquals(deadlines.size(), wheel.size());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    private static final ExchangeCurrency KRAKEN_BTC = new ExchangeCurrency("kraken", "btc");
+    private static final ExchangeCurrency KRAKEN_USD = new ExchangeCurrency("kraken", "usd");
+    private static final ExchangeCurrency GDAX_BTC = new ExchangeCurrency("gdax", "btc");
+    private static final ExchangeCurrency GDAX_USD = new ExchangeCurrency("gdax", "usd");
+
+    private static final OffsetDateTime START = OffsetDateTime.parse("2017-11-01T09:42:23+00:00");
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("terp-wal");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void acceptedRatesAreReplayedOnRecovery() throws IOException {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 20)) {
+            graph.setWriteAheadLog(log);
+            graph.addOrUpdateExchangeRate(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"), rate(0, KRAKEN_USD, KRAKEN_BTC, "0.00009"));
+            graph.addOrUpdateExchangeRate(rate(1, GDAX_BTC, GDAX_USD, "10100"));
+            graph.addOrUpdateExchangeRate(rate(-1, GDAX_BTC, GDAX_USD, "9000")); // older, so not logged
+            graph.addOrUpdateExchangeRate(rate(2, KRAKEN_BTC, KRAKEN_USD, "10050"));
+        }
+
+        ExchangeRateGraph recovered = new ExchangeRateGraph();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 20)) {
+            assertEquals(4, log.readAll().size());
+            recovered.setWriteAheadLog(log);
+        }
+        assertEquals(1, recovered.getVersion());
+        BestRateRequest request = new BestRateRequest(KRAKEN_USD, GDAX_USD);
+        assertEquals(graph.getBestRate(request).getRate(), recovered.getBestRate(request).getRate());
+        assertEquals(new BigDecimal("10100"), recovered.getBestRate(new BestRateRequest(KRAKEN_BTC, GDAX_USD)).getRate());
+    }
+
+    @Test
+    void replayAfterSnapshotMatchesRatesAddedOneByOne() throws IOException {
+        /* a few price lines after the snapshot are replayed as one incremental update */
+        Random random = new Random(3);
+        double[] prices = {9000, 600, 1, 1.2, 0.7};
+        List<ExchangeCurrency> currencies = new ArrayList<>();
+        for (int e = 0; e < 3; e++) {
+            for (int c = 0; c < prices.length; c++) {
+                currencies.add(new ExchangeCurrency("exchange" + e, "currency" + c));
+            }
+        }
+        for (int trial = 0; trial < 20; trial++) {
+            Path trialDirectory = Files.createTempDirectory(directory, "trial");
+            Path snapshot = trialDirectory.resolve("snapshot");
+            ExchangeRateGraph graph = new ExchangeRateGraph();
+            try (WriteAheadLog log = new WriteAheadLog(trialDirectory.resolve("log"), 1 << 20)) {
+                graph.setWriteAheadLog(log);
+                for (int i = 0; i < 60; i++) {
+                    if (i == 54) {
+                        graph.writeSnapshot(snapshot);
+                    }
+                    int e = random.nextInt(3);
+                    int c1 = random.nextInt(prices.length);
+                    int c2 = (c1 + 1 + random.nextInt(prices.length - 1)) % prices.length;
+                    double midRate = prices[c1] / prices[c2] * (1 + (random.nextDouble() - 0.5) * 0.001);
+                    graph.addOrUpdateExchangeRate(
+                            rate(i, currencies.get(e * prices.length + c1), currencies.get(e * prices.length + c2),
+                                    new BigDecimal(midRate * 0.998, MathContext.DECIMAL64).toString()),
+                            rate(i, currencies.get(e * prices.length + c2), currencies.get(e * prices.length + c1),
+                                    new BigDecimal(0.998 / midRate, MathContext.DECIMAL64).toString()));
+                }
+            }
+
+            ExchangeRateGraph recovered = new ExchangeRateGraph();
+            assertTrue(recovered.restoreSnapshot(snapshot));
+            try (WriteAheadLog log = new WriteAheadLog(trialDirectory.resolve("log"), 1 << 20)) {
+                recovered.setWriteAheadLog(log);
+            }
+            for (ExchangeCurrency src : currencies) {
+                for (ExchangeCurrency dest : currencies) {
+                    BestRateRequest request = new BestRateRequest(src, dest);
+                    assertEquals(graph.getBestRate(request).getRate(), recovered.getBestRate(request).getRate(),
+                            request::toString);
+                }
+            }
+        }
+    }
+
+    @Test
+    void oneSyncCoversAllRecordsAppendedBefore() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 20)) {
+            long first = log.append(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000"));
+            log.append(rate(0, KRAKEN_USD, KRAKEN_BTC, "0.00009"));
+            long last = log.append(rate(0, GDAX_BTC, GDAX_USD, "10100"));
+            log.commit(last);
+            log.commit(first);
+            assertEquals(1, log.getSyncs());
+            assertEquals(3, log.readAll().size());
+        }
+    }
+
+    @Test
+    void concurrentWritersAreAllDurable() throws Exception {
+        int writers = 8;
+        int updates = 200;
+        ConcurrentExchangeRateGraph graph = new ConcurrentExchangeRateGraph();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 12)) {
+            graph.setWriteAheadLog(log);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                ExchangeCurrency src = new ExchangeCurrency("exchange" + w, "btc");
+                ExchangeCurrency dest = new ExchangeCurrency("exchange" + w, "usd");
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < updates; i++) {
+                            graph.addOrUpdateExchangeRate(rate(i, src, dest, String.valueOf(10000 + i)));
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(failure.get());
+            assertTrue(log.getSyncs() <= writers * updates);
+            assertTrue(log.getSegmentCount() > 1);
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 12)) {
+            assertEquals(writers * updates, log.readAll().size());
+            ConcurrentExchangeRateGraph recovered = new ConcurrentExchangeRateGraph();
+            recovered.setWriteAheadLog(log);
+            for (int w = 0; w < writers; w++) {
+                BestRateRequest request = new BestRateRequest(
+                        new ExchangeCurrency("exchange" + w, "btc"), new ExchangeCurrency("exchange" + w, "usd"));
+                assertEquals(new BigDecimal(10000 + updates - 1), recovered.getBestRate(request).getRate());
+            }
+        }
+    }
+
+    @Test
+    void tornRecordIsCutOff() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 20)) {
+            log.commit(log.append(rate(0, KRAKEN_BTC, KRAKEN_USD, "10000")));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow(AssertionError::new);
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1 << 20)) {
+            assertEquals(1, log.readAll().size());
+            log.commit(log.append(rate(1, KRAKEN_BTC, KRAKEN_USD, "10001")));
+            assertEquals(rate(1, KRAKEN_BTC, KRAKEN_USD, "10001"), log.readAll().get(1));
+        }
+    }
+
+    @Test
+    void compactionKeepsNewestRates() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 256)) {
+            for (int i = 0; i < 50; i++) {
+                log.commit(log.append(rate(i, KRAKEN_BTC, KRAKEN_USD, String.valueOf(10000 + i))));
+                log.commit(log.append(rate(-i, GDAX_BTC, GDAX_USD, String.valueOf(10000 - i))));
+            }
+            assertTrue(log.getSegmentCount() > 2);
+            log.compact();
+            assertEquals(2, log.getSegmentCount());
+
+            List<ExchangeRate> rates = log.readAll();
+            assertEquals(2, rates.size());
+            assertTrue(rates.contains(rate(49, KRAKEN_BTC, KRAKEN_USD, "10049")));
+            assertTrue(rates.contains(rate(0, GDAX_BTC, GDAX_USD, "10000")));
+
+            log.commit(log.append(rate(50, KRAKEN_BTC, KRAKEN_USD, "10050")));
+            assertEquals(3, log.readAll().size());
+        }
+    }
+
+    private static ExchangeRate rate(int seconds, ExchangeCurrency src, ExchangeCurrency dest, String rate) {
+        return new ExchangeRate(START.plusSeconds(seconds), src, dest, new BigDecimal(rate));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import org.junit.jupiter.api.Test;
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.BestRateResponse;
+import tech.tenx.terp.model.CurrencyRegistry;
+import tech.tenx.terp.model.ExchangeCurrency;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.model.ExchangeRateGraph;
+import tech.tenx.terp.util.InputScanner.InputType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCodecTest {
+
+    private static final ExchangeCurrency KRAKEN_BTC = new ExchangeCurrency("KRAKEN", "BTC");
+    private static final ExchangeCurrency KRAKEN_USD = new ExchangeCurrency("KRAKEN", "USD");
+    private static final ExchangeCurrency GDAX_BTC = new ExchangeCurrency("GDAX", "BTC");
+    private static final ExchangeCurrency GDAX_USD = new ExchangeCurrency("GDAX", "USD");
+
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private BinaryEncoder encoder = new BinaryEncoder(output);
+    private BinaryDecoder decoder = new BinaryDecoder();
+
+    private ByteBuffer encoded() throws IOException {
+        encoder.flush();
+        return ByteBuffer.wrap(output.toByteArray());
+    }
+
+    private static ExchangeRate[] priceUpdate(String timestamp, ExchangeCurrency src, ExchangeCurrency dest,
+                                              String forwardFactor, String backwardFactor) {
+        OffsetDateTime time = OffsetDateTime.parse(timestamp);
+        return new ExchangeRate[]{
+                new ExchangeRate(time, src, dest, new BigDecimal(forwardFactor)),
+                new ExchangeRate(time, dest, src, new BigDecimal(backwardFactor))
+        };
+    }
+
+    @Test
+    void priceUpdatesRoundTrip() throws IOException {
+        List<ExchangeRate[]> priceUpdates = Arrays.asList(
+                priceUpdate("2018-05-26T09:42:23+00:00", KRAKEN_BTC, KRAKEN_USD, "1000.0", "0.0009"),
+                priceUpdate("2018-05-26T09:42:23.123456789-05:30", KRAKEN_USD, KRAKEN_BTC, "0.000999", "1000"),
+                priceUpdate("1960-01-01T00:00:00+14:00", GDAX_BTC, GDAX_USD, "123456789012345678901234.5", "0.00000000000000000000000001"),
+                priceUpdate("2018-05-26T09:42:23+00:00", GDAX_USD, GDAX_BTC, "1E+3", "0"),
+                priceUpdate("2018-05-26T09:42:23+00:00", KRAKEN_BTC, GDAX_USD, "127", "0.0000128"),
+                priceUpdate("2018-05-26T09:42:23+00:00", GDAX_BTC, KRAKEN_USD, "9223372036854775807", "0"),
+                priceUpdate("2500-12-31T23:59:59.999999999+00:00", KRAKEN_BTC, KRAKEN_USD, "1E+300", "1E-301"),
+                priceUpdate("1500-01-01T00:00:00-18:00", KRAKEN_USD, GDAX_USD, "0." + repeat('3', 300), "3"));
+        for (ExchangeRate[] priceUpdate : priceUpdates) {
+            encoder.encodePriceUpdate(priceUpdate[0], priceUpdate[1]);
+        }
+        ByteBuffer buffer = encoded();
+        for (ExchangeRate[] priceUpdate : priceUpdates) {
+            assertEquals(InputType.PRICE_UPDATE, decoder.next(buffer));
+            assertArrayEquals(priceUpdate, decoder.parsePriceUpdate(new ExchangeRate[2]));
+        }
+        assertNull(decoder.next(buffer));
+    }
+
+    @Test
+    void priceUpdateWithProductAboveOneInvalid() throws IOException {
+        ExchangeRate[] priceUpdate = priceUpdate("2018-05-26T09:42:23+00:00", KRAKEN_BTC, KRAKEN_USD, "10", "0.1000001");
+        encoder.encodePriceUpdate(priceUpdate[0], priceUpdate[1]);
+        assertEquals(InputType.INVALID_PRICE_UPDATE, decoder.next(encoded()));
+    }
+
+    @Test
+    void requestsRoundTrip() throws IOException {
+        encoder.encodeExchangeRateRequest(new BestRateRequest(KRAKEN_BTC, GDAX_USD));
+        encoder.encodeArbitrageRequest();
+        encoder.encodeExit();
+        ByteBuffer buffer = encoded();
+        assertEquals(InputType.EXCHANGE_RATE_REQUEST, decoder.next(buffer));
+        BestRateRequest request = decoder.parseExchangeRateRequest();
+        assertEquals(KRAKEN_BTC, request.getSrcCurrency());
+        assertEquals(GDAX_USD, request.getDestCurrency());
+        assertEquals(InputType.ARBITRAGE_REQUEST, decoder.next(buffer));
+        assertEquals(InputType.EXIT, decoder.next(buffer));
+        assertNull(decoder.next(buffer));
+    }
+
+    @Test
+    void requestedCurrenciesNotInterned() throws IOException {
+        int size = CurrencyRegistry.global().size();
+        ExchangeCurrency src = new ExchangeCurrency("ELSEWHERE", "ABC");
+        ExchangeCurrency dest = new ExchangeCurrency("ELSEWHERE", "XYZ");
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        encoder.encodeExchangeRateRequest(new BestRateRequest(src, dest));
+        encoder.encode(graph.getBestRate(new BestRateRequest(src, dest)));
+        ByteBuffer buffer = encoded();
+        assertEquals(InputType.EXCHANGE_RATE_REQUEST, decoder.next(buffer));
+        BestRateRequest request = decoder.parseExchangeRateRequest();
+        assertEquals(src, request.getSrcCurrency());
+        assertEquals(dest, request.getDestCurrency());
+        assertEquals(OutputFormatter.format(graph.getBestRate(request)), decoder.nextResponse(buffer));
+        assertEquals(size, CurrencyRegistry.global().size());
+
+        int decoded = buffer.position();
+        ExchangeCurrency quoted = CurrencyRegistry.global().intern("elsewhere", "abc");
+        encoder.encodeExchangeRateRequest(new BestRateRequest(src, dest));
+        buffer = encoded();
+        buffer.position(decoded);
+        assertEquals(InputType.EXCHANGE_RATE_REQUEST, decoder.next(buffer));
+        assertSame(quoted, decoder.parseExchangeRateRequest().getSrcCurrency());
+    }
+
+    @Test
+    void recordsSplitAcrossReadsDecoded() throws IOException {
+        ExchangeRate[] priceUpdate = priceUpdate("2018-05-26T09:42:23+00:00", KRAKEN_BTC, KRAKEN_USD, "1000.0", "0.0009");
+        encoder.encodePriceUpdate(priceUpdate[0], priceUpdate[1]);
+        encoder.encodeExchangeRateRequest(new BestRateRequest(KRAKEN_USD, KRAKEN_BTC));
+        byte[] bytes = encoded().array();
+
+        /* one byte at a time, like the smallest reads of a channel */
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        List<InputType> inputTypes = new ArrayList<>();
+        for (byte b : bytes) {
+            buffer.put(b);
+            buffer.flip();
+            InputType inputType;
+            while ((inputType = decoder.next(buffer)) != null) {
+                inputTypes.add(inputType);
+            }
+            buffer.compact();
+        }
+        assertEquals(Arrays.asList(InputType.PRICE_UPDATE, InputType.EXCHANGE_RATE_REQUEST), inputTypes);
+        assertEquals(KRAKEN_USD, decoder.parseExchangeRateRequest().getSrcCurrency());
+    }
+
+    @Test
+    void responsesDecodedAsConsoleText() throws IOException {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        graph.addOrUpdateExchangeRate(priceUpdate("2018-05-26T09:42:23+00:00", KRAKEN_BTC, KRAKEN_USD, "1000.0", "0.0009"));
+        graph.addOrUpdateExchangeRate(priceUpdate("2018-05-26T09:42:24+00:00", GDAX_BTC, GDAX_USD, "1200.0", "0.0008"));
+        List<String> expected = new ArrayList<>();
+        for (BestRateRequest request : Arrays.asList(new BestRateRequest(KRAKEN_BTC, GDAX_USD),
+                new BestRateRequest(KRAKEN_BTC, KRAKEN_BTC),
+                new BestRateRequest(KRAKEN_BTC, new ExchangeCurrency("BITFINEX", "ETH")))) {
+            encoder.encode(graph.getBestRate(request));
+            expected.add(OutputFormatter.format(graph.getBestRate(request)));
+        }
+        encoder.encode(graph.findArbitrageCycles());
+        expected.add(OutputFormatter.format(graph.findArbitrageCycles()));
+        for (InputType inputType : new InputType[]{InputType.PRICE_UPDATE, InputType.INVALID_PRICE_UPDATE,
+                InputType.UNKNOWN, InputType.EXIT}) {
+            encoder.encodeReply(inputType);
+        }
+        expected.addAll(Arrays.asList(OutputFormatter.PRICE_UPDATE_RECEIVED, OutputFormatter.PRICE_UPDATE_DISCARDED,
+                OutputFormatter.INPUT_NOT_RECOGNIZED, OutputFormatter.BYE));
+
+        ByteBuffer buffer = encoded();
+        List<String> responses = new ArrayList<>();
+        String response;
+        while ((response = decoder.nextResponse(buffer)) != null) {
+            responses.add(response);
+        }
+        assertEquals(expected, responses);
+        assertTrue(expected.get(3).startsWith("ARBITRAGE_BEGIN 1"));
+    }
+
+    @Test
+    void tinyProductRateDecodedAsConsoleText() throws IOException {
+        ExchangeRateGraph graph = new ExchangeRateGraph();
+        ExchangeCurrency[] chain = new ExchangeCurrency[60];
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = new ExchangeCurrency("KRAKEN", "C" + i);
+        }
+        for (int i = 1; i < chain.length; i++) {
+            graph.addOrUpdateExchangeRate(priceUpdate("2018-05-26T09:42:23+00:00", chain[i - 1], chain[i],
+                    "0.00123", "0.00123"));
+        }
+        BestRateResponse response = graph.getBestRate(new BestRateRequest(chain[0], chain[chain.length - 1]));
+        assertTrue(((BigDecimal) response.getRate()).scale() > Byte.MAX_VALUE);
+        encoder.encode(response);
+        assertEquals(OutputFormatter.format(response), decoder.nextResponse(encoded()));
+    }
+
+    @Test
+    void textNotDecoded() {
+        ByteBuffer text = ByteBuffer.wrap("EXCHANGE_RATE_REQUEST KRAKEN BTC GDAX USD\n".getBytes());
+        assertFalse(BinaryDecoder.isBinary(text));
+        assertThrows(IllegalArgumentException.class, () -> decoder.next(text));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -18,6 +18,8 @@
 package tech.tenx.terp.util;
 
 import org.junit.jupiter.api.Test;
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.CurrencyRegistry;
 import tech.tenx.terp.model.ExchangeCurrency;
 import tech.tenx.terp.model.ExchangeRate;
 
@@ -136,4 +138,20 @@ class InputParserTest {
         String exchangeRateRequest = "XCHANGE_RATE_REQUEST BITFINEX BTC KRAKEN USD XXX";
         assertFalse(InputParser.isExchangeRateRequest(exchangeRateRequest));
     }
+
+    @Test
+    void requestedCurrenciesNotInterned() {
+        int size = CurrencyRegistry.global().size();
+        BestRateRequest request = InputParser.parseExchangeRateRequest("EXCHANGE_RATE_REQUEST NEVERQUOTED ABC NEVERQUOTED XYZ");
+        assertEquals(new ExchangeCurrency("neverquoted", "abc"), request.getSrcCurrency());
+        assertEquals(new ExchangeCurrency("neverquoted", "xyz"), request.getDestCurrency());
+        assertEquals(size, CurrencyRegistry.global().size());
+    }
+
+    @Test
+    void arbitrageRequestFormatAccepted() {
+        assertTrue(InputParser.isArbitrageRequest("ARBITRAGE_REQUEST"));
+        assertFalse(InputParser.isArbitrageRequest("ARBITRAGE_REQUEST BITFINEX"));
+        assertFalse(InputParser.isExchangeRateRequest("ARBITRAGE_REQUEST"));
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.tenx.terp.util;
+
+import org.junit.jupiter.api.Test;
+import tech.tenx.terp.model.BestRateRequest;
+import tech.tenx.terp.model.CurrencyRegistry;
+import tech.tenx.terp.model.ExchangeCurrency;
+import tech.tenx.terp.model.ExchangeRate;
+import tech.tenx.terp.util.InputScanner.InputType;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputScannerTest {
+
+    private static final List<String> LINES = Arrays.asList(
+            "2018-05-26T09:42:23+00:00 BITFINEX BTC ETH 9.9 0.0998",
+            "2018-05-26T09:42:23-05:30 kraken btc usd 10000 0.0001",
+            "2018-05-26T09:42:23+00:00 KRAKEN BTC USD 1000.0 0.0011",
+            "2018-05-26T09:42:23+00:00 GDAX BTC USD 123456789012345678901234.5 0.00000000000000000000000001",
+            "EXCHANGE_RATE_REQUEST BITFINEX BTC KRAKEN USD",
+            "ARBITRAGE_REQUEST");
+
+    private InputScanner scanner = new InputScanner();
+
+    @Test
+    void priceUpdateScanned() {
+        String priceUpdate = "2018-05-26T09:42:23+00:00 BITFINEX BTC ETH 9.9 0.0998";
+        assertEquals(InputType.PRICE_UPDATE, scanner.scan(priceUpdate));
+        ExchangeRate[] exchangeRates = scanner.parsePriceUpdate(new ExchangeRate[2]);
+        assertArrayEquals(InputParser.parsePriceUpdate(priceUpdate), exchangeRates);
+    }
+
+    @Test
+    void priceUpdateWithProductAboveOneInvalid() {
+        assertEquals(InputType.INVALID_PRICE_UPDATE, scanner.scan("2018-05-26T09:42:23+00:00 BITFINEX BTC ETH 10 0.1000001"));
+        assertEquals(InputType.PRICE_UPDATE, scanner.scan("2018-05-26T09:42:23+00:00 BITFINEX BTC ETH 10 0.1"));
+    }
+
+    @Test
+    void exchangeRateRequestScanned() {
+        String exchangeRateRequest = "EXCHANGE_RATE_REQUEST BITFINEX BTC KRAKEN USD";
+        assertEquals(InputType.EXCHANGE_RATE_REQUEST, scanner.scan(exchangeRateRequest));
+        BestRateRequest request = scanner.parseExchangeRateRequest();
+        BestRateRequest expected = InputParser.parseExchangeRateRequest(exchangeRateRequest);
+        assertEquals(expected.getSrcCurrency(), request.getSrcCurrency());
+        assertEquals(expected.getDestCurrency(), request.getDestCurrency());
+    }
+
+    @Test
+    void requestedCurrenciesNotInterned() {
+        int size = CurrencyRegistry.global().size();
+        assertEquals(InputType.EXCHANGE_RATE_REQUEST, scanner.scan("EXCHANGE_RATE_REQUEST NOWHERE ABC NOWHERE XYZ"));
+        BestRateRequest request = scanner.parseExchangeRateRequest();
+        assertEquals(new ExchangeCurrency("nowhere", "abc"), request.getSrcCurrency());
+        assertEquals(InputType.EXCHANGE_RATES_REQUEST, scanner.scan("EXCHANGE_RATES_REQUEST NOWHERE ABC NOWHERE XYZ"));
+        assertEquals(request, scanner.parseExchangeRatesRequest().get(0));
+        assertEquals(size, CurrencyRegistry.global().size());
+
+        ExchangeCurrency quoted = CurrencyRegistry.global().intern("nowhere", "abc");
+        assertEquals(InputType.EXCHANGE_RATE_REQUEST, scanner.scan("EXCHANGE_RATE_REQUEST NOWHERE ABC NOWHERE XYZ"));
+        assertSame(quoted, scanner.parseExchangeRateRequest().getSrcCurrency());
+    }
+
+    @Test
+    void exchangeRatesRequestScanned() {
+        assertEquals(InputType.EXCHANGE_RATES_REQUEST, scanner.scan("EXCHANGE_RATES_REQUEST BITFINEX BTC KRAKEN USD"));
+        assertEquals(1, scanner.parseExchangeRatesRequest().size());
+
+        StringBuilder line = new StringBuilder("EXCHANGE_RATES_REQUEST");
+        for (int i = 0; i < 20; i++) {
+            line.append(" KRAKEN BTC").append(" GDAX C").append(i);
+        }
+        assertEquals(InputType.EXCHANGE_RATES_REQUEST, scanner.scan(line));
+        List<BestRateRequest> requests = scanner.parseExchangeRatesRequest();
+        assertEquals(20, requests.size());
+        assertEquals(new BestRateRequest(new ExchangeCurrency("kraken", "btc"), new ExchangeCurrency("gdax", "c19")),
+                requests.get(19));
+
+        assertEquals(InputType.UNKNOWN, scanner.scan("EXCHANGE_RATES_REQUEST"));
+        assertEquals(InputType.UNKNOWN, scanner.scan("EXCHANGE_RATES_REQUEST BITFINEX BTC KRAKEN USD GDAX"));
+        assertEquals(InputType.UNKNOWN, scanner.scan("EXCHANGE_RATES_REQUEST BITFINEX BTC KRAKEN USD "));
+    }
+
+    @Test
+    void sameDecisionsAsInputParser() {
+        Random random = new Random(11);
+        String alphabet = "0123456789 .:-+TXAE_\t";
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder line = new StringBuilder(LINES.get(random.nextInt(LINES.size())));
+            for (int edits = random.nextInt(3); edits >= 0 && line.length() > 0; edits--) {
+                int at = random.nextInt(line.length());
+                char c = alphabet.charAt(random.nextInt(alphabet.length()));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        line.setCharAt(at, c);
+                        break;
+                    case 1:
+                        line.insert(at, c);
+                        break;
+                    default:
+                        line.deleteCharAt(at);
+                }
+            }
+            assertSameDecision(line.toString());
+        }
+        for (String line : LINES) {
+            assertSameDecision(line);
+        }
+    }
+
+    private void assertSameDecision(String line) {
+        InputType type = scanner.scan(line);
+        if (InputParser.isExchangeRateRequest(line)) {
+            assertEquals(InputType.EXCHANGE_RATE_REQUEST, type, line);
+        } else if (InputParser.isArbitrageRequest(line)) {
+            assertEquals(InputType.ARBITRAGE_REQUEST, type, line);
+        } else if (InputParser.isPriceUpdate(line)) {
+            if (!InputParser.isPriceUpdateValid(line)) {
+                assertEquals(InputType.INVALID_PRICE_UPDATE, type, line);
+                return;
+            }
+            assertEquals(InputType.PRICE_UPDATE, type, line);
+            ExchangeRate[] expected;
+            try {
+                expected = InputParser.parsePriceUpdate(line);
+            } catch (RuntimeException e) {
+                /* dates like the 29th of February pass the format but not the calendar */
+                assertThrows(RuntimeException.class, () -> scanner.parsePriceUpdate(new ExchangeRate[2]), line);
+                return;
+            }
+            assertArrayEquals(expected, scanner.parsePriceUpdate(new ExchangeRate[2]), line);
+        } else {
+            assertEquals(InputType.UNKNOWN, type, line);
+        }
+    }
+
+    @Test
+    void timestampOffsetKept() {
+        scanner.scan("2018-05-26T09:42:23-05:30 kraken btc usd 10000 0.0001");
+        ExchangeRate[] exchangeRates = scanner.parsePriceUpdate(new ExchangeRate[2]);
+        assertEquals(OffsetDateTime.parse("2018-05-26T09:42:23-05:30"), exchangeRates[0].getTimestamp());
+        assertEquals(new BigDecimal("0.0001"), exchangeRates[1].getRate());
+    }
+}